@@ -10,6 +10,8 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -17,15 +19,28 @@ import androidx.core.app.ActivityCompat;
 
 import com.github.blueboytm.flutter_v2ray.v2ray.V2rayController;
 import com.github.blueboytm.flutter_v2ray.v2ray.V2rayReceiver;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayDelayCache;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayExecutors;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayFailoverMonitor;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2raySpeedTest;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayStatusBus;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2raySocksBenchmark;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayDelayListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayFailoverListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2raySpeedTestListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayStatusListener;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayTunProfile;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
 
@@ -36,10 +51,14 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
 
     private static final int REQUEST_CODE_VPN_PERMISSION = 24;
     private static final int REQUEST_CODE_POST_NOTIFICATIONS = 1;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private MethodChannel vpnControlMethod;
     private EventChannel vpnStatusEvent;
     private EventChannel.EventSink vpnStatusSink;
+    private EventChannel serverDelayEvent;
+    private EventChannel.EventSink serverDelaySink;
+    private EventChannel speedTestEvent;
+    private EventChannel.EventSink speedTestSink;
     private Activity activity;
     private BroadcastReceiver v2rayBroadCastReceiver;
     private MethodChannel.Result pendingResult;
@@ -47,61 +66,87 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
     @SuppressLint("DiscouragedApi")
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
+        V2rayExecutors.getInstance().retain();
         vpnControlMethod = new MethodChannel(binding.getBinaryMessenger(), "flutter_v2ray");
         vpnStatusEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray/status");
+        serverDelayEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray/delay");
+        speedTestEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray/speed_test");
+
+        serverDelayEvent.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink events) {
+                serverDelaySink = events;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                serverDelaySink = null;
+            }
+        });
+
+        speedTestEvent.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink events) {
+                speedTestSink = events;
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                speedTestSink = null;
+            }
+        });
 
         vpnStatusEvent.setStreamHandler(new EventChannel.StreamHandler() {
             @Override
             public void onListen(Object arguments, EventChannel.EventSink events) {
                 vpnStatusSink = events;
-                V2rayReceiver.vpnStatusSink = vpnStatusSink;
-
-                // Register the BroadcastReceiver now that vpnStatusSink is available
-                if (v2rayBroadCastReceiver == null) {
-                    v2rayBroadCastReceiver = new V2rayReceiver();
-                }
-                IntentFilter filter = new IntentFilter("V2RAY_CONNECTION_INFO");
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                    activity.registerReceiver(v2rayBroadCastReceiver, filter, Context.RECEIVER_EXPORTED);
-                } else {
-                    activity.registerReceiver(v2rayBroadCastReceiver, filter);
-                }
+                updateStatusSubscription();
             }
 
             @Override
             public void onCancel(Object arguments) {
                 if (vpnStatusSink != null) vpnStatusSink.endOfStream();
-
-                // Unregister the BroadcastReceiver when the stream is canceled
-                if (v2rayBroadCastReceiver != null) {
-                    activity.unregisterReceiver(v2rayBroadCastReceiver);
-                    v2rayBroadCastReceiver = null;
-                }
+                vpnStatusSink = null;
+                updateStatusSubscription();
             }
         });
 
         vpnControlMethod.setMethodCallHandler((call, result) -> {
             switch (call.method) {
                 case "startV2Ray":
-                    AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
-                    if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
-                        V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
-                    }
+                    applyStartArguments(call);
                     V2rayController.StartV2ray(binding.getApplicationContext(), call.argument("remark"), call.argument("config"), call.argument("blocked_apps"), call.argument("bypass_subnets"));
                     result.success(null);
                     break;
+                case "startV2RayWithFailover":
+                    applyStartArguments(call);
+                    Number checkInterval = call.argument("check_interval");
+                    Number maxDelay = call.argument("max_delay");
+                    Number maxFailures = call.argument("max_failures");
+                    V2rayController.StartV2rayWithFailover(binding.getApplicationContext(), call.argument("remark"), call.argument("configs"),
+                            call.argument("blocked_apps"), call.argument("bypass_subnets"), call.argument("url"),
+                            checkInterval == null ? V2rayFailoverMonitor.DEFAULT_CHECK_INTERVAL_MILLIS : checkInterval.longValue(),
+                            maxDelay == null ? V2rayFailoverMonitor.DEFAULT_MAX_DELAY_MILLIS : maxDelay.longValue(),
+                            maxFailures == null ? V2rayFailoverMonitor.DEFAULT_MAX_FAILURES : maxFailures.intValue(),
+                            failoverListener);
+                    result.success(null);
+                    break;
                 case "stopV2Ray":
                     V2rayController.StopV2ray(binding.getApplicationContext());
                     result.success(null);
                     break;
                 case "initializeV2Ray":
+                    // the status bus can't leave the process, services moved out of it have to broadcast
+                    AppConfigs.ENABLE_STATUS_BROADCAST = Boolean.TRUE.equals(call.argument("status_broadcast_compat"))
+                            || V2rayController.isServiceProcessSeparate(binding.getApplicationContext());
+                    updateStatusSubscription();
                     String iconResourceName = call.argument("notificationIconResourceName");
                     String iconResourceType = call.argument("notificationIconResourceType");
                     V2rayController.init(binding.getApplicationContext(), binding.getApplicationContext().getResources().getIdentifier(iconResourceName, iconResourceType, binding.getApplicationContext().getPackageName()), "Flutter V2ray");
                     result.success(null);
                     break;
                 case "getServerDelay":
-                    executor.submit(() -> {
+                    submit(V2rayExecutors.Pool.IO, result, -1, () -> {
                         try {
                             result.success(V2rayController.getV2rayServerDelay(call.argument("config"), call.argument("url")));
                         } catch (Exception e) {
@@ -109,13 +154,155 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
                         }
                     });
                     break;
+                case "getServerDelays":
+                    Integer batchId = call.argument("batch_id");
+                    Integer concurrency = call.argument("concurrency");
+                    Number timeout = call.argument("timeout");
+                    V2rayController.getV2rayServerDelays(batchId == null ? 0 : batchId, call.argument("configs"), call.argument("url"),
+                            concurrency == null ? 8 : concurrency, timeout == null ? 0 : timeout.longValue(), serverDelayListener);
+                    result.success(null);
+                    break;
+                case "getServerTcpDelays":
+                    Integer tcpBatchId = call.argument("batch_id");
+                    Integer tcpConcurrency = call.argument("concurrency");
+                    Number tcpTimeout = call.argument("timeout");
+                    V2rayController.getV2rayServerTcpDelays(tcpBatchId == null ? 0 : tcpBatchId, call.argument("configs"),
+                            tcpConcurrency == null ? 256 : tcpConcurrency, tcpTimeout == null ? 0 : tcpTimeout.longValue(), serverDelayListener);
+                    result.success(null);
+                    break;
+                case "cancelServerDelays":
+                    Integer cancelBatchId = call.argument("batch_id");
+                    result.success(cancelBatchId != null && V2rayController.cancelV2rayServerDelays(cancelBatchId));
+                    break;
+                case "startSpeedTest":
+                    Integer testId = call.argument("test_id");
+                    Integer streams = call.argument("streams");
+                    Number duration = call.argument("duration");
+                    Number rampUp = call.argument("ramp_up");
+                    V2rayController.startSpeedTest(testId == null ? 0 : testId, call.argument("download_url"), call.argument("upload_url"),
+                            streams == null ? 4 : streams, duration == null ? 0 : duration.longValue(),
+                            rampUp == null ? V2raySpeedTest.DEFAULT_RAMP_UP_MILLIS : rampUp.longValue(), speedTestListener);
+                    result.success(null);
+                    break;
+                case "cancelSpeedTest":
+                    Integer cancelTestId = call.argument("test_id");
+                    result.success(cancelTestId != null && V2rayController.cancelSpeedTest(cancelTestId));
+                    break;
+                case "configureDelayCache":
+                    Number ttl = call.argument("ttl");
+                    Integer maxEntries = call.argument("max_entries");
+                    V2rayController.configureDelayCache(ttl == null ? V2rayDelayCache.DEFAULT_TTL_MILLIS : ttl.longValue(),
+                            maxEntries == null ? V2rayDelayCache.DEFAULT_MAX_ENTRIES : maxEntries);
+                    result.success(null);
+                    break;
+                case "clearDelayCache":
+                    V2rayController.clearDelayCache();
+                    result.success(null);
+                    break;
+                case "getDelayCacheStats":
+                    result.success(V2rayController.getDelayCacheStats());
+                    break;
+                case "getOutboundStats":
+                    result.success(V2rayController.getOutboundStats());
+                    break;
+                case "getTrafficHistory":
+                    Number historyFrom = call.argument("from");
+                    Number historyTo = call.argument("to");
+                    Number historyBuckets = call.argument("buckets");
+                    submit(V2rayExecutors.Pool.STATS, result, null, () -> result.success(V2rayController.getTrafficHistory(
+                            historyFrom == null ? 0 : historyFrom.longValue(),
+                            historyTo == null ? Long.MAX_VALUE : historyTo.longValue(),
+                            historyBuckets == null ? 60 : historyBuckets.intValue())));
+                    break;
+                case "getDailyTraffic":
+                case "getMonthlyTraffic":
+                    Number usageFrom = call.argument("from");
+                    Number usageTo = call.argument("to");
+                    final long usageFromMillis = usageFrom == null ? 0 : usageFrom.longValue();
+                    final long usageToMillis = usageTo == null ? System.currentTimeMillis() : usageTo.longValue();
+                    submit(V2rayExecutors.Pool.STATS, result, null, () -> result.success(call.method.equals("getDailyTraffic")
+                            ? V2rayController.getDailyTraffic(usageFromMillis, usageToMillis)
+                            : V2rayController.getMonthlyTraffic(usageFromMillis, usageToMillis)));
+                    break;
+                case "clearTrafficUsage":
+                    V2rayController.clearTrafficUsage();
+                    result.success(null);
+                    break;
+                case "lookupGeoIp":
+                    submit(V2rayExecutors.Pool.IO, result, null, () -> {
+                        try {
+                            ArrayList<String> addresses = call.argument("addresses");
+                            result.success(V2rayController.lookupGeoIp(binding.getApplicationContext(),
+                                    addresses == null ? new ArrayList<>() : addresses, Boolean.TRUE.equals(call.argument("resolve"))));
+                        } catch (Exception e) {
+                            result.success(null);
+                        }
+                    });
+                    break;
+                case "getRoutePlanStats":
+                    result.success(V2rayController.getRoutePlanStats());
+                    break;
+                case "benchmarkSocksThroughput":
+                    submit(V2rayExecutors.Pool.IO, result, null, () -> {
+                        try {
+                            Number bytes = call.argument("bytes");
+                            result.success(V2rayController.benchmarkSocksThroughput(
+                                    bytes == null ? V2raySocksBenchmark.DEFAULT_BYTES : bytes.longValue()));
+                        } catch (Exception e) {
+                            result.success(null);
+                        }
+                    });
+                    break;
+                case "benchmarkConfigCodec":
+                    submit(V2rayExecutors.Pool.IO, result, null, () -> {
+                        try {
+                            Integer iterations = call.argument("iterations");
+                            result.success(V2rayController.benchmarkConfigCodec(binding.getApplicationContext(), call.argument("config"),
+                                    iterations == null ? 1000 : iterations));
+                        } catch (Exception e) {
+                            result.success(null);
+                        }
+                    });
+                    break;
+                case "getDnsCacheStats":
+                    result.success(V2rayController.getDnsCacheStats());
+                    break;
+                case "clearDnsCache":
+                    V2rayController.clearDnsCache();
+                    result.success(null);
+                    break;
+                case "getConnectTimings":
+                    result.success(V2rayController.getConnectTimings());
+                    break;
+                case "getTun2socksStats":
+                    result.success(V2rayController.getTun2socksStats());
+                    break;
+                case "getStatusBusStats":
+                    result.success(V2rayController.getStatusBusStats());
+                    break;
+                case "getExecutorStats":
+                    result.success(V2rayController.getExecutorStats());
+                    break;
                 case "getConnectedServerDelay":
-                    executor.submit(() -> {
+                    AppConfigs.DELAY_URL = call.argument("url");
+                    V2rayController.getConnectedV2rayServerDelay(AppConfigs.DELAY_URL,
+                            delay -> mainHandler.post(() -> result.success(delay)));
+                    break;
+                case "getServerQuality":
+                case "getConnectedServerQuality":
+                    submit(V2rayExecutors.Pool.IO, result, null, () -> {
                         try {
-                            AppConfigs.DELAY_URL = call.argument("url");
-                            result.success(V2rayController.getConnectedV2rayServerDelay(binding.getApplicationContext()));
+                            ArrayList<String> urls = call.argument("urls");
+                            Integer samples = call.argument("samples");
+                            if (urls == null || urls.isEmpty()) {
+                                result.success(null);
+                            } else if (call.method.equals("getServerQuality")) {
+                                result.success(V2rayController.getV2rayServerQuality(call.argument("config"), urls, samples == null ? 5 : samples));
+                            } else {
+                                result.success(V2rayController.getConnectedV2rayServerQuality(urls, samples == null ? 5 : samples));
+                            }
                         } catch (Exception e) {
-                            result.success(-1);
+                            result.success(null);
                         }
                     });
                     break;
@@ -148,32 +335,172 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        vpnStatusSink = null;
+        updateStatusSubscription();
+        vpnControlMethod.setMethodCallHandler(null);
+        vpnStatusEvent.setStreamHandler(null);
+        serverDelayEvent.setStreamHandler(null);
+        speedTestEvent.setStreamHandler(null);
+        V2rayController.cancelAllV2rayServerDelays();
+        V2rayController.cancelAllSpeedTests();
+        V2rayExecutors.getInstance().release();
+    }
+
+    /**
+     * Runs {@code task} on {@code pool}, answering {@code result} with {@code fallback} when the pool is full.
+     */
+    private void submit(final V2rayExecutors.Pool pool, final MethodChannel.Result result, final Object fallback, final Runnable task) {
+        if (V2rayExecutors.getInstance().submit(pool, task) == null) {
+            result.success(fallback);
+        }
+    }
+
+    private void applyStartArguments(final MethodCall call) {
+        AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
+        Number statsInterval = call.argument("stats_interval");
+        AppConfigs.STATS_SAMPLE_INTERVAL = statsInterval == null ? 1000 : statsInterval.longValue();
+        Number statsIdleInterval = call.argument("stats_idle_interval");
+        AppConfigs.STATS_IDLE_SAMPLE_INTERVAL = statsIdleInterval == null ? 30000 : statsIdleInterval.longValue();
+        AppConfigs.EXCLUDED_SUBNETS = call.argument("excluded_subnets");
+        String ipv6Mode = call.argument("ipv6_mode");
+        try {
+            AppConfigs.IPV6_MODE = ipv6Mode == null ? AppConfigs.V2RAY_IPV6_MODES.DISABLED : AppConfigs.V2RAY_IPV6_MODES.valueOf(ipv6Mode);
+        } catch (IllegalArgumentException e) {
+            AppConfigs.IPV6_MODE = AppConfigs.V2RAY_IPV6_MODES.DISABLED;
+        }
+        AppConfigs.TUN_PROFILE = V2rayTunProfile.fromMap(call.argument("tun_profile"));
+        if (AppConfigs.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.TUNNEL) {
+            AppConfigs.TUN_PROFILE.MTU = Math.max(V2rayTunProfile.IPV6_MIN_MTU, AppConfigs.TUN_PROFILE.MTU);
+        }
+        // only the dns cache can answer AAAA queries without addresses, BLACKHOLE needs it
+        AppConfigs.ENABLE_LOCAL_DNS_CACHE = Boolean.TRUE.equals(call.argument("local_dns_cache"))
+                || AppConfigs.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.BLACKHOLE;
+        if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
+            V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
+        }
+    }
+
+    private final V2rayFailoverListener failoverListener = (fromIndex, toIndex, reason, delay) -> {
+        final Map<String, Object> event = new HashMap<>();
+        event.put("event", "server_switched");
+        event.put("from", fromIndex);
+        event.put("to", toIndex);
+        event.put("reason", reason);
+        event.put("delay", delay);
+        mainHandler.post(() -> {
+            if (vpnStatusSink != null) {
+                vpnStatusSink.success(event);
+            }
+        });
+    };
+
+    /**
+     * Delivers status updates either straight from the in-process status bus or,
+     * in broadcast compatibility mode, through the V2RAY_CONNECTION_INFO receiver.
+     */
+    private void updateStatusSubscription() {
+        V2rayStatusBus.getInstance().unsubscribe(statusListener);
         if (v2rayBroadCastReceiver != null) {
-            activity.unregisterReceiver(v2rayBroadCastReceiver);
+            try {
+                activity.unregisterReceiver(v2rayBroadCastReceiver);
+            } catch (Exception e) {
+                //ignore
+            }
             v2rayBroadCastReceiver = null;
         }
-        vpnControlMethod.setMethodCallHandler(null);
-        vpnStatusEvent.setStreamHandler(null);
-        executor.shutdown();
+        if (vpnStatusSink == null) {
+            return;
+        }
+        if (!AppConfigs.ENABLE_STATUS_BROADCAST) {
+            V2rayStatusBus.getInstance().subscribe(statusListener);
+            return;
+        }
+        if (activity == null) {
+            return;
+        }
+        // the core marks broadcast demand itself, see V2rayStatusBus#setBroadcastDemand
+        V2rayReceiver.vpnStatusSink = vpnStatusSink;
+        v2rayBroadCastReceiver = new V2rayReceiver();
+        IntentFilter filter = new IntentFilter("V2RAY_CONNECTION_INFO");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            activity.registerReceiver(v2rayBroadCastReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            activity.registerReceiver(v2rayBroadCastReceiver, filter);
+        }
     }
 
+    private final V2rayStatusListener statusListener = (state, stats, publishedAtNanos) -> {
+        final ArrayList<String> list = new ArrayList<>(6);
+        list.add(stats.getDuration());
+        list.add(String.valueOf(stats.getUploadSpeed()));
+        list.add(String.valueOf(stats.getDownloadSpeed()));
+        list.add(String.valueOf(stats.getTotalUpload()));
+        list.add(String.valueOf(stats.getTotalDownload()));
+        list.add(state.toString().substring(6));
+        mainHandler.post(() -> {
+            if (vpnStatusSink != null) {
+                vpnStatusSink.success(list);
+                V2rayStatusBus.getInstance().recordDelivery(publishedAtNanos);
+            }
+        });
+    };
+
+    private final V2rayDelayListener serverDelayListener = new V2rayDelayListener() {
+        @Override
+        public void onDelay(int batchId, int index, long delay) {
+            final Map<String, Object> event = new HashMap<>();
+            event.put("batch_id", batchId);
+            event.put("index", index);
+            event.put("delay", delay);
+            mainHandler.post(() -> {
+                if (serverDelaySink != null) serverDelaySink.success(event);
+            });
+        }
+
+        @Override
+        public void onBatchFinished(int batchId, boolean cancelled) {
+            final Map<String, Object> event = new HashMap<>();
+            event.put("batch_id", batchId);
+            event.put("done", true);
+            event.put("cancelled", cancelled);
+            mainHandler.post(() -> {
+                if (serverDelaySink != null) serverDelaySink.success(event);
+            });
+        }
+    };
+
+    private final V2raySpeedTestListener speedTestListener = new V2raySpeedTestListener() {
+        @Override
+        public void onProgress(int testId, String phase, long elapsedMillis, long bytes, double mbps) {
+            final Map<String, Object> event = new HashMap<>();
+            event.put("test_id", testId);
+            event.put("phase", phase);
+            event.put("elapsed", elapsedMillis);
+            event.put("bytes", bytes);
+            event.put("mbps", mbps);
+            mainHandler.post(() -> {
+                if (speedTestSink != null) speedTestSink.success(event);
+            });
+        }
+
+        @Override
+        public void onFinished(int testId, Map<String, Object> result, boolean cancelled) {
+            final Map<String, Object> event = new HashMap<>(result);
+            event.put("test_id", testId);
+            event.put("done", true);
+            event.put("cancelled", cancelled);
+            mainHandler.post(() -> {
+                if (speedTestSink != null) speedTestSink.success(event);
+            });
+        }
+    };
+
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
         activity = binding.getActivity();
         binding.addActivityResultListener(this);
         // Register the receiver if vpnStatusSink is already set
-        if (vpnStatusSink != null) {
-            V2rayReceiver.vpnStatusSink = vpnStatusSink;
-            if (v2rayBroadCastReceiver == null) {
-                v2rayBroadCastReceiver = new V2rayReceiver();
-            }
-            IntentFilter filter = new IntentFilter("V2RAY_CONNECTION_INFO");
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                activity.registerReceiver(v2rayBroadCastReceiver, filter, Context.RECEIVER_EXPORTED);
-            } else {
-                activity.registerReceiver(v2rayBroadCastReceiver, filter);
-            }
-        }
+        updateStatusSubscription();
     }
 
     @Override
@@ -187,18 +514,7 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         binding.addActivityResultListener(this);
 
         // Re-register the receiver if vpnStatusSink is already set
-        if (vpnStatusSink != null) {
-            V2rayReceiver.vpnStatusSink = vpnStatusSink;
-            if (v2rayBroadCastReceiver == null) {
-                v2rayBroadCastReceiver = new V2rayReceiver();
-            }
-            IntentFilter filter = new IntentFilter("V2RAY_CONNECTION_INFO");
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                activity.registerReceiver(v2rayBroadCastReceiver, filter, Context.RECEIVER_EXPORTED);
-            } else {
-                activity.registerReceiver(v2rayBroadCastReceiver, filter);
-            }
-        }
+        updateStatusSubscription();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.github.blueboytm.flutter_v2ray.v2ray;
 
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -12,18 +13,43 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.util.Log;
 
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayAssetInstaller;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayConnectTimings;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayConnectedDelayProbe;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayDelayCache;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayDelayProber;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayDnsCache;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayExecutors;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayFailoverMonitor;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayGeoIpIndex;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayRoutePlanner;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2raySpeedTest;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayStatusBus;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayTcpPinger;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayTrafficLedger;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2raySocksBenchmark;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayDelayListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayFailoverListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2raySpeedTestListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayStatusListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.services.Tun2socksSupervisor;
 import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayProxyOnlyService;
 import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayVPNService;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfigHandoff;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -31,29 +57,50 @@ import libv2ray.Libv2ray;
 
 public class V2rayController {
 
+    private static final V2rayStatusListener connectionStateListener = (state, stats, publishedAtNanos) -> AppConfigs.V2RAY_STATE = state;
+    private static BroadcastReceiver connectionStateReceiver;
+    private static volatile Context servicesContext;
+
+    /**
+     * @return whether the app moved the services out of its process in its manifest. The core and
+     * everything it measures live there then, only broadcasts and service commands reach them.
+     */
+    public static boolean isServiceProcessSeparate(final Context context) {
+        try {
+            final String serviceProcess = context.getPackageManager()
+                    .getServiceInfo(new ComponentName(context, V2rayVPNService.class), 0).processName;
+            return serviceProcess != null && !serviceProcess.equals(context.getApplicationInfo().processName);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(V2rayController.class.getSimpleName(), "isServiceProcessSeparate failed =>", e);
+            return false;
+        }
+    }
+
     public static void init(final Context context, final int app_icon, final String app_name) {
+        servicesContext = isServiceProcessSeparate(context) ? context.getApplicationContext() : null;
         Utilities.copyAssets(context);
+        V2rayTrafficLedger.getInstance().open(context);
         AppConfigs.APPLICATION_ICON = app_icon;
         AppConfigs.APPLICATION_NAME = app_name;
 
-        BroadcastReceiver receiver = new BroadcastReceiver() {
+        if (!AppConfigs.ENABLE_STATUS_BROADCAST) {
+            V2rayStatusBus.getInstance().subscribe(connectionStateListener, false);
+            return;
+        }
+        V2rayStatusBus.getInstance().unsubscribe(connectionStateListener);
+        if (connectionStateReceiver != null) {
+            return;
+        }
+        connectionStateReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context arg0, Intent arg1) {
                 AppConfigs.V2RAY_STATE = (AppConfigs.V2RAY_STATES) arg1.getExtras().getSerializable("STATE");
             }
         };
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
-                    != PackageManager.PERMISSION_GRANTED) {
-                        context.registerReceiver(receiver, new IntentFilter("V2RAY_CONNECTION_INFO"));
-                
-            }
-            else{
-                context.registerReceiver(receiver, new IntentFilter("V2RAY_CONNECTION_INFO"), Context.RECEIVER_EXPORTED);
-            }
-         
+            context.registerReceiver(connectionStateReceiver, new IntentFilter("V2RAY_CONNECTION_INFO"), Context.RECEIVER_NOT_EXPORTED);
         } else {
-            context.registerReceiver(receiver, new IntentFilter("V2RAY_CONNECTION_INFO"));
+            context.registerReceiver(connectionStateReceiver, new IntentFilter("V2RAY_CONNECTION_INFO"));
         }
     }
 
@@ -64,7 +111,44 @@ public class V2rayController {
     }
 
     public static void StartV2ray(final Context context, final String remark, final String config, final ArrayList<String> blocked_apps, final ArrayList<String> bypass_subnets) {
+        V2rayFailoverMonitor.getInstance().stop();
+        startV2rayService(context, remark, config, blocked_apps, bypass_subnets);
+    }
+
+    /**
+     * Connects to the first of {@code configs} and fails over to the healthiest other
+     * candidate whenever the connected server keeps failing or exceeds {@code maxDelayMillis}.
+     * When the services run in a separate process only the first config is connected.
+     */
+    public static void StartV2rayWithFailover(final Context context, final String remark, final List<String> configs,
+                                              final ArrayList<String> blocked_apps, final ArrayList<String> bypass_subnets,
+                                              final String url, final long checkIntervalMillis, final long maxDelayMillis,
+                                              final int maxFailures, final V2rayFailoverListener listener) {
+        V2rayFailoverMonitor.getInstance().stop();
+        if (configs == null || configs.isEmpty()) {
+            return;
+        }
+        startV2rayService(context, remark, configs.get(0), blocked_apps, bypass_subnets);
+        if (servicesContext != null) {
+            // the monitor reads the core's state and probes through it, neither is in this process
+            Log.w(V2rayController.class.getSimpleName(), "StartV2rayWithFailover => services run in a separate process, failover is off.");
+            return;
+        }
+        V2rayFailoverMonitor.getInstance().start(configs, 0, url, checkIntervalMillis, maxDelayMillis, maxFailures,
+                (fromIndex, toIndex, reason, delay) -> {
+                    Log.w(V2rayController.class.getSimpleName(), "failover => switching from " + fromIndex + " to " + toIndex + " (" + reason + ")");
+                    startV2rayService(context, remark, configs.get(toIndex), blocked_apps, bypass_subnets);
+                    if (listener != null) {
+                        listener.onServerSwitched(fromIndex, toIndex, reason, delay);
+                    }
+                });
+    }
+
+    private static void startV2rayService(final Context context, final String remark, final String config, final ArrayList<String> blocked_apps, final ArrayList<String> bypass_subnets) {
+        V2rayConnectTimings.getInstance().beginConnect();
+        final long parseStartedAt = V2rayConnectTimings.now();
         AppConfigs.V2RAY_CONFIG = Utilities.parseV2rayJsonFile(remark, config, blocked_apps, bypass_subnets);
+        V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.PARSE_CONFIG, parseStartedAt);
         if (AppConfigs.V2RAY_CONFIG == null) {
             return;
         }
@@ -77,7 +161,7 @@ public class V2rayController {
             return;
         }
         start_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE);
-        start_intent.putExtra("V2RAY_CONFIG", AppConfigs.V2RAY_CONFIG);
+        V2rayConfigHandoff.putConfig(context, start_intent, AppConfigs.V2RAY_CONFIG);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
@@ -96,6 +180,7 @@ public class V2rayController {
     }
 
     public static void StopV2ray(final Context context) {
+        V2rayFailoverMonitor.getInstance().stop();
         Intent stop_intent;
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
             stop_intent = new Intent(context, V2rayProxyOnlyService.class);
@@ -109,6 +194,31 @@ public class V2rayController {
         AppConfigs.V2RAY_CONFIG = null;
     }
 
+    /**
+     * Measures the connected server in process, concurrent calls for the same url share one measurement.
+     * {@code callback} gets -1 right away when not connected. With the services in their own process
+     * the measurement goes through the service instead, against its default url.
+     */
+    public static void getConnectedV2rayServerDelay(final String url, final V2rayConnectedDelayProbe.Callback callback) {
+        if (getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            callback.onDelay(-1L);
+            return;
+        }
+        final Context context = servicesContext;
+        if (context != null) {
+            if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> callback.onDelay(getConnectedV2rayServerDelay(context))) == null) {
+                callback.onDelay(-1L);
+            }
+            return;
+        }
+        V2rayConnectedDelayProbe.getInstance().measure(url, callback);
+    }
+
+    /**
+     * @deprecated goes through the service and waits at most 3 s, use
+     * {@link #getConnectedV2rayServerDelay(String, V2rayConnectedDelayProbe.Callback)}.
+     */
+    @Deprecated
     public static long getConnectedV2rayServerDelay(Context context) {
         if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
             return -1;
@@ -158,6 +268,163 @@ public class V2rayController {
         return V2rayCoreManager.getInstance().getV2rayServerDelay(config, url);
     }
 
+    public static void getV2rayServerDelays(final int batchId, final List<String> configs, final String url, final int concurrency, final long timeoutMillis, final V2rayDelayListener listener) {
+        V2rayDelayProber.getInstance().start(batchId, configs, url, concurrency, timeoutMillis, listener);
+    }
+
+    /**
+     * @return the quality profile of {@code config}, see {@link V2rayCoreManager#getV2rayServerQuality}.
+     */
+    public static Map<String, Object> getV2rayServerQuality(final String config, final List<String> urls, final int samples) {
+        return V2rayCoreManager.getInstance().getV2rayServerQuality(config, urls, samples);
+    }
+
+    public static Map<String, Object> getConnectedV2rayServerQuality(final List<String> urls, final int samples) {
+        if (getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        return V2rayCoreManager.getInstance().getConnectedV2rayServerQuality(urls, samples);
+    }
+
+    public static void getV2rayServerTcpDelays(final int batchId, final List<String> configs, final int concurrency, final long timeoutMillis, final V2rayDelayListener listener) {
+        V2rayTcpPinger.getInstance().start(batchId, configs, concurrency, timeoutMillis, listener);
+    }
+
+    public static boolean cancelV2rayServerDelays(final int batchId) {
+        final boolean probes = V2rayDelayProber.getInstance().cancel(batchId);
+        return V2rayTcpPinger.getInstance().cancel(batchId) || probes;
+    }
+
+    public static void cancelAllV2rayServerDelays() {
+        V2rayDelayProber.getInstance().cancelAll();
+        V2rayTcpPinger.getInstance().cancelAll();
+    }
+
+    public static void configureDelayCache(final long ttlMillis, final int maxEntries) {
+        V2rayDelayCache.getInstance().configure(ttlMillis, maxEntries);
+    }
+
+    public static void clearDelayCache() {
+        V2rayDelayCache.getInstance().clear();
+    }
+
+    public static Map<String, Object> getDelayCacheStats() {
+        return V2rayDelayCache.getInstance().getStats();
+    }
+
+    public static List<Map<String, Object>> getOutboundStats() {
+        return V2rayCoreManager.getInstance().statsSampler.getOutboundStats();
+    }
+
+    public static long[] getTrafficHistory(final long fromMillis, final long toMillis, final int buckets) {
+        return V2rayCoreManager.getInstance().trafficHistory.query(fromMillis, toMillis, buckets);
+    }
+
+    public static long[] getDailyTraffic(final long fromMillis, final long toMillis) {
+        return V2rayTrafficLedger.getInstance().getDailyUsage(fromMillis, toMillis);
+    }
+
+    public static long[] getMonthlyTraffic(final long fromMillis, final long toMillis) {
+        return V2rayTrafficLedger.getInstance().getMonthlyUsage(fromMillis, toMillis);
+    }
+
+    public static void clearTrafficUsage() {
+        V2rayTrafficLedger.getInstance().clear();
+    }
+
+    /**
+     * @return the geoip.dat country code of every address, or null where none is known.
+     */
+    public static List<String> lookupGeoIp(final Context context, final List<String> addresses, final boolean resolve) {
+        V2rayAssetInstaller.getInstance().awaitInstalled(context, V2rayAssetInstaller.DEFAULT_AWAIT_MILLIS);
+        V2rayGeoIpIndex.getInstance().load(new File(Utilities.getUserAssetsPath(context)));
+        return V2rayGeoIpIndex.getInstance().lookup(addresses, resolve);
+    }
+
+    public static Map<String, Object> getRoutePlanStats() {
+        return V2rayRoutePlanner.getInstance().getStats();
+    }
+
+    /**
+     * Pushes {@code bytes} through the local SOCKS port once, see {@link V2raySocksBenchmark}.
+     *
+     * @return the result of the run, or null when not connected.
+     */
+    public static Map<String, Object> benchmarkSocksThroughput(final long bytes) {
+        final V2rayConfig config = AppConfigs.V2RAY_CONFIG;
+        if (getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED || config == null) {
+            return null;
+        }
+        return V2raySocksBenchmark.run(config.LOCAL_SOCKS5_PORT, bytes);
+    }
+
+    /**
+     * Measures throughput through the local SOCKS port of the running core, see {@link V2raySpeedTest}.
+     * When not connected the listener is told right away.
+     */
+    public static void startSpeedTest(final int testId, final String downloadUrl, final String uploadUrl, final int streams,
+                                      final long durationMillis, final long rampUpMillis, final V2raySpeedTestListener listener) {
+        final V2rayConfig config = AppConfigs.V2RAY_CONFIG;
+        if (getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED || config == null) {
+            final Map<String, Object> result = new HashMap<>();
+            result.put("error", "not connected");
+            listener.onFinished(testId, result, false);
+            return;
+        }
+        V2raySpeedTest.getInstance().start(testId, config.LOCAL_SOCKS5_PORT, downloadUrl, uploadUrl, streams, durationMillis, rampUpMillis, listener);
+    }
+
+    public static boolean cancelSpeedTest(final int testId) {
+        return V2raySpeedTest.getInstance().cancel(testId);
+    }
+
+    public static void cancelAllSpeedTests() {
+        V2raySpeedTest.getInstance().cancelAll();
+    }
+
+    /**
+     * Benchmarks the codec that hands {@code config}, or the running config when null, to the services,
+     * see {@link V2rayConfigHandoff#benchmark}.
+     *
+     * @return null when there is no config to measure.
+     */
+    public static Map<String, Object> benchmarkConfigCodec(final Context context, final String config, final int iterations) {
+        final V2rayConfig v2rayConfig = config == null ? AppConfigs.V2RAY_CONFIG
+                : Utilities.parseV2rayJsonFile("", config, new ArrayList<>(), new ArrayList<>());
+        if (v2rayConfig == null) {
+            return null;
+        }
+        return V2rayConfigHandoff.benchmark(context, v2rayConfig, iterations);
+    }
+
+    public static Map<String, Object> getDnsCacheStats() {
+        return V2rayDnsCache.getInstance().getStats();
+    }
+
+    public static void clearDnsCache() {
+        V2rayDnsCache.getInstance().clear();
+    }
+
+    public static Map<String, Object> getConnectTimings() {
+        return V2rayConnectTimings.getInstance().getReport();
+    }
+
+    public static Map<String, Object> getTun2socksStats() {
+        return Tun2socksSupervisor.getInstance().getStats();
+    }
+
+    public static Map<String, Object> getStatusBusStats() {
+        return V2rayStatusBus.getInstance().getStats();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getExecutorStats() {
+        final Map<String, Object> stats = V2rayExecutors.getInstance().getStats();
+        // IO threads held by delay probes that outlived their timeout
+        ((Map<String, Object>) stats.get("io")).put("stuck_delay_probes", V2rayDelayProber.getInstance().getStuckProbeCount());
+        return stats;
+    }
+
     public static AppConfigs.V2RAY_CONNECTION_MODES getConnectionMode() {
         return AppConfigs.V2RAY_CONNECTION_MODE;
     }
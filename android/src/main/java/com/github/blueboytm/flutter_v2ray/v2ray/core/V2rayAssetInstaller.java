@@ -0,0 +1,337 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Installs the geo assets into the user assets folder on the lifecycle pool.
+ * <p>
+ * A manifest next to the assets keeps the size, mtime and CRC32 of every
+ * installed file together with the app version it came from, so after the first
+ * run an install is a couple of stat calls. Files are copied channel to channel
+ * into a temp file which is renamed over the old one, so the core never sees a
+ * half written asset.
+ */
+public final class V2rayAssetInstaller {
+    public static final List<String> ASSETS = Arrays.asList("geosite.dat", "geoip.dat");
+    public static final long DEFAULT_AWAIT_MILLIS = 30_000L;
+    private static final String MANIFEST_NAME = "assets_manifest.json";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private volatile static V2rayAssetInstaller INSTANCE;
+    private Installation installation;
+
+    public interface Callback {
+        void onInstalled(boolean installed);
+    }
+
+    public static V2rayAssetInstaller getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayAssetInstaller.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayAssetInstaller();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts installing the assets unless an installation is already running or
+     * has succeeded. Never blocks the caller.
+     */
+    public synchronized Future<Boolean> install(final Context context) {
+        if (installation != null && (!installation.isDone() || succeeded(installation))) {
+            return installation;
+        }
+        final Context appContext = context.getApplicationContext();
+        final Installation task = new Installation(() -> {
+            final long startedAt = V2rayConnectTimings.now();
+            final boolean installed = installAll(appContext);
+            V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.COPY_ASSETS, startedAt);
+            return installed;
+        });
+        if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.LIFECYCLE, task) == null) {
+            // fails whoever waits for it, the next install tries again
+            task.cancel(false);
+        }
+        installation = task;
+        return installation;
+    }
+
+    /**
+     * Calls {@code callback} on the lifecycle pool once the installation started by
+     * {@link #install(Context)} (starting one if needed) has finished. Never blocks the caller.
+     */
+    public void whenInstalled(final Context context, final Callback callback) {
+        final Installation task;
+        synchronized (this) {
+            install(context);
+            task = installation;
+        }
+        task.whenDone(callback);
+    }
+
+    /**
+     * Waits for the installation started by {@link #install(Context)} (starting one if needed).
+     *
+     * @return false if the assets could not be installed in time.
+     */
+    public boolean awaitInstalled(final Context context, final long timeoutMillis) {
+        try {
+            return install(context).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            Log.e(V2rayAssetInstaller.class.getSimpleName(), "awaitInstalled failed =>", e);
+            return false;
+        }
+    }
+
+    private static final class Installation extends FutureTask<Boolean> {
+        private final List<Callback> callbacks = new ArrayList<>();
+
+        Installation(final Callable<Boolean> callable) {
+            super(callable);
+        }
+
+        void whenDone(final Callback callback) {
+            synchronized (callbacks) {
+                if (!isDone()) {
+                    callbacks.add(callback);
+                    return;
+                }
+            }
+            notify(callback, succeeded(this));
+        }
+
+        @Override
+        protected void done() {
+            final List<Callback> waiting;
+            synchronized (callbacks) {
+                waiting = new ArrayList<>(callbacks);
+                callbacks.clear();
+            }
+            final boolean installed = succeeded(this);
+            for (Callback callback : waiting) {
+                notify(callback, installed);
+            }
+        }
+
+        private static void notify(final Callback callback, final boolean installed) {
+            final Runnable task = () -> callback.onInstalled(installed);
+            if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.LIFECYCLE, task) == null) {
+                task.run();
+            }
+        }
+    }
+
+    private static boolean succeeded(final Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean installAll(final Context context) {
+        final File folder = new File(Utilities.getUserAssetsPath(context));
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(V2rayAssetInstaller.class.getSimpleName(), "installAll failed => can`t create " + folder);
+            return false;
+        }
+        final File manifestFile = new File(folder, MANIFEST_NAME);
+        final JSONObject manifest = readManifest(manifestFile);
+        final long appVersion = getAppVersion(context);
+        final boolean sameApp = manifest.optLong("app_version", -1) == appVersion;
+        boolean changed = !sameApp;
+        boolean installed = true;
+        try {
+            final List<String> available = Arrays.asList(context.getAssets().list(""));
+            final JSONObject files = sameApp ? manifest.optJSONObject("files") : null;
+            final JSONObject nextFiles = new JSONObject();
+            for (String asset : ASSETS) {
+                if (!available.contains(asset)) {
+                    continue;
+                }
+                final File target = new File(folder, asset);
+                final JSONObject entry = files == null ? null : files.optJSONObject(asset);
+                if (entry != null) {
+                    final long recordedMtime = entry.optLong("mtime", -1);
+                    if (isUnchanged(target, entry)) {
+                        changed |= entry.optLong("mtime", -1) != recordedMtime;
+                        nextFiles.put(asset, entry);
+                        continue;
+                    }
+                }
+                try {
+                    final long crc = copyAsset(context, asset, target);
+                    nextFiles.put(asset, describe(target, crc));
+                    changed = true;
+                } catch (Exception e) {
+                    Log.e(V2rayAssetInstaller.class.getSimpleName(), "installAll failed => " + asset, e);
+                    installed = false;
+                }
+            }
+            if (changed) {
+                manifest.put("app_version", appVersion);
+                manifest.put("files", nextFiles);
+                writeManifest(manifestFile, manifest);
+            }
+        } catch (Exception e) {
+            Log.e(V2rayAssetInstaller.class.getSimpleName(), "installAll failed =>", e);
+            return false;
+        }
+        return installed;
+    }
+
+    /**
+     * Size and mtime decide. Only when the size matches but the mtime moved (e.g. a
+     * restored backup) is the file read again to compare its checksum.
+     */
+    private static boolean isUnchanged(final File target, final JSONObject entry) throws Exception {
+        if (!target.isFile() || target.length() != entry.optLong("size", -1)) {
+            return false;
+        }
+        if (target.lastModified() == entry.optLong("mtime", -1)) {
+            return true;
+        }
+        if (checksum(target) != entry.optLong("crc32", -1)) {
+            return false;
+        }
+        entry.put("mtime", target.lastModified());
+        return true;
+    }
+
+    private static JSONObject describe(final File target, final long crc) throws Exception {
+        final JSONObject entry = new JSONObject();
+        entry.put("size", target.length());
+        entry.put("mtime", target.lastModified());
+        entry.put("crc32", crc);
+        return entry;
+    }
+
+    /**
+     * @return the CRC32 of the installed file.
+     */
+    private static long copyAsset(final Context context, final String asset, final File target) throws IOException {
+        final File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        long crc;
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getAssets().openFd(asset);
+        } catch (IOException e) {
+            // compressed assets have no file descriptor, they are streamed below
+        }
+        if (descriptor != null) {
+            try (FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                final FileChannel source = in.getChannel();
+                final FileChannel destination = out.getChannel();
+                final long offset = descriptor.getStartOffset();
+                final long length = descriptor.getLength();
+                long position = 0;
+                while (position < length) {
+                    final long transferred = source.transferTo(offset + position, length - position, destination);
+                    if (transferred <= 0) {
+                        throw new IOException("transferTo stalled at " + position + " of " + length);
+                    }
+                    position += transferred;
+                }
+                destination.force(false);
+            } finally {
+                descriptor.close();
+            }
+            crc = checksum(temp);
+        } else {
+            final CRC32 checksum = new CRC32();
+            try (InputStream in = context.getAssets().open(asset);
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    checksum.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                out.getFD().sync();
+            }
+            crc = checksum.getValue();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("can`t rename " + temp + " to " + target);
+        }
+        return crc;
+    }
+
+    private static long checksum(final File file) throws IOException {
+        final CRC32 checksum = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, read);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static long getAppVersion(final Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static JSONObject readManifest(final File manifestFile) {
+        if (!manifestFile.isFile()) {
+            return new JSONObject();
+        }
+        try (InputStream in = new FileInputStream(manifestFile)) {
+            final byte[] content = new byte[(int) manifestFile.length()];
+            int offset = 0;
+            int read;
+            while (offset < content.length && (read = in.read(content, offset, content.length - offset)) > 0) {
+                offset += read;
+            }
+            return new JSONObject(new String(content, 0, offset, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            Log.e(V2rayAssetInstaller.class.getSimpleName(), "readManifest failed =>", e);
+            return new JSONObject();
+        }
+    }
+
+    private static void writeManifest(final File manifestFile, final JSONObject manifest) throws IOException {
+        final File temp = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(manifestFile)) {
+            temp.delete();
+            throw new IOException("can`t rename " + temp + " to " + manifestFile);
+        }
+    }
+}
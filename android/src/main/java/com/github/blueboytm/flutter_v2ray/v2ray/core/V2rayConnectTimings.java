@@ -0,0 +1,124 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Monotonic per-phase timings of the latest connect plus rolling p50/p95
+ * figures over the last {@link #WINDOW} connects.
+ */
+public final class V2rayConnectTimings {
+    public enum PHASE {
+        COPY_ASSETS, INIT_ENV, PARSE_CONFIG, RUN_LOOP, ESTABLISH, TUN2SOCKS_SPAWN, FD_HANDOFF, FIRST_TRAFFIC
+    }
+
+    public static final int WINDOW = 64;
+    private static final int PHASES = PHASE.values().length;
+    private volatile static V2rayConnectTimings INSTANCE;
+    private final long[] lastNanos = new long[PHASES];
+    private final long[][] windows = new long[PHASES][WINDOW];
+    private final int[] counts = new int[PHASES];
+    private long connectStartedAt = -1;
+    private boolean firstTrafficSeen;
+
+    private V2rayConnectTimings() {
+        Arrays.fill(lastNanos, -1);
+    }
+
+    public static V2rayConnectTimings getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayConnectTimings.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayConnectTimings();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Starts a new per-connect report. Phases recorded before (e.g. asset copying
+     * during initialization) keep their last value.
+     */
+    public synchronized void beginConnect() {
+        connectStartedAt = now();
+        firstTrafficSeen = false;
+        for (PHASE phase : PHASE.values()) {
+            if (phase != PHASE.COPY_ASSETS) {
+                lastNanos[phase.ordinal()] = -1;
+            }
+        }
+    }
+
+    /**
+     * Records a phase that started at {@code startedAtNanos} (from {@link #now()}) and ends now.
+     */
+    public synchronized void end(final PHASE phase, final long startedAtNanos) {
+        record(phase, now() - startedAtNanos);
+    }
+
+    /**
+     * Records the time from the start of the connect until traffic was first
+     * observed. Only the first call per connect counts.
+     */
+    public synchronized void markFirstTraffic() {
+        if (firstTrafficSeen || connectStartedAt < 0) {
+            return;
+        }
+        firstTrafficSeen = true;
+        record(PHASE.FIRST_TRAFFIC, now() - connectStartedAt);
+    }
+
+    public synchronized boolean isFirstTrafficPending() {
+        return connectStartedAt >= 0 && !firstTrafficSeen;
+    }
+
+    /**
+     * @return "last": phase -> milliseconds of the latest connect, "stats": phase -> {p50, p95, count}.
+     */
+    public synchronized Map<String, Object> getReport() {
+        final Map<String, Object> last = new HashMap<>();
+        final Map<String, Object> stats = new HashMap<>();
+        for (PHASE phase : PHASE.values()) {
+            final int index = phase.ordinal();
+            final String name = phase.name().toLowerCase();
+            if (lastNanos[index] >= 0) {
+                last.put(name, lastNanos[index] / 1_000_000.0);
+            }
+            final int count = Math.min(counts[index], WINDOW);
+            if (count == 0) {
+                continue;
+            }
+            final long[] sorted = Arrays.copyOf(windows[index], count);
+            Arrays.sort(sorted);
+            final Map<String, Object> phaseStats = new HashMap<>();
+            phaseStats.put("p50", percentile(sorted, 50) / 1_000_000.0);
+            phaseStats.put("p95", percentile(sorted, 95) / 1_000_000.0);
+            phaseStats.put("count", counts[index]);
+            stats.put(name, phaseStats);
+        }
+        final Map<String, Object> report = new HashMap<>();
+        report.put("last", last);
+        report.put("stats", stats);
+        return report;
+    }
+
+    private void record(final PHASE phase, final long nanos) {
+        final int index = phase.ordinal();
+        lastNanos[index] = nanos;
+        windows[index][counts[index] % WINDOW] = nanos;
+        counts[index]++;
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
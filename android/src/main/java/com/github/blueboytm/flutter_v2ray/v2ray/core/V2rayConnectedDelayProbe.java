@@ -0,0 +1,78 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures the connected server in process and hands the result to callbacks.
+ * <p>
+ * Callers asking for the same url while a measurement is running join it
+ * instead of starting another one, so a burst of requests costs one round
+ * trip through the tunnel. There is no timeout on top of the one the core
+ * applies to the measurement itself.
+ */
+public final class V2rayConnectedDelayProbe {
+    private volatile static V2rayConnectedDelayProbe INSTANCE;
+    private final HashMap<String, List<Callback>> inFlight = new HashMap<>();
+
+    public static V2rayConnectedDelayProbe getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayConnectedDelayProbe.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayConnectedDelayProbe();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public interface Callback {
+        void onDelay(long delay);
+    }
+
+    /**
+     * Calls {@code callback} with the delay of the connected server to {@code url}, or -1,
+     * on the measuring thread, or on the calling thread when the probe pool is full.
+     */
+    public void measure(final String url, final Callback callback) {
+        final String key = url == null ? "" : url;
+        synchronized (inFlight) {
+            final List<Callback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            final List<Callback> callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            inFlight.put(key, callbacks);
+        }
+        final Runnable measurement = () -> {
+            long delay = -1L;
+            try {
+                delay = V2rayCoreManager.getInstance().getConnectedV2rayServerDelay(url);
+            } finally {
+                complete(key, delay);
+            }
+        };
+        if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, measurement) == null) {
+            complete(key, -1L);
+        }
+    }
+
+    private void complete(final String key, final long delay) {
+        final List<Callback> callbacks;
+        synchronized (inFlight) {
+            callbacks = inFlight.remove(key);
+        }
+        for (Callback waiting : callbacks) {
+            try {
+                waiting.onDelay(delay);
+            } catch (Exception e) {
+                Log.e(V2rayConnectedDelayProbe.class.getSimpleName(), "onDelay failed =>", e);
+            }
+        }
+    }
+}
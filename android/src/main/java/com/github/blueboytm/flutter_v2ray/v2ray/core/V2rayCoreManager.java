@@ -8,15 +8,17 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
+import android.net.VpnService;
 import android.os.Build;
-import android.os.CountDownTimer;
+import android.os.PowerManager;
 import android.util.Log;
 
-import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 
@@ -25,9 +27,16 @@ import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayProxyOnlyService;
 import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayVPNService;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayCompiledConfig;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayGeositeCompiler;
 
-import org.json.JSONObject;
+import java.io.File;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import libv2ray.Libv2ray;
 import libv2ray.V2RayPoint;
@@ -35,11 +44,16 @@ import libv2ray.V2RayVPNServiceSupportsSet;
 
 public final class V2rayCoreManager {
     private static final int NOTIFICATION_ID = 1;
+    private static final int MAX_CACHED_PROBES = 128;
     private volatile static V2rayCoreManager INSTANCE;
     public V2rayServicesListener v2rayServicesListener = null;
     public final V2RayPoint v2RayPoint = Libv2ray.newV2RayPoint(new V2RayVPNServiceSupportsSet() {
         @Override
         public long shutdown() {
+            if (hotSwapping) {
+                // the core is only being restarted, keep the service and its tunnel alive
+                return 0;
+            }
             if (v2rayServicesListener == null) {
                 Log.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed => can`t find initial service.");
                 return -1;
@@ -73,6 +87,9 @@ public final class V2rayCoreManager {
 
         @Override
         public long setup(String s) {
+            if (hotSwapping) {
+                return 0;
+            }
             if (v2rayServicesListener != null) {
                 try {
                     v2rayServicesListener.startService();
@@ -86,10 +103,29 @@ public final class V2rayCoreManager {
     }, Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1);
     public AppConfigs.V2RAY_STATES V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED;
     private boolean isLibV2rayCoreInitialized = false;
-    private CountDownTimer countDownTimer;
-    private int seconds, minutes, hours;
-    private long totalDownload, totalUpload, uploadSpeed, downloadSpeed;
-    private String SERVICE_DURATION = "00:00:00";
+    public final V2rayStatsSampler statsSampler = new V2rayStatsSampler(v2RayPoint);
+    public final V2rayTrafficHistory trafficHistory = new V2rayTrafficHistory();
+    private boolean enableStatusBroadcast = false;
+    private volatile boolean hotSwapping = false;
+    // identifies the start waiting for the geo assets, a stop or a newer start drops it
+    private volatile Object pendingStart;
+    private V2rayConfig activeConfig;
+    private volatile long activeSampleInterval = V2rayStatsSampler.DEFAULT_INTERVAL_MILLIS;
+    private volatile long idleSampleInterval = V2rayStatsSampler.DEFAULT_IDLE_INTERVAL_MILLIS;
+    private volatile boolean deviceInteractive = true;
+    private final LinkedHashMap<String, V2rayCompiledConfig> probes = new LinkedHashMap<String, V2rayCompiledConfig>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V2rayCompiledConfig> eldest) {
+            return size() > MAX_CACHED_PROBES;
+        }
+    };
+    private Context deviceStateContext;
+    private final BroadcastReceiver deviceStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateDeviceInteractive(context);
+        }
+    };
 
     public static V2rayCoreManager getInstance() {
         if (INSTANCE == null) {
@@ -102,60 +138,78 @@ public final class V2rayCoreManager {
         return INSTANCE;
     }
 
-    private void makeDurationTimer(final Context context, final boolean enable_traffic_statics) {
-        countDownTimer = new CountDownTimer(7200, 1000) {
-            @RequiresApi(api = Build.VERSION_CODES.M)
-            public void onTick(long millisUntilFinished) {
-                seconds++;
-                if (seconds == 59) {
-                    minutes++;
-                    seconds = 0;
-                }
-                if (minutes == 59) {
-                    minutes = 0;
-                    hours++;
-                }
-                if (hours == 23) {
-                    hours = 0;
-                }
-                if (enable_traffic_statics) {
-                    downloadSpeed = v2RayPoint.queryStats("block", "downlink") + v2RayPoint.queryStats("proxy", "downlink");
-                    uploadSpeed = v2RayPoint.queryStats("block", "uplink") + v2RayPoint.queryStats("proxy", "uplink");
-                    totalDownload = totalDownload + downloadSpeed;
-                    totalUpload = totalUpload + uploadSpeed;
-                }
-                SERVICE_DURATION = Utilities.convertIntToTwoDigit(hours) + ":" + Utilities.convertIntToTwoDigit(minutes) + ":" + Utilities.convertIntToTwoDigit(seconds);
-                Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
-                connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-                connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-                connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-                connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
-                connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
-                connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
-                context.sendBroadcast(connection_info_intent);
-            }
+    private V2rayCoreManager() {
+        V2rayStatusBus.getInstance().setSampleDemandListener(this::updateSampleInterval);
+    }
 
-            public void onFinish() {
-                countDownTimer.cancel();
-                if (V2rayCoreManager.getInstance().isV2rayCoreRunning())
-                    makeDurationTimer(context, enable_traffic_statics);
-            }
-        }.start();
+    /**
+     * Samples at the configured rate while someone renders live statistics on an
+     * interactive device, and at the idle rate otherwise. Totals keep accumulating
+     * in the core between idle samples, so nothing is lost.
+     */
+    private void updateSampleInterval() {
+        final boolean active = deviceInteractive && V2rayStatusBus.getInstance().hasSampleDemand();
+        statsSampler.setIntervalMillis(active ? activeSampleInterval : Math.max(activeSampleInterval, idleSampleInterval));
+    }
+
+    private void updateDeviceInteractive(final Context context) {
+        final PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        deviceInteractive = powerManager == null || (powerManager.isInteractive() && !powerManager.isDeviceIdleMode());
+        updateSampleInterval();
+    }
+
+    private void registerDeviceStateReceiver(final Context context) {
+        unregisterDeviceStateReceiver();
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(deviceStateReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(deviceStateReceiver, filter);
+        }
+        deviceStateContext = context;
+        updateDeviceInteractive(context);
+    }
+
+    private void unregisterDeviceStateReceiver() {
+        if (deviceStateContext == null) {
+            return;
+        }
+        try {
+            deviceStateContext.unregisterReceiver(deviceStateReceiver);
+        } catch (Exception e) {
+            //ignore
+        }
+        deviceStateContext = null;
+    }
+
+    private void publishConnectionInfo(final Context context) {
+        V2rayStatusBus.getInstance().publish(V2RAY_STATE, statsSampler);
+        if (!enableStatusBroadcast) {
+            return;
+        }
+        Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
+        connection_info_intent.setPackage(context.getPackageName());
+        connection_info_intent.putExtra("STATE", V2RAY_STATE);
+        connection_info_intent.putExtra("DURATION", statsSampler.getDuration());
+        connection_info_intent.putExtra("UPLOAD_SPEED", statsSampler.getUploadSpeed());
+        connection_info_intent.putExtra("DOWNLOAD_SPEED", statsSampler.getDownloadSpeed());
+        connection_info_intent.putExtra("UPLOAD_TRAFFIC", statsSampler.getTotalUpload());
+        connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", statsSampler.getTotalDownload());
+        context.sendBroadcast(connection_info_intent);
     }
 
     public void setUpListener(Service targetService) {
         try {
             v2rayServicesListener = (V2rayServicesListener) targetService;
+            final long initStartedAt = V2rayConnectTimings.now();
             Libv2ray.initV2Env(getUserAssetsPath(targetService.getApplicationContext()), "");
+            V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.INIT_ENV, initStartedAt);
             isLibV2rayCoreInitialized = true;
-            SERVICE_DURATION = "00:00:00";
-            seconds = 0;
-            minutes = 0;
-            hours = 0;
-            uploadSpeed = 0;
-            downloadSpeed = 0;
-            totalDownload = 0;
-            totalUpload = 0;
+            V2rayTrafficLedger.getInstance().open(targetService.getApplicationContext());
+            statsSampler.reset();
             Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener => new initialize from " + v2rayServicesListener.getService().getClass().getSimpleName());
         } catch (Exception e) {
             Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener failed => ", e);
@@ -163,10 +217,14 @@ public final class V2rayCoreManager {
         }
     }
 
+    /**
+     * Starts the core once the geo assets are installed, on the lifecycle pool, so the
+     * calling service never waits for them.
+     *
+     * @return false if the core can't be started at all.
+     */
     public boolean startCore(final V2rayConfig v2rayConfig) {
-        makeDurationTimer(v2rayServicesListener.getService().getApplicationContext(),
-                v2rayConfig.ENABLE_TRAFFIC_STATICS);
-        V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTING;
+        final Context context = v2rayServicesListener.getService().getApplicationContext();
         if (!isLibV2rayCoreInitialized) {
             Log.e(V2rayCoreManager.class.getSimpleName(), "startCore failed => LibV2rayCore should be initialize before start.");
             return false;
@@ -174,22 +232,134 @@ public final class V2rayCoreManager {
         if (isV2rayCoreRunning()) {
             stopCore();
         }
+        enableStatusBroadcast = v2rayConfig.ENABLE_STATUS_BROADCAST;
+        V2rayStatusBus.getInstance().setBroadcastDemand(enableStatusBroadcast);
+        V2rayTrafficLedger.getInstance().beginSession(System.currentTimeMillis());
+        activeSampleInterval = v2rayConfig.STATS_SAMPLE_INTERVAL;
+        idleSampleInterval = v2rayConfig.STATS_IDLE_SAMPLE_INTERVAL;
+        statsSampler.start(v2rayConfig.STATS_SAMPLE_INTERVAL, v2rayConfig.ENABLE_TRAFFIC_STATICS,
+                v2rayConfig.OUTBOUND_TAGS, v2rayConfig.OUTBOUND_PROTOCOLS, sampler -> {
+                    final long now = System.currentTimeMillis();
+                    trafficHistory.record(now, sampler.getTotalUpload(), sampler.getTotalDownload());
+                    V2rayTrafficLedger.getInstance().update(now, sampler.getTotalUpload(), sampler.getTotalDownload());
+                    if (sampler.getTotalDownload() > 0 && V2rayConnectTimings.getInstance().isFirstTrafficPending()) {
+                        V2rayConnectTimings.getInstance().markFirstTraffic();
+                    }
+                    publishConnectionInfo(context);
+                });
+        registerDeviceStateReceiver(context);
+        V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTING;
+        publishConnectionInfo(context);
+        final Object token = new Object();
+        pendingStart = token;
+        // routing rules load geosite/geoip when the loop starts
+        V2rayAssetInstaller.getInstance().whenInstalled(context, installed -> {
+            if (pendingStart != token) {
+                return;
+            }
+            pendingStart = null;
+            if (!installed) {
+                Log.e(V2rayCoreManager.class.getSimpleName(), "startCore => geo assets are not installed, starting anyway.");
+            }
+            if (!runCore(context, v2rayConfig)) {
+                stopCore();
+            }
+        });
+        return true;
+    }
+
+    private boolean runCore(final Context context, final V2rayConfig v2rayConfig) {
         try {
-            v2RayPoint.setConfigureFileContent(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            v2RayPoint.setConfigureFileContent(buildCoreConfig(context, v2rayConfig));
             v2RayPoint.setDomainName(v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
+            final long runLoopStartedAt = V2rayConnectTimings.now();
             v2RayPoint.runLoop(false);
+            V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.RUN_LOOP, runLoopStartedAt);
+            activeConfig = v2rayConfig;
             V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTED;
+            // publish the state change now instead of waiting for a possibly idle-rate tick
+            publishConnectionInfo(context);
             if (isV2rayCoreRunning()) {
                 showNotification(v2rayConfig);
             }
         } catch (Exception e) {
-            Log.e(V2rayCoreManager.class.getSimpleName(), "startCore failed =>", e);
+            Log.e(V2rayCoreManager.class.getSimpleName(), "runCore failed =>", e);
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns the config the core runs, with geosite references pointed at a file
+     * trimmed to the categories the config uses when that file can be built.
+     */
+    private String buildCoreConfig(final Context context, final V2rayConfig v2rayConfig) {
+        final String geosite = V2rayGeositeCompiler.compile(new File(getUserAssetsPath(context)), v2rayConfig.GEOSITE_CATEGORIES);
+        if (geosite == null) {
+            return v2rayConfig.V2RAY_FULL_JSON_CONFIG;
+        }
+        return V2rayGeositeCompiler.rewrite(v2rayConfig.V2RAY_FULL_JSON_CONFIG, geosite);
+    }
+
+    /**
+     * Restarts only the core with {@code v2rayConfig} and keeps the service, the VPN
+     * interface and tun2socks running. Only possible while the tunnel the service
+     * built for the active config fits the new one as well.
+     *
+     * @return false if a regular restart is required. When the swap itself failed, the core is
+     * stopped by then but the service and its tunnel are left alone, the regular start rebuilds them.
+     */
+    public boolean hotSwapCore(final V2rayConfig v2rayConfig) {
+        if (v2rayServicesListener == null || !isV2rayCoreRunning() || !canHotSwap(activeConfig, v2rayConfig)) {
+            return false;
+        }
+        final Context context = v2rayServicesListener.getService().getApplicationContext();
+        hotSwapping = true;
+        try {
+            v2RayPoint.stopLoop();
+            statsSampler.setOutbounds(v2rayConfig.OUTBOUND_TAGS, v2rayConfig.OUTBOUND_PROTOCOLS);
+            v2RayPoint.setConfigureFileContent(buildCoreConfig(context, v2rayConfig));
+            v2RayPoint.setDomainName(v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
+            v2RayPoint.runLoop(false);
+            activeConfig = v2rayConfig;
+            Log.e(V2rayCoreManager.class.getSimpleName(), "hotSwapCore success => v2ray core restarted with new config.");
+        } catch (Exception e) {
+            Log.e(V2rayCoreManager.class.getSimpleName(), "hotSwapCore failed =>", e);
+            // still swapping, so stopping the loop doesn't take the service down with it
+            try {
+                if (isV2rayCoreRunning()) {
+                    v2RayPoint.stopLoop();
+                }
+            } catch (Exception stopError) {
+                Log.e(V2rayCoreManager.class.getSimpleName(), "hotSwapCore failed =>", stopError);
+            }
+            sendDisconnectedBroadCast();
+            return false;
+        } finally {
+            hotSwapping = false;
+        }
+        V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTED;
+        publishConnectionInfo(context);
+        showNotification(v2rayConfig);
+        return true;
+    }
+
+    private static boolean canHotSwap(final V2rayConfig active, final V2rayConfig next) {
+        return active != null && next != null
+                && active.LOCAL_SOCKS5_PORT == next.LOCAL_SOCKS5_PORT
+                && active.ENABLE_TRAFFIC_STATICS == next.ENABLE_TRAFFIC_STATICS
+                && Objects.equals(active.BYPASS_SUBNETS, next.BYPASS_SUBNETS)
+                && Objects.equals(active.EXCLUDED_SUBNETS, next.EXCLUDED_SUBNETS)
+                && active.IPV6_MODE == next.IPV6_MODE
+                && Objects.equals(active.TUN_PROFILE, next.TUN_PROFILE)
+                && active.ENABLE_LOCAL_DNS_CACHE == next.ENABLE_LOCAL_DNS_CACHE
+                && Objects.equals(active.BLOCKED_APPS, next.BLOCKED_APPS)
+                && Objects.equals(active.DNS_SERVERS, next.DNS_SERVERS);
+    }
+
     public void stopCore() {
+        final boolean startPending = pendingStart != null;
+        pendingStart = null;
         try {
             NotificationManager notificationManager = (NotificationManager) v2rayServicesListener.getService().getSystemService(Context.NOTIFICATION_SERVICE);
             if (notificationManager != null) {
@@ -199,6 +369,10 @@ public final class V2rayCoreManager {
                 v2RayPoint.stopLoop();
                 v2rayServicesListener.stopService();
                 Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore success => v2ray core stopped.");
+            } else if (startPending) {
+                // the core never ran, so there is no shutdown callback to stop the service
+                v2rayServicesListener.stopService();
+                Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore success => pending start dropped.");
             } else {
                 Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed => v2ray core not running.");
             }
@@ -210,29 +384,20 @@ public final class V2rayCoreManager {
 
     private void sendDisconnectedBroadCast() {
         V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED;
-        SERVICE_DURATION = "00:00:00";
-        seconds = 0;
-        minutes = 0;
-        hours = 0;
-        uploadSpeed = 0;
-        downloadSpeed = 0;
+        activeConfig = null;
+        statsSampler.stop();
+        V2rayStatusBus.getInstance().setBroadcastDemand(false);
+        unregisterDeviceStateReceiver();
+        V2rayTrafficLedger.getInstance().endSession(System.currentTimeMillis(), statsSampler.getTotalUpload(), statsSampler.getTotalDownload());
+        statsSampler.reset();
+        trafficHistory.resetSession();
         if (v2rayServicesListener != null) {
-            Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
-            connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-            connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-            connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-            connection_info_intent.putExtra("DOWNLOAD_SPEED", uploadSpeed);
-            connection_info_intent.putExtra("UPLOAD_TRAFFIC", uploadSpeed);
-            connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", uploadSpeed);
             try {
-                v2rayServicesListener.getService().getApplicationContext().sendBroadcast(connection_info_intent);
+                publishConnectionInfo(v2rayServicesListener.getService().getApplicationContext());
             } catch (Exception e) {
                 //ignore
             }
         }
-        if (countDownTimer != null) {
-            countDownTimer.cancel();
-        }
     }
 
     private String createNotificationChannelID(String appName) {
@@ -315,6 +480,15 @@ public final class V2rayCoreManager {
     }
 
 
+    /**
+     * Keeps {@code socket} out of the tunnel while the VPN service runs, so it measures the real network.
+     */
+    public boolean protect(final Socket socket) {
+        final V2rayServicesListener listener = v2rayServicesListener;
+        return listener != null && listener.getService() instanceof VpnService
+                && ((VpnService) listener.getService()).protect(socket);
+    }
+
     public boolean isV2rayCoreRunning() {
         if (v2RayPoint != null) {
             return v2RayPoint.getIsRunning();
@@ -323,29 +497,89 @@ public final class V2rayCoreManager {
     }
 
     public Long getConnectedV2rayServerDelay() {
+        return getConnectedV2rayServerDelay(AppConfigs.DELAY_URL);
+    }
+
+    public long getConnectedV2rayServerDelay(final String url) {
+        long delay;
         try {
-            return v2RayPoint.measureDelay(AppConfigs.DELAY_URL);
+            delay = v2RayPoint.measureDelay(url);
         } catch (Exception e) {
-            return -1L;
+            delay = -1L;
+        }
+        final String server = connectedServerKey();
+        if (server != null) {
+            V2rayQualityTracker.getInstance().record(server, delay);
         }
+        return delay;
+    }
+
+    /**
+     * Measures the connected server {@code samples} times against every url in {@code urls}.
+     *
+     * @return the quality profile, see {@link V2rayDelayHistogram#toMap()}, or null when not connected.
+     */
+    public Map<String, Object> getConnectedV2rayServerQuality(final List<String> urls, final int samples) {
+        final String server = connectedServerKey();
+        if (server == null || !isV2rayCoreRunning()) {
+            return null;
+        }
+        return V2rayQualityTracker.getInstance().sample(server, urls, samples, url -> v2RayPoint.measureDelay(url));
     }
 
     public Long getV2rayServerDelay(final String config, final String url) {
-        try {
+        final V2rayCompiledConfig probe = compileProbe(config);
+        final String probe_config = probe == null ? config : probe.PROBE_JSON_CONFIG;
+        final String server = probe == null ? Utilities.sha256(config) : probe.PROBE_KEY;
+        return V2rayDelayCache.getInstance().get(V2rayDelayCache.createKey(server, url), () -> {
+            long delay;
             try {
-                JSONObject config_json = new JSONObject(config);
-                JSONObject new_routing_json = config_json.getJSONObject("routing");
-                new_routing_json.remove("rules");
-                config_json.remove("routing");
-                config_json.put("routing", new_routing_json);
-                return Libv2ray.measureOutboundDelay(config_json.toString(), url);
-            } catch (Exception json_error) {
-                Log.e("getV2rayServerDelay", json_error.toString());
-                return Libv2ray.measureOutboundDelay(config, url);
+                delay = Libv2ray.measureOutboundDelay(probe_config, url);
+            } catch (Exception e) {
+                Log.e("getV2rayServerDelayCore", e.toString());
+                delay = -1L;
             }
-        } catch (Exception e) {
-            Log.e("getV2rayServerDelayCore", e.toString());
-            return -1L;
+            V2rayQualityTracker.getInstance().record(server, delay);
+            return delay;
+        });
+    }
+
+    /**
+     * Measures {@code config} {@code samples} times against every url in {@code urls}, bypassing the delay cache.
+     */
+    public Map<String, Object> getV2rayServerQuality(final String config, final List<String> urls, final int samples) {
+        final V2rayCompiledConfig probe = compileProbe(config);
+        final String probe_config = probe == null ? config : probe.PROBE_JSON_CONFIG;
+        return V2rayQualityTracker.getInstance().sample(probe == null ? Utilities.sha256(config) : probe.PROBE_KEY, urls, samples,
+                url -> Libv2ray.measureOutboundDelay(probe_config, url));
+    }
+
+    private String connectedServerKey() {
+        final V2rayConfig config = activeConfig;
+        return config == null ? null : "connected|" + config.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + config.CONNECTED_V2RAY_SERVER_PORT;
+    }
+
+    /**
+     * Compiled probes are kept for the most recently probed configs.
+     *
+     * @return null if {@code config} can't be parsed, the core then gets it as is.
+     */
+    private V2rayCompiledConfig compileProbe(final String config) {
+        synchronized (probes) {
+            final V2rayCompiledConfig cached = probes.get(config);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try {
+            final V2rayCompiledConfig probe = V2rayCompiledConfig.compileProbe(config);
+            synchronized (probes) {
+                probes.put(config, probe);
+            }
+            return probe;
+        } catch (Exception json_error) {
+            Log.e("getV2rayServerDelay", json_error.toString());
+            return null;
         }
     }
 
@@ -0,0 +1,143 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayCompiledConfig;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TTL/LRU cache of outbound delay measurements keyed by the canonical probe
+ * config (see {@link V2rayCompiledConfig#PROBE_KEY}) and the test url. Concurrent lookups of the same key share a single
+ * in-flight probe.
+ */
+public final class V2rayDelayCache {
+    public static final long DEFAULT_TTL_MILLIS = 30_000L;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private volatile static V2rayDelayCache INSTANCE;
+    private final ConcurrentHashMap<String, FutureTask<Long>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public static V2rayDelayCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayDelayCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayDelayCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public static String createKey(final String probeKey, final String url) {
+        return probeKey + "|" + url;
+    }
+
+    public void configure(final long ttlMillis, final int maxEntries) {
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.maxEntries = Math.max(1, maxEntries);
+        synchronized (entries) {
+            while (entries.size() > this.maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long get(final String key, final Callable<Long> probe) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.measuredAt < ttlMillis) {
+                    hits.incrementAndGet();
+                    return entry.delay;
+                }
+                entries.remove(key);
+            }
+        }
+        FutureTask<Long> task = new FutureTask<>(probe);
+        FutureTask<Long> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        misses.incrementAndGet();
+        try {
+            task.run();
+            long delay = await(task);
+            if (delay >= 0 && ttlMillis > 0) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(delay, SystemClock.elapsedRealtime()));
+                }
+            }
+            return delay;
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("ttl", ttlMillis);
+        stats.put("max_entries", maxEntries);
+        return stats;
+    }
+
+    private static long await(final FutureTask<Long> task) {
+        try {
+            Long delay = task.get();
+            return delay == null ? -1L : delay;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1L;
+        } catch (ExecutionException e) {
+            return -1L;
+        }
+    }
+
+    private static final class Entry {
+        final long delay;
+        final long measuredAt;
+
+        Entry(long delay, long measuredAt) {
+            this.delay = delay;
+            this.measuredAt = measuredAt;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size log-scale histogram of delay samples of one server.
+ * <p>
+ * Bucket {@code i} starts at {@code 10 * (1.15^i - 1)} ms, which keeps the
+ * error of a quantile below 8% from 1 ms up to about 77 s in 64 counters.
+ * Once the histogram holds more than {@link #MAX_WEIGHT} samples every count
+ * is halved, so old runs fade out gradually instead of being dropped at once
+ * and rankings don't jump between runs.
+ */
+public final class V2rayDelayHistogram {
+    public static final int BUCKETS = 64;
+    public static final int MAX_WEIGHT = 512;
+    private static final double SCALE_MILLIS = 10.0;
+    private static final double GROWTH = 1.15;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    // RFC 3550 interarrival jitter gain
+    private static final double JITTER_GAIN = 1.0 / 16;
+
+    private final int[] counts = new int[BUCKETS];
+    private int successes;
+    private int failures;
+    private long lastDelay = -1;
+    private double jitter;
+
+    public synchronized void record(final long delay) {
+        if (delay < 0) {
+            failures++;
+        } else {
+            counts[bucket(delay)]++;
+            successes++;
+            if (lastDelay >= 0) {
+                jitter += (Math.abs(delay - lastDelay) - jitter) * JITTER_GAIN;
+            }
+            lastDelay = delay;
+        }
+        if (successes + failures > MAX_WEIGHT) {
+            successes = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] >>= 1;
+                successes += counts[i];
+            }
+            failures >>= 1;
+        }
+    }
+
+    /**
+     * @return min, p50, p95, max and jitter in milliseconds, the sample weight and the failure rate.
+     * Min and max are the outer bounds of the lowest and highest filled bucket.
+     */
+    public synchronized Map<String, Object> toMap() {
+        final Map<String, Object> profile = new HashMap<>();
+        final int total = successes + failures;
+        profile.put("weight", total);
+        profile.put("failure_rate", total == 0 ? 0.0 : (double) failures / total);
+        profile.put("jitter", Math.round(jitter));
+        int min = -1, max = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                if (min < 0) min = i;
+                max = i;
+            }
+        }
+        profile.put("min", min < 0 ? -1L : lowerBound(min));
+        profile.put("p50", quantile(0.50));
+        profile.put("p95", quantile(0.95));
+        profile.put("max", max < 0 ? -1L : lowerBound(max + 1));
+        return profile;
+    }
+
+    private long quantile(final double quantile) {
+        if (successes == 0) {
+            return -1L;
+        }
+        final long rank = (long) Math.ceil(successes * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return (lowerBound(i) + lowerBound(i + 1)) / 2;
+            }
+        }
+        return lowerBound(BUCKETS);
+    }
+
+    private static int bucket(final long delay) {
+        final int bucket = (int) (Math.log(1 + delay / SCALE_MILLIS) / LOG_GROWTH);
+        return Math.min(BUCKETS - 1, bucket);
+    }
+
+    private static long lowerBound(final int bucket) {
+        return Math.round(SCALE_MILLIS * (Math.pow(GROWTH, bucket) - 1));
+    }
+}
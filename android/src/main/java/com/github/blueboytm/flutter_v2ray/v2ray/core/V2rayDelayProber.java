@@ -0,0 +1,180 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayDelayListener;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs batches of outbound delay probes on the shared IO pool and reports
+ * every result as soon as it is available.
+ * <p>
+ * A batch keeps at most {@code concurrency} probes submitted and hands the
+ * next one to the pool when a probe finishes, so a batch of thousands of
+ * servers never floods the pool's queue. The pool's thread count bounds how
+ * many of them actually run at the same time.
+ * <p>
+ * The native delay measurement can't be interrupted, neither by the timeout
+ * nor by {@link #cancel}. A probe that is still running when its timeout
+ * fires is reported as failed and hands its slot to the next probe, but it
+ * keeps its IO thread until the core returns. Once {@link #MAX_STUCK_PROBES}
+ * threads are held like that, new probes fail right away instead of taking
+ * the rest of the pool. The timeouts fire on the LIFECYCLE pool, so they
+ * can't queue behind the probes they guard.
+ */
+public final class V2rayDelayProber {
+    public static final int MAX_CONCURRENCY = 32;
+    public static final int MAX_STUCK_PROBES = 8;
+    private volatile static V2rayDelayProber INSTANCE;
+    private final ConcurrentHashMap<Integer, Batch> batches = new ConcurrentHashMap<>();
+    // probes past their timeout that still block an IO thread, across batches
+    private final AtomicInteger stuckProbes = new AtomicInteger();
+
+    public static V2rayDelayProber getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayDelayProber.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayDelayProber();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void start(final int batchId, final List<String> configs, final String url, final int concurrency,
+                      final long timeoutMillis, final V2rayDelayListener listener) {
+        cancel(batchId);
+        if (configs == null || configs.isEmpty()) {
+            listener.onBatchFinished(batchId, false);
+            return;
+        }
+        final Batch batch = new Batch(batchId, configs, url, Math.max(1, Math.min(concurrency, MAX_CONCURRENCY)), timeoutMillis, listener);
+        batches.put(batchId, batch);
+        batch.start();
+    }
+
+    public boolean cancel(final int batchId) {
+        Batch batch = batches.get(batchId);
+        if (batch == null) {
+            return false;
+        }
+        batch.cancel();
+        return true;
+    }
+
+    public void cancelAll() {
+        for (Batch batch : batches.values()) {
+            batch.cancel();
+        }
+    }
+
+    public int getStuckProbeCount() {
+        return stuckProbes.get();
+    }
+
+    private final class Batch {
+        private final int id;
+        private final List<String> configs;
+        private final String url;
+        private final long timeoutMillis;
+        private final V2rayDelayListener listener;
+        private final int concurrency;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicIntegerArray reported;
+        private final AtomicInteger remaining;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        Batch(int id, List<String> configs, String url, int concurrency, long timeoutMillis, V2rayDelayListener listener) {
+            this.id = id;
+            this.configs = configs;
+            this.url = url;
+            this.timeoutMillis = timeoutMillis;
+            this.listener = listener;
+            this.reported = new AtomicIntegerArray(configs.size());
+            this.remaining = new AtomicInteger(configs.size());
+            this.concurrency = concurrency;
+        }
+
+        void start() {
+            for (int i = 0; i < concurrency; i++) {
+                dispatch();
+            }
+        }
+
+        /**
+         * Submits the next probe of the batch. A probe the pool rejects, or that would
+         * need a thread while too many are stuck, is reported as failed.
+         */
+        private void dispatch() {
+            int index;
+            while (!finished.get() && (index = next.getAndIncrement()) < configs.size()) {
+                final int probeIndex = index;
+                if (stuckProbes.get() < MAX_STUCK_PROBES
+                        && V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> probe(probeIndex)) != null) {
+                    return;
+                }
+                report(index, -1L);
+            }
+        }
+
+        private void probe(final int index) {
+            // whoever sets it first, the probe or its timeout, reports and dispatches the next one
+            final AtomicBoolean released = new AtomicBoolean(false);
+            ScheduledFuture<?> timeout = null;
+            if (timeoutMillis > 0 && !finished.get()) {
+                timeout = V2rayExecutors.getInstance().schedule(V2rayExecutors.Pool.LIFECYCLE, () -> {
+                    if (released.compareAndSet(false, true)) {
+                        stuckProbes.incrementAndGet();
+                        report(index, -1L);
+                        dispatch();
+                    }
+                }, timeoutMillis);
+            }
+            long delay = -1L;
+            if (!finished.get()) {
+                try {
+                    delay = V2rayCoreManager.getInstance().getV2rayServerDelay(configs.get(index), url);
+                } catch (Exception e) {
+                    Log.e(V2rayDelayProber.class.getSimpleName(), "probe failed =>", e);
+                }
+            }
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (released.compareAndSet(false, true)) {
+                report(index, delay);
+                dispatch();
+            } else {
+                stuckProbes.decrementAndGet();
+            }
+        }
+
+        private void report(final int index, final long delay) {
+            if (finished.get() || !reported.compareAndSet(index, 0, 1)) {
+                return;
+            }
+            listener.onDelay(id, index, delay);
+            if (remaining.decrementAndGet() == 0) {
+                finish(false);
+            }
+        }
+
+        void cancel() {
+            finish(true);
+        }
+
+        private void finish(final boolean cancelled) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            batches.remove(id, this);
+            listener.onBatchFinished(id, cancelled);
+        }
+    }
+}
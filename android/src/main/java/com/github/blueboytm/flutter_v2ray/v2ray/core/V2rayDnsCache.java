@@ -0,0 +1,725 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caching DNS resolver that tun2socks sends every DNS query of the tunnel to.
+ * <p>
+ * Answers come from an LRU cache whose entries live as long as the smallest
+ * TTL of their records, with the TTLs counted down in every cached answer.
+ * Identical queries in flight share one upstream request, and names that are
+ * asked for repeatedly are refreshed shortly before they expire. Misses go to
+ * the dns servers of the config through a SOCKS5 UDP association on the core,
+ * so they take the same route as before. Everything but the SOCKS5 handshake
+ * runs on one selector thread.
+ * <p>
+ * The resolver listens on an ephemeral loopback port, see {@link #getPort()},
+ * so other apps can't find it at a well-known address. The association is
+ * dropped as soon as the core closes its control connection.
+ */
+public final class V2rayDnsCache {
+    public static final int MAX_ENTRIES = 2048;
+    public static final String DEFAULT_UPSTREAM = "1.1.1.1";
+    private static final long MAX_TTL_MILLIS = 3_600_000;
+    private static final long MAX_NEGATIVE_TTL_MILLIS = 30_000;
+    private static final long UPSTREAM_TIMEOUT_MILLIS = 2_500;
+    private static final int PREFETCH_MIN_HITS = 2;
+    // refresh once less than a tenth of the ttl is left
+    private static final int PREFETCH_REMAINING_DIVISOR = 10;
+    private static final int RELAY_FAILURES_BEFORE_RECONNECT = 3;
+    private static final int LATENCY_WINDOW = 256;
+    private static final int TYPE_SOA = 6;
+    private static final int TYPE_AAAA = 28;
+    private static final int TYPE_OPT = 41;
+    private volatile static V2rayDnsCache INSTANCE;
+
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final HashMap<String, Pending> pendingByKey = new HashMap<>();
+    private final HashMap<Integer, Pending> pendingById = new HashMap<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(65536);
+    private final long[] hitLatencyNanos = new long[LATENCY_WINDOW];
+    private final long[] missLatencyNanos = new long[LATENCY_WINDOW];
+    private long queries, hits, misses, coalesced, prefetches, retries, failures, filtered, hitSamples, missSamples;
+    private int nextUpstreamId, relayFailures;
+
+    private Thread thread;
+    private Selector selector;
+    private DatagramChannel listen;
+    private DatagramChannel relay;
+    private SocketChannel relayControl;
+    // set by the handshake on the IO pool, installed by the selector thread
+    private DatagramChannel openedRelay;
+    private SocketChannel openedControl;
+    private boolean relayOpening;
+    private int relayGeneration;
+    private int socksPort;
+    private boolean filterAaaa;
+    private List<InetAddress> upstreams = new ArrayList<>();
+
+    public static V2rayDnsCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayDnsCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayDnsCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts listening on an ephemeral port of 127.0.0.1. Cached answers survive
+     * restarts as long as the upstream servers stay the same.
+     *
+     * @param dnsServers dns servers of the config, only plain ip addresses are used.
+     * @param filterAaaa answers AAAA queries right away without any address, so clients
+     *                   only ever see IPv4 addresses.
+     */
+    public synchronized boolean start(final int socksPort, final List<String> dnsServers, final boolean filterAaaa) {
+        final List<InetAddress> parsed = parseUpstreams(dnsServers);
+        this.filterAaaa = filterAaaa;
+        if (thread != null && thread.isAlive() && this.socksPort == socksPort && upstreams.equals(parsed)) {
+            return true;
+        }
+        stop();
+        if (!upstreams.equals(parsed)) {
+            cache.clear();
+        }
+        this.socksPort = socksPort;
+        this.upstreams = parsed;
+        try {
+            selector = Selector.open();
+            listen = DatagramChannel.open();
+            listen.configureBlocking(false);
+            listen.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            listen.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            Log.e(V2rayDnsCache.class.getSimpleName(), "start failed =>", e);
+            stop();
+            return false;
+        }
+        final Selector runSelector = selector;
+        thread = new Thread(() -> loop(runSelector), "V2rayDnsCache_Thread");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        close(listen);
+        closeRelay();
+        selector = null;
+        listen = null;
+        thread = null;
+        pendingByKey.clear();
+        pendingById.clear();
+    }
+
+    /**
+     * @return the port the resolver listens on, or -1 while it is stopped.
+     */
+    public synchronized int getPort() {
+        return listen == null ? -1 : listen.socket().getLocalPort();
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", thread != null);
+        stats.put("queries", queries);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("coalesced", coalesced);
+        stats.put("prefetches", prefetches);
+        stats.put("retries", retries);
+        stats.put("failures", failures);
+        stats.put("filtered", filtered);
+        stats.put("size", cache.size());
+        stats.put("hit_rate", queries == 0 ? 0.0 : (double) hits / queries);
+        stats.put("hit_p50_ms", percentile(hitLatencyNanos, hitSamples, 50) / 1_000_000.0);
+        stats.put("miss_p50_ms", percentile(missLatencyNanos, missSamples, 50) / 1_000_000.0);
+        stats.put("miss_p95_ms", percentile(missLatencyNanos, missSamples, 95) / 1_000_000.0);
+        return stats;
+    }
+
+    private void loop(final Selector runSelector) {
+        try {
+            while (runSelector.isOpen()) {
+                runSelector.select(500);
+                if (!runSelector.isOpen()) {
+                    break;
+                }
+                final Iterator<SelectionKey> keys = runSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        final SelectableChannel channel = key.channel();
+                        if (channel instanceof SocketChannel) {
+                            onControlReadable((SocketChannel) channel);
+                        } else {
+                            receive((DatagramChannel) channel);
+                        }
+                    }
+                }
+                installRelay(runSelector);
+                sweep(SystemClock.elapsedRealtime());
+            }
+        } catch (Exception e) {
+            if (runSelector.isOpen()) {
+                Log.e(V2rayDnsCache.class.getSimpleName(), "loop failed =>", e);
+            }
+        }
+    }
+
+    private synchronized void receive(final DatagramChannel channel) {
+        if (channel != listen && channel != relay) {
+            return;
+        }
+        try {
+            while (true) {
+                buffer.clear();
+                final SocketAddress from = channel.receive(buffer);
+                if (from == null) {
+                    return;
+                }
+                final byte[] message = Arrays.copyOf(buffer.array(), buffer.position());
+                if (channel == listen) {
+                    onQuery(message, from);
+                } else {
+                    onRelayPacket(message);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(V2rayDnsCache.class.getSimpleName(), "receive failed =>", e);
+            if (channel == relay) {
+                closeRelay();
+            }
+        }
+    }
+
+    private void onQuery(final byte[] query, final SocketAddress client) throws IOException {
+        final int questionEnd = questionEnd(query);
+        if (questionEnd < 0 || (query[2] & 0x80) != 0) {
+            return;
+        }
+        final long startedAt = SystemClock.elapsedRealtimeNanos();
+        queries++;
+        if (filterAaaa && u16(query, questionEnd - 4) == TYPE_AAAA) {
+            filtered++;
+            listen.send(ByteBuffer.wrap(noData(query, questionEnd)), client);
+            return;
+        }
+        final String key = key(query, questionEnd);
+        final long now = SystemClock.elapsedRealtime();
+        final Entry entry = cache.get(key);
+        if (entry != null && now < entry.expiresAt) {
+            hits++;
+            entry.hits++;
+            listen.send(ByteBuffer.wrap(entry.answer(query, now)), client);
+            record(hitLatencyNanos, hitSamples++, SystemClock.elapsedRealtimeNanos() - startedAt);
+            if (entry.hits >= PREFETCH_MIN_HITS && entry.expiresAt - now < entry.ttlMillis / PREFETCH_REMAINING_DIVISOR
+                    && !pendingByKey.containsKey(key)) {
+                prefetches++;
+                forward(new Pending(key, query, startedAt), now);
+            }
+            return;
+        }
+        misses++;
+        Pending pending = pendingByKey.get(key);
+        if (pending != null) {
+            coalesced++;
+        } else {
+            pending = new Pending(key, query, startedAt);
+            forward(pending, now);
+        }
+        pending.waiters.add(new Waiter(client, query[0], query[1]));
+    }
+
+    private void forward(final Pending pending, final long now) throws IOException {
+        if (!pendingByKey.containsKey(pending.key)) {
+            pendingByKey.put(pending.key, pending);
+            do {
+                nextUpstreamId = (nextUpstreamId + 1) & 0xFFFF;
+            } while (pendingById.containsKey(nextUpstreamId));
+            pending.upstreamId = nextUpstreamId;
+            pendingById.put(pending.upstreamId, pending);
+        }
+        pending.sentAt = now;
+        if (relay == null) {
+            // sent once the association is installed
+            requestRelay();
+            return;
+        }
+        final InetAddress upstream = upstreams.get(pending.attempts % upstreams.size());
+        final byte[] address = upstream.getAddress();
+        final ByteBuffer packet = ByteBuffer.allocate(4 + address.length + 2 + pending.query.length);
+        packet.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) (address.length == 4 ? 1 : 4)).put(address).putShort((short) 53);
+        packet.put(pending.query);
+        packet.putShort(4 + address.length + 2, (short) pending.upstreamId);
+        packet.flip();
+        try {
+            relay.write(packet);
+        } catch (IOException e) {
+            Log.w(V2rayDnsCache.class.getSimpleName(), "forward => relay write failed", e);
+            closeRelay();
+        }
+    }
+
+    private void onRelayPacket(final byte[] packet) throws IOException {
+        if (packet.length < 10 || packet[2] != 0) {
+            return;
+        }
+        final int headerLength;
+        switch (packet[3]) {
+            case 1:
+                headerLength = 10;
+                break;
+            case 4:
+                headerLength = 22;
+                break;
+            case 3:
+                headerLength = 7 + (packet[4] & 0xFF);
+                break;
+            default:
+                return;
+        }
+        if (packet.length < headerLength + 12) {
+            return;
+        }
+        final byte[] response = Arrays.copyOfRange(packet, headerLength, packet.length);
+        final Pending pending = pendingById.get(u16(response, 0));
+        if (pending == null) {
+            return;
+        }
+        pendingById.remove(pending.upstreamId);
+        pendingByKey.remove(pending.key);
+        relayFailures = 0;
+        final long now = SystemClock.elapsedRealtime();
+        final Entry entry = Entry.parse(response, now);
+        if (entry != null) {
+            cache.put(pending.key, entry);
+        }
+        for (Waiter waiter : pending.waiters) {
+            response[0] = waiter.id0;
+            response[1] = waiter.id1;
+            listen.send(ByteBuffer.wrap(response), waiter.client);
+        }
+        if (!pending.waiters.isEmpty()) {
+            record(missLatencyNanos, missSamples++, SystemClock.elapsedRealtimeNanos() - pending.startedAtNanos);
+        }
+    }
+
+    private synchronized void sweep(final long now) throws IOException {
+        if (pendingById.isEmpty()) {
+            return;
+        }
+        for (Pending pending : new ArrayList<>(pendingById.values())) {
+            if (now - pending.sentAt < UPSTREAM_TIMEOUT_MILLIS) {
+                continue;
+            }
+            if (++relayFailures >= RELAY_FAILURES_BEFORE_RECONNECT) {
+                // the association may be gone after a core restart
+                closeRelay();
+                relayFailures = 0;
+            }
+            pending.attempts++;
+            if (pending.attempts <= upstreams.size()) {
+                retries++;
+                forward(pending, now);
+                continue;
+            }
+            failures++;
+            pendingById.remove(pending.upstreamId);
+            pendingByKey.remove(pending.key);
+            final byte[] failure = Arrays.copyOf(pending.query, pending.query.length);
+            // QR and RA set, RCODE SERVFAIL
+            failure[2] = (byte) (failure[2] | 0x80);
+            failure[3] = (byte) ((failure[3] & 0xF0) | 0x80 | 2);
+            for (Waiter waiter : pending.waiters) {
+                failure[0] = waiter.id0;
+                failure[1] = waiter.id1;
+                listen.send(ByteBuffer.wrap(failure), waiter.client);
+            }
+        }
+    }
+
+    private void requestRelay() {
+        if (relayOpening) {
+            return;
+        }
+        relayOpening = true;
+        final int generation = relayGeneration;
+        final int port = socksPort;
+        if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> openRelay(generation, port)) == null) {
+            // the sweep retries once the pending queries time out
+            relayOpening = false;
+        }
+    }
+
+    /**
+     * Runs the blocking SOCKS5 UDP ASSOCIATE handshake off the selector thread.
+     */
+    private void openRelay(final int generation, final int port) {
+        SocketChannel control = null;
+        DatagramChannel channel = null;
+        try {
+            control = SocketChannel.open();
+            control.socket().setTcpNoDelay(true);
+            control.socket().setSoTimeout(2000);
+            control.socket().connect(new InetSocketAddress("127.0.0.1", port), 2000);
+            final OutputStream out = control.socket().getOutputStream();
+            final DataInputStream in = new DataInputStream(control.socket().getInputStream());
+            out.write(new byte[]{5, 1, 0});
+            out.flush();
+            final byte[] method = new byte[2];
+            in.readFully(method);
+            if (method[0] != 5 || method[1] != 0) {
+                throw new IOException("socks server refused the no-auth method");
+            }
+            out.write(new byte[]{5, 3, 0, 1, 0, 0, 0, 0, 0, 0});
+            out.flush();
+            final byte[] reply = new byte[4];
+            in.readFully(reply);
+            if (reply[1] != 0) {
+                throw new IOException("udp associate failed with reply " + reply[1]);
+            }
+            final byte[] address;
+            if (reply[3] == 1 || reply[3] == 4) {
+                address = new byte[reply[3] == 1 ? 4 : 16];
+                in.readFully(address);
+            } else {
+                in.readFully(new byte[in.readUnsignedByte()]);
+                address = null;
+            }
+            final int relayPort = in.readUnsignedShort();
+            InetAddress relayAddress = address == null ? null : InetAddress.getByAddress(address);
+            if (relayAddress == null || relayAddress.isAnyLocalAddress()) {
+                relayAddress = InetAddress.getByName("127.0.0.1");
+            }
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(relayAddress, relayPort));
+            control.configureBlocking(false);
+            synchronized (this) {
+                if (generation == relayGeneration && selector != null) {
+                    openedRelay = channel;
+                    openedControl = control;
+                    relayOpening = false;
+                    selector.wakeup();
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(V2rayDnsCache.class.getSimpleName(), "openRelay failed =>", e);
+            synchronized (this) {
+                if (generation == relayGeneration) {
+                    relayOpening = false;
+                }
+            }
+        }
+        close(channel);
+        close(control);
+    }
+
+    /**
+     * Registers an association opened by {@link #openRelay} and sends the queries waiting for it.
+     */
+    private synchronized void installRelay(final Selector runSelector) throws IOException {
+        if (openedRelay == null || runSelector != selector) {
+            return;
+        }
+        relay = openedRelay;
+        relayControl = openedControl;
+        openedRelay = null;
+        openedControl = null;
+        relay.register(runSelector, SelectionKey.OP_READ);
+        // the core never writes on the control connection, readable means it was closed
+        relayControl.register(runSelector, SelectionKey.OP_READ);
+        final long now = SystemClock.elapsedRealtime();
+        for (Pending pending : new ArrayList<>(pendingById.values())) {
+            if (relay == null) {
+                return;
+            }
+            forward(pending, now);
+        }
+    }
+
+    private synchronized void onControlReadable(final SocketChannel channel) {
+        if (channel != relayControl) {
+            return;
+        }
+        buffer.clear();
+        try {
+            if (channel.read(buffer) >= 0) {
+                return;
+            }
+        } catch (IOException ignored) {
+        }
+        Log.w(V2rayDnsCache.class.getSimpleName(), "relay closed by the core, reconnecting on the next query");
+        closeRelay();
+        relayFailures = 0;
+    }
+
+    private void closeRelay() {
+        relayGeneration++;
+        relayOpening = false;
+        close(relay);
+        close(relayControl);
+        close(openedRelay);
+        close(openedControl);
+        relay = null;
+        relayControl = null;
+        openedRelay = null;
+        openedControl = null;
+    }
+
+    private static void close(final SelectableChannel channel) {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static List<InetAddress> parseUpstreams(final List<String> dnsServers) {
+        final List<InetAddress> parsed = new ArrayList<>();
+        if (dnsServers != null) {
+            for (String server : dnsServers) {
+                final String value = server == null ? "" : server.trim();
+                // urls, "localhost" and host names need the core's own dns handling
+                if (!value.matches("\\d{1,3}(\\.\\d{1,3}){3}") && !value.matches("[0-9a-fA-F:]+:[0-9a-fA-F:.]*")) {
+                    continue;
+                }
+                try {
+                    final InetAddress address = InetAddress.getByName(value);
+                    if (!parsed.contains(address)) parsed.add(address);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        if (parsed.isEmpty()) {
+            try {
+                parsed.add(InetAddress.getByName(DEFAULT_UPSTREAM));
+            } catch (Exception ignored) {
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the offset after the only question of {@code message}, or -1 if it has none or is malformed.
+     */
+    static int questionEnd(final byte[] message) {
+        if (message.length < 12 || u16(message, 4) != 1) {
+            return -1;
+        }
+        final int nameEnd = skipName(message, 12);
+        return nameEnd < 0 || nameEnd + 4 > message.length ? -1 : nameEnd + 4;
+    }
+
+    /**
+     * @return a NOERROR response to {@code query} without any records.
+     */
+    static byte[] noData(final byte[] query, final int questionEnd) {
+        final byte[] response = Arrays.copyOf(query, questionEnd);
+        // QR and RA set, opcode and RD kept, RCODE NOERROR
+        response[2] = (byte) ((response[2] & 0x79) | 0x80);
+        response[3] = (byte) 0x80;
+        Arrays.fill(response, 6, 12, (byte) 0);
+        return response;
+    }
+
+    static String key(final byte[] query, final int questionEnd) {
+        final char[] key = new char[questionEnd - 12];
+        for (int i = 12; i < questionEnd; i++) {
+            final int value = query[i] & 0xFF;
+            key[i - 12] = (char) (value >= 'A' && value <= 'Z' ? value + 32 : value);
+        }
+        return new String(key);
+    }
+
+    private static int skipName(final byte[] message, int offset) {
+        while (offset < message.length) {
+            final int length = message[offset] & 0xFF;
+            if (length == 0) {
+                return offset + 1;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                return offset + 2 <= message.length ? offset + 2 : -1;
+            }
+            offset += length + 1;
+        }
+        return -1;
+    }
+
+    private static int u16(final byte[] message, final int offset) {
+        return ((message[offset] & 0xFF) << 8) | (message[offset + 1] & 0xFF);
+    }
+
+    private static long u32(final byte[] message, final int offset) {
+        return ((long) u16(message, offset) << 16) | u16(message, offset + 2);
+    }
+
+    private static void record(final long[] window, final long sample, final long nanos) {
+        window[(int) (sample % LATENCY_WINDOW)] = nanos;
+    }
+
+    private static long percentile(final long[] window, final long samples, final int percent) {
+        final int count = (int) Math.min(samples, LATENCY_WINDOW);
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, count * percent / 100)];
+    }
+
+    private static final class Waiter {
+        final SocketAddress client;
+        final byte id0, id1;
+
+        Waiter(SocketAddress client, byte id0, byte id1) {
+            this.client = client;
+            this.id0 = id0;
+            this.id1 = id1;
+        }
+    }
+
+    private static final class Pending {
+        final String key;
+        final byte[] query;
+        final long startedAtNanos;
+        final ArrayList<Waiter> waiters = new ArrayList<>(1);
+        int upstreamId;
+        int attempts;
+        long sentAt;
+
+        Pending(String key, byte[] query, long startedAtNanos) {
+            this.key = key;
+            this.query = query;
+            this.startedAtNanos = startedAtNanos;
+        }
+    }
+
+    static final class Entry {
+        final byte[] response;
+        final int[] ttlOffsets;
+        final long[] ttls;
+        final long storedAt;
+        final long ttlMillis;
+        final long expiresAt;
+        int hits;
+
+        private Entry(byte[] response, int[] ttlOffsets, long[] ttls, long storedAt, long ttlMillis) {
+            this.response = response;
+            this.ttlOffsets = ttlOffsets;
+            this.ttls = ttls;
+            this.storedAt = storedAt;
+            this.ttlMillis = ttlMillis;
+            this.expiresAt = storedAt + ttlMillis;
+        }
+
+        /**
+         * @return null if {@code response} must not be cached.
+         */
+        static Entry parse(final byte[] response, final long now) {
+            final int rcode = response[3] & 0x0F;
+            // truncated answers make the client retry over tcp, which does not come here
+            if ((response[2] & 0x02) != 0 || (rcode != 0 && rcode != 3)) {
+                return null;
+            }
+            final int answers = u16(response, 6);
+            final int records = answers + u16(response, 8) + u16(response, 10);
+            int offset = 12;
+            for (int i = u16(response, 4); i > 0; i--) {
+                offset = skipName(response, offset);
+                if (offset < 0) return null;
+                offset += 4;
+            }
+            final int[] ttlOffsets = new int[records];
+            final long[] ttls = new long[records];
+            int count = 0;
+            long answerTtl = Long.MAX_VALUE, negativeTtl = -1;
+            for (int i = 0; i < records; i++) {
+                offset = skipName(response, offset);
+                if (offset < 0 || offset + 10 > response.length) return null;
+                final int type = u16(response, offset);
+                final long ttl = u32(response, offset + 4);
+                if (type != TYPE_OPT) {
+                    ttlOffsets[count] = offset + 4;
+                    ttls[count++] = ttl;
+                    if (i < answers) {
+                        answerTtl = Math.min(answerTtl, ttl);
+                    } else if (answers == 0 && type == TYPE_SOA) {
+                        negativeTtl = ttl;
+                    }
+                }
+                offset += 10 + u16(response, offset + 8);
+                if (offset > response.length) return null;
+            }
+            final long ttlMillis;
+            if (answers > 0) {
+                ttlMillis = Math.min(answerTtl * 1000, MAX_TTL_MILLIS);
+            } else if (negativeTtl >= 0) {
+                ttlMillis = Math.min(negativeTtl * 1000, MAX_NEGATIVE_TTL_MILLIS);
+            } else {
+                return null;
+            }
+            if (ttlMillis <= 0) {
+                return null;
+            }
+            return new Entry(response.clone(), Arrays.copyOf(ttlOffsets, count), Arrays.copyOf(ttls, count), now, ttlMillis);
+        }
+
+        byte[] answer(final byte[] query, final long now) {
+            final byte[] answer = response.clone();
+            answer[0] = query[0];
+            answer[1] = query[1];
+            final long elapsed = (now - storedAt) / 1000;
+            for (int i = 0; i < ttlOffsets.length; i++) {
+                final long ttl = Math.max(0, ttls[i] - elapsed);
+                final int offset = ttlOffsets[i];
+                answer[offset] = (byte) (ttl >>> 24);
+                answer[offset + 1] = (byte) (ttl >>> 16);
+                answer[offset + 2] = (byte) (ttl >>> 8);
+                answer[offset + 3] = (byte) ttl;
+            }
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared bounded thread pools for work the plugin and services hand off.
+ * <p>
+ * Each {@link Pool} has its own threads and queue, so connecting and
+ * disconnecting never wait behind a queue of delay probes, and its threads
+ * run at the pool's priority. Threads time out when idle. A full queue
+ * rejects the task instead of growing, and {@link #submit} returns null for
+ * it. Work that keeps its thread for as long as a connection or a test
+ * lasts goes to {@link Pool#DEDICATED}, so it never holds a slot the short
+ * tasks of the other pools are queued for. Delayed tasks wait on a single
+ * timer thread and run on their pool. The plugin and each service hold the
+ * pools with {@link #retain()} and let go with {@link #release()}; they are
+ * shut down when the last holder lets go, so a detached engine never takes
+ * them away from a running service. Pools are created on first use, so they
+ * come back when the next holder uses them.
+ */
+public final class V2rayExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private volatile static V2rayExecutors INSTANCE;
+    private final EnumMap<Pool, ThreadPoolExecutor> executors = new EnumMap<>(Pool.class);
+    private final EnumMap<Pool, Metrics> metrics = new EnumMap<>(Pool.class);
+    private ScheduledThreadPoolExecutor timer;
+    private int holders;
+
+    public enum Pool {
+        /** starting and stopping the core, tun2socks and the services */
+        LIFECYCLE(4, 16, Process.THREAD_PRIORITY_DEFAULT),
+        /** delay probes, lookups and benchmarks, anything that waits on the network */
+        IO(16, 256, Process.THREAD_PRIORITY_BACKGROUND),
+        /** traffic statistics queries */
+        STATS(1, 64, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE),
+        /**
+         * long-running loops: the tun2socks supervisor, tcping batches, speed tests and benchmark sinks.
+         * Without a queue, such a task gets a thread right away or is rejected.
+         */
+        DEDICATED(16, 0, Process.THREAD_PRIORITY_DEFAULT);
+
+        final int threads;
+        final int queueCapacity;
+        final int priority;
+
+        Pool(int threads, int queueCapacity, int priority) {
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.priority = priority;
+        }
+    }
+
+    private V2rayExecutors() {
+        for (Pool pool : Pool.values()) {
+            metrics.put(pool, new Metrics());
+        }
+    }
+
+    public static V2rayExecutors getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayExecutors.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayExecutors();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @return the future of {@code task}, or null when the pool's queue is full.
+     */
+    public Future<?> submit(final Pool pool, final Runnable task) {
+        final Metrics poolMetrics = metrics.get(pool);
+        final ThreadPoolExecutor executor = executor(pool);
+        poolMetrics.submitted.incrementAndGet();
+        try {
+            final Future<?> future = executor.submit(new MeteredTask(task, poolMetrics));
+            final int queued = executor.getQueue().size();
+            synchronized (poolMetrics) {
+                poolMetrics.maxQueued = Math.max(poolMetrics.maxQueued, queued);
+            }
+            return future;
+        } catch (RejectedExecutionException e) {
+            poolMetrics.rejected.incrementAndGet();
+            Log.e(V2rayExecutors.class.getSimpleName(), "submit failed => " + pool + " rejected the task");
+            return null;
+        }
+    }
+
+    /**
+     * Submits {@code task} to {@code pool} after {@code delayMillis}. Cancelling the returned
+     * future only stops a task that has not been handed to its pool yet.
+     */
+    public ScheduledFuture<?> schedule(final Pool pool, final Runnable task, final long delayMillis) {
+        return timer().schedule(() -> {
+            submit(pool, task);
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits {@code task} to {@code pool} every {@code periodMillis}, skipping a round while the
+     * previous one still runs or when the pool rejects it. Cancelling the returned future stops
+     * the rounds after the current one.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(final Pool pool, final Runnable task, final long initialDelayMillis,
+                                                  final long periodMillis) {
+        final AtomicBoolean running = new AtomicBoolean(false);
+        final Runnable round = () -> {
+            try {
+                task.run();
+            } finally {
+                running.set(false);
+            }
+        };
+        return timer().scheduleAtFixedRate(() -> {
+            if (running.compareAndSet(false, true) && submit(pool, round) == null) {
+                running.set(false);
+            }
+        }, Math.max(0, initialDelayMillis), Math.max(1, periodMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps the pools up until a matching {@link #release()}.
+     */
+    public void retain() {
+        synchronized (executors) {
+            holders++;
+        }
+    }
+
+    /**
+     * Shuts the pools down once every {@link #retain()} has been released.
+     */
+    public void release() {
+        synchronized (executors) {
+            if (holders > 0 && --holders == 0) {
+                shutdown();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting work. Tasks already submitted still run, so every callback waiting on one
+     * is answered and a running tun2socks supervisor keeps the tunnel up; callers cancel their
+     * long-running work themselves. Delayed tasks that are not due yet are dropped.
+     */
+    public void shutdown() {
+        synchronized (executors) {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                executor.shutdown();
+            }
+            executors.clear();
+            if (timer != null) {
+                timer.shutdown();
+                timer = null;
+            }
+        }
+    }
+
+    /**
+     * @return per pool: threads, active, queued, max_queued, submitted, completed, rejected,
+     * and the p50/p95 queue wait and run time in milliseconds.
+     */
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        for (Pool pool : Pool.values()) {
+            final Metrics poolMetrics = metrics.get(pool);
+            final Map<String, Object> poolStats = new HashMap<>();
+            final ThreadPoolExecutor executor;
+            synchronized (executors) {
+                executor = executors.get(pool);
+            }
+            poolStats.put("threads", executor == null ? 0 : executor.getPoolSize());
+            poolStats.put("active", executor == null ? 0 : executor.getActiveCount());
+            poolStats.put("queued", executor == null ? 0 : executor.getQueue().size());
+            synchronized (poolMetrics) {
+                poolStats.put("max_queued", poolMetrics.maxQueued);
+            }
+            poolStats.put("submitted", poolMetrics.submitted.get());
+            poolStats.put("completed", poolMetrics.completed.get());
+            poolStats.put("rejected", poolMetrics.rejected.get());
+            final Map<String, Object> wait = poolMetrics.wait.toMap();
+            final Map<String, Object> run = poolMetrics.run.toMap();
+            poolStats.put("wait_p50_ms", wait.get("p50"));
+            poolStats.put("wait_p95_ms", wait.get("p95"));
+            poolStats.put("run_p50_ms", run.get("p50"));
+            poolStats.put("run_p95_ms", run.get("p95"));
+            stats.put(pool.name().toLowerCase(), poolStats);
+        }
+        return stats;
+    }
+
+    private ScheduledThreadPoolExecutor timer() {
+        synchronized (executors) {
+            if (timer == null) {
+                timer = new ScheduledThreadPoolExecutor(1, r -> {
+                    Thread thread = new Thread(r, "V2rayTimer_Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                timer.setRemoveOnCancelPolicy(true);
+                timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                timer.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+            }
+            return timer;
+        }
+    }
+
+    private ThreadPoolExecutor executor(final Pool pool) {
+        synchronized (executors) {
+            ThreadPoolExecutor executor = executors.get(pool);
+            if (executor == null) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                final String name = "V2ray" + pool.name().charAt(0) + pool.name().substring(1).toLowerCase() + "_Thread_";
+                final BlockingQueue<Runnable> queue = pool.queueCapacity == 0
+                        ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(pool.queueCapacity);
+                executor = new ThreadPoolExecutor(pool.threads, pool.threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        queue, r -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(pool.priority);
+                        r.run();
+                    }, name + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.allowCoreThreadTimeOut(true);
+                executors.put(pool, executor);
+            }
+            return executor;
+        }
+    }
+
+    private static final class Metrics {
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final V2rayDelayHistogram wait = new V2rayDelayHistogram();
+        final V2rayDelayHistogram run = new V2rayDelayHistogram();
+        int maxQueued;
+    }
+
+    private static final class MeteredTask implements Runnable {
+        private final Runnable task;
+        private final Metrics metrics;
+        private final long submittedAt = SystemClock.elapsedRealtime();
+
+        MeteredTask(Runnable task, Metrics metrics) {
+            this.task = task;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            final long startedAt = SystemClock.elapsedRealtime();
+            metrics.wait.record(startedAt - submittedAt);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(V2rayExecutors.class.getSimpleName(), "task failed =>", e);
+            } finally {
+                metrics.run.record(SystemClock.elapsedRealtime() - startedAt);
+                metrics.completed.incrementAndGet();
+            }
+        }
+    }
+}
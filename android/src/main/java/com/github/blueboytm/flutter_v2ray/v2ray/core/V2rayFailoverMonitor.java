@@ -0,0 +1,134 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayFailoverListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Watches the health of the connected server and picks another candidate when
+ * it degrades.
+ * <p>
+ * Every check measures the active server through the running core. Only after
+ * {@code maxFailures} consecutive failed or slow checks are the other
+ * candidates probed (through the shared delay cache), so a healthy connection
+ * costs a single request per interval.
+ */
+public final class V2rayFailoverMonitor {
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 30_000L;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1500L;
+    public static final int DEFAULT_MAX_FAILURES = 3;
+    private volatile static V2rayFailoverMonitor INSTANCE;
+    private ScheduledFuture<?> task;
+    private List<String> configs;
+    private String url;
+    private long maxDelayMillis;
+    private int maxFailures;
+    private V2rayFailoverListener listener;
+    private volatile int activeIndex = -1;
+    private int consecutiveFailures;
+
+    public static V2rayFailoverMonitor getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayFailoverMonitor.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayFailoverMonitor();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts monitoring {@code configs.get(activeIndex)}. The listener is responsible for
+     * actually connecting to the server it is told to switch to.
+     */
+    public synchronized void start(final List<String> configs, final int activeIndex, final String url,
+                                   final long checkIntervalMillis, final long maxDelayMillis, final int maxFailures,
+                                   final V2rayFailoverListener listener) {
+        stop();
+        this.configs = new ArrayList<>(configs);
+        this.activeIndex = activeIndex;
+        this.url = url;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxFailures = Math.max(1, maxFailures);
+        this.listener = listener;
+        this.consecutiveFailures = 0;
+        final long interval = Math.max(1000, checkIntervalMillis);
+        // a check that outlasts the interval skips the next one rather than piling up
+        task = V2rayExecutors.getInstance().scheduleAtFixedRate(V2rayExecutors.Pool.IO, this::check, interval, interval);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        activeIndex = -1;
+    }
+
+    public boolean isRunning() {
+        return activeIndex >= 0;
+    }
+
+    public int getActiveIndex() {
+        return activeIndex;
+    }
+
+    private void check() {
+        final List<String> candidates;
+        final int current;
+        synchronized (this) {
+            if (task == null || V2rayCoreManager.getInstance().V2RAY_STATE != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+                return;
+            }
+            candidates = configs;
+            current = activeIndex;
+        }
+        final long delay = V2rayCoreManager.getInstance().getConnectedV2rayServerDelay(url);
+        if (delay >= 0 && delay <= maxDelayMillis) {
+            consecutiveFailures = 0;
+            return;
+        }
+        if (++consecutiveFailures < maxFailures) {
+            return;
+        }
+        consecutiveFailures = 0;
+        int best = -1;
+        long bestDelay = Long.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (i == current) {
+                continue;
+            }
+            final long candidateDelay;
+            try {
+                candidateDelay = V2rayCoreManager.getInstance().getV2rayServerDelay(candidates.get(i), url);
+            } catch (Exception e) {
+                Log.e(V2rayFailoverMonitor.class.getSimpleName(), "check failed =>", e);
+                continue;
+            }
+            if (candidateDelay >= 0 && candidateDelay < bestDelay) {
+                best = i;
+                bestDelay = candidateDelay;
+            }
+        }
+        // a candidate is only better if it beats the active server's last measurement
+        if (best < 0 || (delay >= 0 && bestDelay >= delay)) {
+            Log.w(V2rayFailoverMonitor.class.getSimpleName(), "check => no healthier candidate than " + current);
+            return;
+        }
+        final V2rayFailoverListener target;
+        synchronized (this) {
+            if (task == null || activeIndex != current) {
+                return;
+            }
+            activeIndex = best;
+            target = listener;
+        }
+        target.onServerSwitched(current, best, delay < 0 ? "failure" : "latency", bestDelay);
+    }
+}
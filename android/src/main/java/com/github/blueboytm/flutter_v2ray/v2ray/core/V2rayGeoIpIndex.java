@@ -0,0 +1,454 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Country lookups against geoip.dat without starting the core.
+ * <p>
+ * The protobuf {@code GeoIPList} is memory-mapped once and turned into sorted,
+ * merged ranges held in primitive arrays, so a lookup is a binary search
+ * that allocates nothing. Only two letter country codes and "PRIVATE" are
+ * indexed; the overlapping service lists some geoip.dat builds ship (e.g.
+ * "TELEGRAM") are skipped. IPv6 ranges are indexed by their upper 64 bits,
+ * which is finer than any country allocation.
+ */
+public final class V2rayGeoIpIndex {
+    public static final String SOURCE_NAME = "geoip.dat";
+    private static final int ENTRY_TAG = (1 << 3) | 2;
+    private volatile static V2rayGeoIpIndex INSTANCE;
+    private volatile Ranges ipv4 = Ranges.EMPTY;
+    // upper 64 bits with the sign bit flipped, so signed comparison orders them unsigned
+    private volatile Ranges ipv6 = Ranges.EMPTY;
+    private int countryCount;
+    private File loadedFile;
+    private long loadedLength = -1, loadedModified = -1;
+
+    public static V2rayGeoIpIndex getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayGeoIpIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayGeoIpIndex();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the index from {@code assetsDir/geoip.dat} unless it is already built from the same file.
+     */
+    public synchronized boolean load(final File assetsDir) {
+        final File source = new File(assetsDir, SOURCE_NAME);
+        if (!source.isFile()) {
+            return false;
+        }
+        if (source.equals(loadedFile) && source.length() == loadedLength && source.lastModified() == loadedModified) {
+            return true;
+        }
+        try {
+            build(source);
+            loadedFile = source;
+            loadedLength = source.length();
+            loadedModified = source.lastModified();
+            return true;
+        } catch (Exception e) {
+            Log.e(V2rayGeoIpIndex.class.getSimpleName(), "load failed =>", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param address IPv4 address in network byte order, as returned by {@link ByteBuffer#getInt()}.
+     * @return the country code, or null if the address is in no indexed range.
+     */
+    public String lookupIpv4(final int address) {
+        return ipv4.find(address & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param high the upper 64 bits of an IPv6 address.
+     */
+    public String lookupIpv6(final long high) {
+        return ipv6.find(high ^ Long.MIN_VALUE);
+    }
+
+    public void lookupIpv4(final int[] addresses, final String[] out) {
+        final Ranges ranges = ipv4;
+        for (int i = 0; i < addresses.length; i++) {
+            out[i] = ranges.find(addresses[i] & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Looks up an IP literal. IPv4 literals are parsed without allocating.
+     *
+     * @param resolve resolve host names through the system resolver instead of returning null.
+     */
+    public String lookup(final String address, final boolean resolve) {
+        if (address == null || address.isEmpty()) {
+            return null;
+        }
+        final long parsed = parseIpv4(address);
+        if (parsed >= 0) {
+            return lookupIpv4((int) parsed);
+        }
+        if (address.indexOf(':') < 0 && !resolve) {
+            return null;
+        }
+        try {
+            String host = address;
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            final InetAddress inetAddress = InetAddress.getByName(host);
+            final byte[] raw = inetAddress.getAddress();
+            final ByteBuffer buffer = ByteBuffer.wrap(raw);
+            return inetAddress instanceof Inet4Address ? lookupIpv4(buffer.getInt()) : lookupIpv6(buffer.getLong());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public List<String> lookup(final List<String> addresses, final boolean resolve) {
+        final List<String> result = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            result.add(lookup(address, resolve));
+        }
+        return result;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("loaded", loadedFile != null);
+        stats.put("countries", countryCount);
+        stats.put("ipv4_ranges", ipv4.size);
+        stats.put("ipv6_ranges", ipv6.size);
+        return stats;
+    }
+
+    private void build(final File source) throws IOException {
+        final Map<String, Integer> countryIndex = new HashMap<>();
+        final List<String> countryNames = new ArrayList<>();
+        final Ranges.Builder v4 = new Ranges.Builder();
+        final Ranges.Builder v6 = new Ranges.Builder();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r")) {
+            final ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            while (buffer.hasRemaining()) {
+                final int tag = (int) readVarint(buffer);
+                if (tag != ENTRY_TAG) {
+                    skip(buffer, tag);
+                    continue;
+                }
+                final int length = (int) readVarint(buffer);
+                final ByteBuffer entry = slice(buffer, length);
+                readEntry(entry, countryIndex, countryNames, v4, v6);
+            }
+        }
+        final String[] names = countryNames.toArray(new String[0]);
+        ipv4 = v4.build(names);
+        ipv6 = v6.build(names);
+        countryCount = names.length;
+    }
+
+    private static void readEntry(final ByteBuffer entry, final Map<String, Integer> countryIndex, final List<String> countryNames,
+                                  final Ranges.Builder v4, final Ranges.Builder v6) throws IOException {
+        String code = null;
+        boolean inverse = false;
+        // country_code precedes the cidrs, but don't rely on it
+        final int cidrsStart = entry.position();
+        while (entry.hasRemaining()) {
+            final int tag = (int) readVarint(entry);
+            if (tag == ((1 << 3) | 2)) {
+                final ByteBuffer value = slice(entry, (int) readVarint(entry));
+                final byte[] bytes = new byte[value.remaining()];
+                value.get(bytes);
+                code = new String(bytes, StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+            } else if (tag == (3 << 3)) {
+                inverse = readVarint(entry) != 0;
+            } else {
+                skip(entry, tag);
+            }
+        }
+        if (code == null || inverse || !(code.length() == 2 || code.equals("PRIVATE"))) {
+            return;
+        }
+        Integer index = countryIndex.get(code);
+        if (index == null) {
+            index = countryNames.size();
+            countryIndex.put(code, index);
+            countryNames.add(code);
+        }
+        entry.position(cidrsStart);
+        while (entry.hasRemaining()) {
+            final int tag = (int) readVarint(entry);
+            if (tag != ((2 << 3) | 2)) {
+                skip(entry, tag);
+                continue;
+            }
+            final ByteBuffer cidr = slice(entry, (int) readVarint(entry));
+            ByteBuffer ip = null;
+            int prefix = -1;
+            while (cidr.hasRemaining()) {
+                final int cidrTag = (int) readVarint(cidr);
+                if (cidrTag == ((1 << 3) | 2)) {
+                    ip = slice(cidr, (int) readVarint(cidr));
+                } else if (cidrTag == (2 << 3)) {
+                    prefix = (int) readVarint(cidr);
+                } else {
+                    skip(cidr, cidrTag);
+                }
+            }
+            if (ip == null || prefix < 0) {
+                continue;
+            }
+            if (ip.remaining() == 4 && prefix <= 32) {
+                final long start = ip.getInt() & 0xFFFFFFFFL & (prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)));
+                v4.add(start, start | ((1L << (32 - prefix)) - 1), index);
+            } else if (ip.remaining() == 16 && prefix <= 128) {
+                final int bits = Math.min(prefix, 64);
+                final long mask = bits == 0 ? 0 : (-1L << (64 - bits));
+                final long start = ip.getLong() & mask;
+                v6.add(start ^ Long.MIN_VALUE, (start | ~mask) ^ Long.MIN_VALUE, index);
+            }
+        }
+    }
+
+    /**
+     * Parses a dotted IPv4 literal.
+     *
+     * @return the address as an unsigned value, or -1 if {@code address} is not an IPv4 literal.
+     */
+    private static long parseIpv4(final String address) {
+        long value = 0;
+        int octet = -1, octets = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) return -1;
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                value = (value << 8) | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || octets != 3) return -1;
+        return (value << 8) | octet;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("truncated " + SOURCE_NAME + " at " + buffer.position());
+        }
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return slice.slice();
+    }
+
+    private static void skip(final ByteBuffer buffer, final int tag) throws IOException {
+        switch (tag & 7) {
+            case 0:
+                readVarint(buffer);
+                break;
+            case 1:
+                slice(buffer, 8);
+                break;
+            case 2:
+                slice(buffer, (int) readVarint(buffer));
+                break;
+            case 5:
+                slice(buffer, 4);
+                break;
+            default:
+                throw new IOException("unsupported wire type " + (tag & 7) + " at " + buffer.position());
+        }
+    }
+
+    private static long readVarint(final ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("truncated varint at " + buffer.position());
+            }
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint at " + buffer.position());
+    }
+
+    /**
+     * Disjoint ranges sorted by start, compared as signed longs.
+     */
+    private static final class Ranges {
+        static final Ranges EMPTY = new Ranges(new long[0], new long[0], new short[0], 0, new String[0]);
+        final long[] starts;
+        final long[] ends;
+        final short[] countries;
+        final int size;
+        final String[] names;
+
+        Ranges(long[] starts, long[] ends, short[] countries, int size, String[] names) {
+            this.starts = starts;
+            this.ends = ends;
+            this.countries = countries;
+            this.size = size;
+            this.names = names;
+        }
+
+        String find(final long key) {
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (starts[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 && key <= ends[high] ? names[countries[high]] : null;
+        }
+
+        static final class Builder {
+            long[] starts = new long[1024];
+            long[] ends = new long[1024];
+            short[] countries = new short[1024];
+            int size;
+            private long[] outStarts;
+            private long[] outEnds;
+            private short[] outCountries;
+            private int outSize;
+
+            void add(final long start, final long end, final int country) {
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                    countries = Arrays.copyOf(countries, size * 2);
+                }
+                starts[size] = start;
+                ends[size] = end;
+                countries[size] = (short) country;
+                size++;
+            }
+
+            /**
+             * Sorts the ranges and cuts them into disjoint ones. A range nested in another
+             * wins over it and splits it, so the most specific range decides every address;
+             * of two ranges that only overlap, the one that starts later wins. Adjacent
+             * parts of the same country are merged.
+             */
+            Ranges build(final String[] names) {
+                sort(0, size - 1);
+                // each range emits at most one part before a range nested in it and one when it closes
+                outStarts = new long[2 * size];
+                outEnds = new long[2 * size];
+                outCountries = new short[2 * size];
+                outSize = 0;
+                // the ranges containing the current start, innermost last
+                final long[] openStarts = new long[size];
+                final long[] openEnds = new long[size];
+                final short[] openCountries = new short[size];
+                int open = 0;
+                for (int i = 0; i < size; i++) {
+                    final long start = starts[i];
+                    while (open > 0 && openEnds[open - 1] < start) {
+                        open--;
+                        emit(openStarts[open], openEnds[open], openCountries[open]);
+                    }
+                    if (open > 0 && start != Long.MIN_VALUE) {
+                        emit(openStarts[open - 1], start - 1, openCountries[open - 1]);
+                    }
+                    openStarts[open] = start;
+                    openEnds[open] = ends[i];
+                    openCountries[open] = countries[i];
+                    open++;
+                }
+                while (open > 0) {
+                    open--;
+                    emit(openStarts[open], openEnds[open], openCountries[open]);
+                }
+                return new Ranges(Arrays.copyOf(outStarts, outSize), Arrays.copyOf(outEnds, outSize),
+                        Arrays.copyOf(outCountries, outSize), outSize, names);
+            }
+
+            /**
+             * Emits the part of {@code [start, end]} past everything emitted so far.
+             */
+            private void emit(long start, final long end, final short country) {
+                if (outSize > 0) {
+                    final int last = outSize - 1;
+                    if (end <= outEnds[last]) {
+                        return;
+                    }
+                    // end is past the last end, so this never overflows
+                    start = Math.max(start, outEnds[last] + 1);
+                    if (country == outCountries[last] && start == outEnds[last] + 1) {
+                        outEnds[last] = end;
+                        return;
+                    }
+                }
+                outStarts[outSize] = start;
+                outEnds[outSize] = end;
+                outCountries[outSize] = country;
+                outSize++;
+            }
+
+            private void sort(int low, int high) {
+                while (low < high) {
+                    final int middle = (low + high) >>> 1;
+                    final long pivot = starts[middle];
+                    final long pivotEnd = ends[middle];
+                    int i = low, j = high;
+                    while (i <= j) {
+                        // by start, then the wider range first, so the narrower one is nested in it
+                        while (starts[i] < pivot || (starts[i] == pivot && ends[i] > pivotEnd)) i++;
+                        while (starts[j] > pivot || (starts[j] == pivot && ends[j] < pivotEnd)) j--;
+                        if (i <= j) {
+                            swap(i++, j--);
+                        }
+                    }
+                    // recurse into the smaller half to bound the stack depth
+                    if (j - low < high - i) {
+                        sort(low, j);
+                        low = i;
+                    } else {
+                        sort(i, high);
+                        high = j;
+                    }
+                }
+            }
+
+            private void swap(final int a, final int b) {
+                final long start = starts[a];
+                starts[a] = starts[b];
+                starts[b] = start;
+                final long end = ends[a];
+                ends[a] = ends[b];
+                ends[b] = end;
+                final short country = countries[a];
+                countries[a] = countries[b];
+                countries[b] = country;
+            }
+        }
+    }
+}
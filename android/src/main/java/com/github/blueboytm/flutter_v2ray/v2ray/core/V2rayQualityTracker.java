@@ -0,0 +1,90 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a {@link V2rayDelayHistogram} per server, keyed like the delay cache
+ * but without the test url, and takes repeated samples into it.
+ */
+public final class V2rayQualityTracker {
+    public static final int MAX_SERVERS = 256;
+    public static final int MAX_SAMPLES = 32;
+    private volatile static V2rayQualityTracker INSTANCE;
+    private final LinkedHashMap<String, V2rayDelayHistogram> histograms = new LinkedHashMap<String, V2rayDelayHistogram>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V2rayDelayHistogram> eldest) {
+            return size() > MAX_SERVERS;
+        }
+    };
+
+    public static V2rayQualityTracker getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayQualityTracker.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayQualityTracker();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public interface Sampler {
+        long measure(String url) throws Exception;
+    }
+
+    public void record(final String server, final long delay) {
+        histogram(server).record(delay);
+    }
+
+    /**
+     * Takes {@code samples} rounds over {@code urls}, one sample per url and round,
+     * and returns the profile of everything recorded for {@code server} so far.
+     */
+    public Map<String, Object> sample(final String server, final List<String> urls, final int samples, final Sampler sampler) {
+        final V2rayDelayHistogram histogram = histogram(server);
+        final int rounds = Math.max(1, Math.min(samples, MAX_SAMPLES));
+        int taken = 0;
+        for (int round = 0; round < rounds && !Thread.currentThread().isInterrupted(); round++) {
+            for (String url : urls) {
+                long delay;
+                try {
+                    delay = sampler.measure(url);
+                } catch (Exception e) {
+                    delay = -1L;
+                }
+                histogram.record(delay);
+                taken++;
+            }
+        }
+        final Map<String, Object> profile = histogram.toMap();
+        profile.put("samples", taken);
+        return profile;
+    }
+
+    public Map<String, Object> getProfile(final String server) {
+        final V2rayDelayHistogram histogram;
+        synchronized (histograms) {
+            histogram = histograms.get(server);
+        }
+        return histogram == null ? null : histogram.toMap();
+    }
+
+    public void clear() {
+        synchronized (histograms) {
+            histograms.clear();
+        }
+    }
+
+    private V2rayDelayHistogram histogram(final String server) {
+        synchronized (histograms) {
+            V2rayDelayHistogram histogram = histograms.get(server);
+            if (histogram == null) {
+                histogram = new V2rayDelayHistogram();
+                histograms.put(server, histogram);
+            }
+            return histogram;
+        }
+    }
+}
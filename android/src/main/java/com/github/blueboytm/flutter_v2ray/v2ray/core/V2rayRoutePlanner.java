@@ -0,0 +1,288 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns include and exclude CIDR lists into the minimal set of routes for the
+ * VPN interface.
+ * <p>
+ * Each address family is a binary prefix trie over primitive arrays. Includes
+ * mark subtrees as routed, excludes split routed nodes on the way down and
+ * clear their subtree, and a final pass folds siblings that are both routed
+ * into their parent, so the emitted prefixes are merged and minimal. Plans are
+ * cached by a hash of the inputs.
+ */
+public final class V2rayRoutePlanner {
+    public static final int MAX_CACHED_PLANS = 4;
+    private volatile static V2rayRoutePlanner INSTANCE;
+    private final LinkedHashMap<String, Plan> plans = new LinkedHashMap<String, Plan>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > MAX_CACHED_PLANS;
+        }
+    };
+    private long hits, misses;
+    private Plan lastPlan;
+
+    public static V2rayRoutePlanner getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayRoutePlanner.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayRoutePlanner();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param includes routed CIDRs, 0.0.0.0/0 if empty. Plain addresses count as /32 or /128.
+     * @param excludes CIDRs carved out of the included ones.
+     */
+    public synchronized Plan plan(final List<String> includes, final List<String> excludes) {
+        final List<String> include = includes == null || includes.isEmpty() ? Collections.singletonList("0.0.0.0/0") : includes;
+        final List<String> exclude = excludes == null ? Collections.<String>emptyList() : excludes;
+        final String key = Utilities.sha256(include + "|" + exclude);
+        Plan plan = plans.get(key);
+        if (plan != null) {
+            hits++;
+            lastPlan = plan;
+            return plan;
+        }
+        misses++;
+        final long startedAt = SystemClock.elapsedRealtimeNanos();
+        final Trie ipv4 = new Trie();
+        final Trie ipv6 = new Trie();
+        final long[] parsed = new long[3];
+        for (String cidr : include) {
+            if (parse(cidr, parsed)) {
+                (parsed[2] < 0 ? ipv4 : ipv6).add(parsed[0], parsed[1], (int) Math.abs(parsed[2]) - 1);
+            }
+        }
+        for (String cidr : exclude) {
+            if (parse(cidr, parsed)) {
+                (parsed[2] < 0 ? ipv4 : ipv6).remove(parsed[0], parsed[1], (int) Math.abs(parsed[2]) - 1);
+            }
+        }
+        final ArrayList<Route> routes = new ArrayList<>();
+        ipv4.collect(routes, false);
+        ipv6.collect(routes, true);
+        plan = new Plan(routes, include.size() + exclude.size(), SystemClock.elapsedRealtimeNanos() - startedAt, ipv4.size + ipv6.size);
+        plans.put(key, plan);
+        lastPlan = plan;
+        return plan;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("cached_plans", plans.size());
+        if (lastPlan != null) {
+            stats.put("inputs", lastPlan.inputs);
+            stats.put("routes", lastPlan.routes.size());
+            stats.put("trie_nodes", lastPlan.trieNodes);
+            stats.put("compute_ms", lastPlan.computeNanos / 1_000_000.0);
+        }
+        return stats;
+    }
+
+    /**
+     * Parses {@code cidr} into {@code out}: the upper and lower 64 address bits and
+     * the prefix length plus one, negative for IPv4. IPv4 addresses sit in the
+     * upper 32 bits.
+     */
+    private static boolean parse(final String cidr, final long[] out) {
+        if (cidr == null) {
+            return false;
+        }
+        final String value = cidr.trim();
+        final int slash = value.indexOf('/');
+        final String address = slash < 0 ? value : value.substring(0, slash);
+        final boolean ipv6 = address.indexOf(':') >= 0;
+        // anything else than a literal would make InetAddress hit the resolver
+        if (!ipv6 && !address.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+            Log.w(V2rayRoutePlanner.class.getSimpleName(), "parse => invalid subnet " + cidr);
+            return false;
+        }
+        try {
+            final byte[] raw = InetAddress.getByName(address).getAddress();
+            final int maxPrefix = raw.length * 8;
+            final int prefix = slash < 0 ? maxPrefix : Integer.parseInt(value.substring(slash + 1).trim());
+            if (prefix < 0 || prefix > maxPrefix) {
+                throw new IllegalArgumentException("prefix " + prefix);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(raw);
+            if (raw.length == 4) {
+                out[0] = (long) buffer.getInt() << 32;
+                out[1] = 0;
+                out[2] = -(prefix + 1);
+            } else {
+                out[0] = buffer.getLong();
+                out[1] = buffer.getLong();
+                out[2] = prefix + 1;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(V2rayRoutePlanner.class.getSimpleName(), "parse => invalid subnet " + cidr);
+            return false;
+        }
+    }
+
+    public static final class Route {
+        public final String address;
+        public final int prefixLength;
+
+        Route(String address, int prefixLength) {
+            this.address = address;
+            this.prefixLength = prefixLength;
+        }
+
+        @Override
+        public String toString() {
+            return address + "/" + prefixLength;
+        }
+    }
+
+    public static final class Plan {
+        public final List<Route> routes;
+        public final int inputs;
+        public final long computeNanos;
+        public final int trieNodes;
+
+        Plan(List<Route> routes, int inputs, long computeNanos, int trieNodes) {
+            this.routes = Collections.unmodifiableList(routes);
+            this.inputs = inputs;
+            this.computeNanos = computeNanos;
+            this.trieNodes = trieNodes;
+        }
+    }
+
+    /**
+     * Binary trie over 128 bit keys. Node 0 is the root, so child index 0 means "no child".
+     */
+    private static final class Trie {
+        int[] children = new int[2 * 256];
+        boolean[] routed = new boolean[256];
+        int size = 1;
+
+        void add(final long high, final long low, final int prefix) {
+            int node = 0;
+            for (int depth = 0; depth < prefix; depth++) {
+                if (routed[node]) {
+                    return;
+                }
+                node = child(node, bit(high, low, depth), true);
+            }
+            routed[node] = true;
+            children[2 * node] = 0;
+            children[2 * node + 1] = 0;
+        }
+
+        void remove(final long high, final long low, final int prefix) {
+            int node = 0;
+            for (int depth = 0; depth < prefix; depth++) {
+                if (routed[node]) {
+                    // split the routed prefix so only the excluded half gets cleared
+                    routed[node] = false;
+                    final int zero = child(node, 0, true);
+                    final int one = child(node, 1, true);
+                    routed[zero] = true;
+                    routed[one] = true;
+                }
+                node = child(node, bit(high, low, depth), false);
+                if (node == 0) {
+                    return;
+                }
+            }
+            routed[node] = false;
+            children[2 * node] = 0;
+            children[2 * node + 1] = 0;
+        }
+
+        void collect(final List<Route> routes, final boolean ipv6) {
+            fold(0);
+            collect(0, 0, 0L, 0L, routes, ipv6);
+        }
+
+        private boolean fold(final int node) {
+            if (routed[node]) {
+                return true;
+            }
+            final int zero = children[2 * node], one = children[2 * node + 1];
+            final boolean zeroRouted = zero != 0 && fold(zero);
+            final boolean oneRouted = one != 0 && fold(one);
+            if (zeroRouted && oneRouted) {
+                routed[node] = true;
+                children[2 * node] = 0;
+                children[2 * node + 1] = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void collect(final int node, final int depth, final long high, final long low, final List<Route> routes, final boolean ipv6) {
+            if (routed[node]) {
+                routes.add(new Route(format(high, low, ipv6), depth));
+                return;
+            }
+            for (int b = 0; b < 2; b++) {
+                final int next = children[2 * node + b];
+                if (next == 0) {
+                    continue;
+                }
+                long nextHigh = high, nextLow = low;
+                if (b == 1) {
+                    if (depth < 64) {
+                        nextHigh |= 1L << (63 - depth);
+                    } else {
+                        nextLow |= 1L << (127 - depth);
+                    }
+                }
+                collect(next, depth + 1, nextHigh, nextLow, routes, ipv6);
+            }
+        }
+
+        private int child(final int node, final int bit, final boolean create) {
+            int next = children[2 * node + bit];
+            if (next == 0 && create) {
+                if (size == routed.length) {
+                    routed = Arrays.copyOf(routed, size * 2);
+                    children = Arrays.copyOf(children, size * 4);
+                }
+                next = size++;
+                children[2 * node + bit] = next;
+            }
+            return next;
+        }
+
+        private static int bit(final long high, final long low, final int depth) {
+            return (int) (depth < 64 ? (high >>> (63 - depth)) & 1 : (low >>> (127 - depth)) & 1);
+        }
+
+        private static String format(final long high, final long low, final boolean ipv6) {
+            if (!ipv6) {
+                final int address = (int) (high >>> 32);
+                return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+            }
+            try {
+                return InetAddress.getByAddress(ByteBuffer.allocate(16).putLong(high).putLong(low).array()).getHostAddress();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback throughput check of the local SOCKS port of the running core.
+ * <p>
+ * A sink listens on 127.0.0.1 and a single run pushes the given amount of
+ * data to it through a SOCKS5 CONNECT. The sink acknowledges the last byte,
+ * so the time covers delivery and not just local buffering. The core has to
+ * route private addresses directly (the usual geoip:private rule), otherwise
+ * the run fails and reports why. Neither the VPN interface nor tun2socks is
+ * on this path.
+ */
+public final class V2raySocksBenchmark {
+    public static final long DEFAULT_BYTES = 16L * 1024 * 1024;
+    private static final int WRITE_BYTES = 64 * 1024;
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private V2raySocksBenchmark() {
+    }
+
+    /**
+     * @return bytes, millis and mbps of the run, or bytes and error when it failed.
+     */
+    public static Map<String, Object> run(final int socksPort, final long requestedBytes) {
+        final long bytes = Math.max(1, requestedBytes);
+        final Map<String, Object> result = new HashMap<>();
+        result.put("bytes", bytes);
+        try (ServerSocket sink = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            sink.setSoTimeout(TIMEOUT_MILLIS);
+            final Future<?> drained = V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.DEDICATED, () -> drain(sink, bytes));
+            if (drained == null) {
+                throw new IOException("no thread available for the sink");
+            }
+            try (Socket socket = new Socket()) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                socket.connect(new InetSocketAddress("127.0.0.1", socksPort), TIMEOUT_MILLIS);
+                final OutputStream out = socket.getOutputStream();
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                connectThroughSocks(out, in, sink.getLocalPort());
+                final byte[] chunk = new byte[WRITE_BYTES];
+                final long startedAt = System.nanoTime();
+                long sent = 0;
+                while (sent < bytes) {
+                    final int length = (int) Math.min(chunk.length, bytes - sent);
+                    out.write(chunk, 0, length);
+                    sent += length;
+                }
+                out.flush();
+                if (in.read() < 0) {
+                    throw new IOException("connection closed before the sink acknowledged, is 127.0.0.1 routed directly?");
+                }
+                final long elapsedNanos = System.nanoTime() - startedAt;
+                result.put("millis", elapsedNanos / 1_000_000.0);
+                result.put("mbps", bytes * 8.0 * 1000.0 / elapsedNanos);
+            }
+            drained.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(V2raySocksBenchmark.class.getSimpleName(), "measure failed =>", e);
+            result.put("error", e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+        }
+        return result;
+    }
+
+    private static void connectThroughSocks(final OutputStream out, final DataInputStream in, final int port) throws IOException {
+        out.write(new byte[]{5, 1, 0});
+        out.flush();
+        final byte[] method = new byte[2];
+        in.readFully(method);
+        if (method[0] != 5 || method[1] != 0) {
+            throw new IOException("socks server refused the no-auth method");
+        }
+        out.write(new byte[]{5, 1, 0, 1, 127, 0, 0, 1, (byte) (port >> 8), (byte) port});
+        out.flush();
+        final byte[] reply = new byte[4];
+        in.readFully(reply);
+        if (reply[1] != 0) {
+            throw new IOException("socks connect failed with reply " + reply[1]);
+        }
+        final int addressLength = reply[3] == 1 ? 4 : reply[3] == 4 ? 16 : in.readUnsignedByte();
+        in.readFully(new byte[addressLength + 2]);
+    }
+
+    private static void drain(final ServerSocket sink, final long bytes) {
+        try (Socket socket = sink.accept()) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            final InputStream in = socket.getInputStream();
+            final byte[] buffer = new byte[64 * 1024];
+            long received = 0;
+            int read;
+            while (received < bytes && (read = in.read(buffer)) > 0) {
+                received += read;
+            }
+            socket.getOutputStream().write(1);
+            socket.getOutputStream().flush();
+        } catch (Exception e) {
+            Log.e(V2raySocksBenchmark.class.getSimpleName(), "drain failed =>", e);
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2raySpeedTestListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Download and upload throughput test through the local SOCKS inbound.
+ * <p>
+ * Each phase drives {@code streams} parallel HTTP transfers from one selector
+ * thread. Streams are opened one after another over the ramp-up period, and
+ * only the bytes moved after it count towards the steady-state rate, so TCP
+ * slow start and the proxy handshakes don't drag the result down. Streams
+ * that finish early are replaced until the phase ends. Only plain http urls
+ * are supported: the tunnel encrypts the traffic anyway, and TLS would only
+ * add client CPU time to the measurement.
+ * <p>
+ * Uploads are sent as POST bodies of a known size, and a body only counts once
+ * the server answered it, as bytes written into the socket may still sit in
+ * local buffers. The body size doubles while the server answers quickly, so
+ * fast links aren't dominated by the per-request overhead and slow ones still
+ * complete bodies within the phase.
+ */
+public final class V2raySpeedTest {
+    public static final int MAX_STREAMS = 16;
+    public static final long DEFAULT_DURATION_MILLIS = 10_000;
+    public static final long DEFAULT_RAMP_UP_MILLIS = 2_000;
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_UPLOAD = "upload";
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    private static final long UPLOAD_MIN_BODY_BYTES = 256 * 1024;
+    private static final long UPLOAD_MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final long UPLOAD_BODY_TARGET_MILLIS = 1_000;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int STATE_CONNECTING = 0, STATE_GREETING = 1, STATE_CONNECT_REPLY = 2,
+            STATE_HEADERS = 3, STATE_BODY = 4, STATE_UPLOAD = 5;
+    private volatile static V2raySpeedTest INSTANCE;
+    private final ConcurrentHashMap<Integer, Run> runs = new ConcurrentHashMap<>();
+
+    public static V2raySpeedTest getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2raySpeedTest.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2raySpeedTest();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the download phase against {@code downloadUrl} and then the upload phase
+     * against {@code uploadUrl}, either may be null to skip it.
+     */
+    public void start(final int testId, final int socksPort, final String downloadUrl, final String uploadUrl, final int streams,
+                      final long durationMillis, final long rampUpMillis, final V2raySpeedTestListener listener) {
+        cancel(testId);
+        final long duration = durationMillis > 0 ? durationMillis : DEFAULT_DURATION_MILLIS;
+        final Run run = new Run(testId, socksPort, downloadUrl, uploadUrl, Math.max(1, Math.min(streams, MAX_STREAMS)),
+                duration, Math.max(0, Math.min(rampUpMillis, duration / 2)), listener);
+        runs.put(testId, run);
+        if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.DEDICATED, run) == null) {
+            run.cancel();
+            run.run();
+        }
+    }
+
+    public boolean cancel(final int testId) {
+        final Run run = runs.get(testId);
+        if (run == null) {
+            return false;
+        }
+        run.cancel();
+        return true;
+    }
+
+    public void cancelAll() {
+        for (Run run : runs.values()) {
+            run.cancel();
+        }
+    }
+
+    private static final class Stream {
+        SocketChannel channel;
+        int state = STATE_CONNECTING;
+        int interestAfterWrite;
+        ByteBuffer out;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        long requestSentAt;
+        long moved;
+        // upload body size, counted once the server answered
+        long body;
+        boolean firstByte;
+    }
+
+    private static final class Phase {
+        final boolean download;
+        final String host;
+        final int port;
+        private final String requestHead;
+        long bytes;
+        long uploadBodyBytes = UPLOAD_MIN_BODY_BYTES;
+        long rampBytes = -1;
+        long rampAt;
+        long endedAt;
+        int failures;
+        String error;
+        final List<Long> firstByteMillis = new ArrayList<>();
+
+        Phase(boolean download, String url) throws IOException {
+            this.download = download;
+            final URL parsed = new URL(url);
+            if (!"http".equalsIgnoreCase(parsed.getProtocol())) {
+                throw new IOException("only http urls are supported");
+            }
+            host = parsed.getHost();
+            port = parsed.getPort() > 0 ? parsed.getPort() : 80;
+            final String path = parsed.getFile().isEmpty() ? "/" : parsed.getFile();
+            final String hostHeader = parsed.getPort() > 0 ? host + ":" + port : host;
+            final StringBuilder request = new StringBuilder();
+            request.append(download ? "GET " : "POST ").append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(hostHeader).append("\r\n")
+                    .append("User-Agent: flutter_v2ray\r\n")
+                    .append("Accept: */*\r\n")
+                    .append("Cache-Control: no-cache\r\n");
+            requestHead = request.toString();
+        }
+
+        byte[] request(final long bodyBytes) {
+            final String request = download ? requestHead : requestHead
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + bodyBytes + "\r\n";
+            return (request + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private final class Run implements Runnable {
+        private final int id;
+        private final int socksPort;
+        private final String downloadUrl;
+        private final String uploadUrl;
+        private final int streams;
+        private final long durationMillis;
+        private final long rampUpMillis;
+        private final V2raySpeedTestListener listener;
+        private final ByteBuffer scratch = ByteBuffer.allocateDirect(256 * 1024);
+        private final ByteBuffer zeros = ByteBuffer.allocateDirect(64 * 1024);
+        private volatile boolean cancelled = false;
+        private volatile Selector selector;
+
+        Run(int id, int socksPort, String downloadUrl, String uploadUrl, int streams, long durationMillis, long rampUpMillis,
+            V2raySpeedTestListener listener) {
+            this.id = id;
+            this.socksPort = socksPort;
+            this.downloadUrl = downloadUrl;
+            this.uploadUrl = uploadUrl;
+            this.streams = streams;
+            this.durationMillis = durationMillis;
+            this.rampUpMillis = rampUpMillis;
+            this.listener = listener;
+        }
+
+        void cancel() {
+            cancelled = true;
+            final Selector current = selector;
+            if (current != null) {
+                current.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            final Map<String, Object> result = new HashMap<>();
+            try {
+                if (downloadUrl != null && !cancelled) {
+                    final Phase phase = runPhase(new Phase(true, downloadUrl));
+                    result.put("download_mbps", steadyMbps(phase));
+                    result.put("download_bytes", phase.bytes);
+                    result.put("ttfb_ms", median(phase.firstByteMillis));
+                    if (phase.error != null) result.put("error", phase.error);
+                }
+                if (uploadUrl != null && !cancelled) {
+                    final Phase phase = runPhase(new Phase(false, uploadUrl));
+                    result.put("upload_mbps", steadyMbps(phase));
+                    result.put("upload_bytes", phase.bytes);
+                    if (phase.error != null) result.put("error", phase.error);
+                }
+            } catch (Exception e) {
+                Log.e(V2raySpeedTest.class.getSimpleName(), "run failed =>", e);
+                result.put("error", e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+            } finally {
+                runs.remove(id, this);
+                listener.onFinished(id, result, cancelled);
+            }
+        }
+
+        private Phase runPhase(final Phase phase) throws IOException {
+            final String name = phase.download ? PHASE_DOWNLOAD : PHASE_UPLOAD;
+            final List<Stream> open = new ArrayList<>();
+            selector = Selector.open();
+            try {
+                final long startedAt = SystemClock.elapsedRealtime();
+                final long endsAt = startedAt + durationMillis;
+                final long rampEndsAt = startedAt + rampUpMillis;
+                long nextProgressAt = startedAt + PROGRESS_INTERVAL_MILLIS;
+                long progressBytes = 0, progressAt = startedAt;
+                int started = 0;
+                long now = startedAt;
+                while (now < endsAt && !cancelled) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        cancelled = true;
+                        break;
+                    }
+                    // streams join one by one during the ramp up, then replace the ones that ended
+                    while (open.size() < streams && (started < streams ? now >= startedAt + rampUpMillis * started / streams
+                            : phase.failures < streams * 4)) {
+                        open.add(openStream(phase));
+                        started++;
+                    }
+                    selector.select(Math.max(1, Math.min(nextProgressAt, endsAt) - now));
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final Stream stream = (Stream) key.attachment();
+                        try {
+                            if (!handle(phase, stream, key)) {
+                                close(stream);
+                                open.remove(stream);
+                            }
+                        } catch (IOException e) {
+                            // only streams that never moved data count towards giving up
+                            if (stream.moved == 0) phase.failures++;
+                            if (phase.error == null && phase.bytes == 0) {
+                                phase.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                            }
+                            close(stream);
+                            open.remove(stream);
+                        }
+                    }
+                    now = SystemClock.elapsedRealtime();
+                    if (phase.rampBytes < 0 && now >= rampEndsAt) {
+                        phase.rampBytes = phase.bytes;
+                        phase.rampAt = now;
+                    }
+                    if (now >= nextProgressAt) {
+                        listener.onProgress(id, name, now - startedAt, phase.bytes, mbps(phase.bytes - progressBytes, now - progressAt));
+                        progressBytes = phase.bytes;
+                        progressAt = now;
+                        nextProgressAt = now + PROGRESS_INTERVAL_MILLIS;
+                    }
+                    if (open.isEmpty() && started >= streams && phase.failures >= streams * 4) {
+                        break;
+                    }
+                }
+                if (phase.rampBytes < 0) {
+                    // cancelled or failed before the ramp up ended, report the whole run
+                    phase.rampBytes = 0;
+                    phase.rampAt = startedAt;
+                }
+                phase.endedAt = now;
+                if (phase.bytes > 0) {
+                    phase.error = null;
+                }
+                return phase;
+            } finally {
+                for (Stream stream : open) {
+                    close(stream);
+                }
+                selector.close();
+                selector = null;
+            }
+        }
+
+        private Stream openStream(final Phase phase) throws IOException {
+            final Stream stream = new Stream();
+            stream.channel = SocketChannel.open();
+            stream.channel.configureBlocking(false);
+            stream.channel.socket().setTcpNoDelay(true);
+            if (stream.channel.connect(new InetSocketAddress("127.0.0.1", socksPort))) {
+                send(stream, new byte[]{5, 1, 0}, SelectionKey.OP_READ);
+                stream.state = STATE_GREETING;
+            } else {
+                stream.channel.register(selector, SelectionKey.OP_CONNECT, stream);
+            }
+            return stream;
+        }
+
+        /**
+         * @return false once the stream is done.
+         */
+        private boolean handle(final Phase phase, final Stream stream, final SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                stream.channel.finishConnect();
+                stream.state = STATE_GREETING;
+                send(stream, new byte[]{5, 1, 0}, SelectionKey.OP_READ);
+                return true;
+            }
+            if (key.isWritable()) {
+                if (stream.out != null && stream.out.hasRemaining()) {
+                    stream.channel.write(stream.out);
+                    if (!stream.out.hasRemaining()) {
+                        stream.out = null;
+                        interest(stream, stream.interestAfterWrite);
+                    }
+                    return true;
+                }
+                if (stream.state == STATE_UPLOAD) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), stream.body - stream.moved));
+                    stream.moved += stream.channel.write(zeros);
+                    if (stream.moved == stream.body) {
+                        stream.state = STATE_HEADERS;
+                        interest(stream, SelectionKey.OP_READ);
+                    }
+                }
+                return true;
+            }
+            if (!key.isReadable()) {
+                return true;
+            }
+            if (stream.state == STATE_BODY) {
+                scratch.clear();
+                final int read = stream.channel.read(scratch);
+                if (read < 0) {
+                    return false;
+                }
+                stream.moved += read;
+                phase.bytes += read;
+                return true;
+            }
+            if (stream.channel.read(stream.in) < 0) {
+                throw new IOException("connection closed during the handshake");
+            }
+            switch (stream.state) {
+                case STATE_GREETING:
+                    if (stream.in.position() < 2) return true;
+                    if (stream.in.get(0) != 5 || stream.in.get(1) != 0) {
+                        throw new IOException("socks server refused the no-auth method");
+                    }
+                    stream.in.clear();
+                    stream.state = STATE_CONNECT_REPLY;
+                    send(stream, connectRequest(phase), SelectionKey.OP_READ);
+                    return true;
+                case STATE_CONNECT_REPLY:
+                    if (stream.in.position() < 5) return true;
+                    final int atyp = stream.in.get(3);
+                    final int length = 4 + (atyp == 1 ? 4 : atyp == 4 ? 16 : 1 + (stream.in.get(4) & 0xFF)) + 2;
+                    if (stream.in.position() < length) return true;
+                    if (stream.in.get(1) != 0) {
+                        throw new IOException("socks connect failed with reply " + stream.in.get(1));
+                    }
+                    stream.in.clear();
+                    stream.requestSentAt = SystemClock.elapsedRealtime();
+                    if (phase.download) {
+                        stream.state = STATE_HEADERS;
+                        send(stream, phase.request(0), SelectionKey.OP_READ);
+                    } else {
+                        stream.state = STATE_UPLOAD;
+                        stream.body = phase.uploadBodyBytes;
+                        send(stream, phase.request(stream.body), SelectionKey.OP_WRITE);
+                    }
+                    return true;
+                case STATE_HEADERS:
+                    if (phase.download && !stream.firstByte) {
+                        stream.firstByte = true;
+                        phase.firstByteMillis.add(SystemClock.elapsedRealtime() - stream.requestSentAt);
+                    }
+                    final int headerEnd = headerEnd(stream.in);
+                    if (headerEnd < 0) {
+                        if (!stream.in.hasRemaining()) throw new IOException("response headers too large");
+                        return true;
+                    }
+                    final String statusLine = new String(stream.in.array(), 0, Math.min(headerEnd, 64), StandardCharsets.ISO_8859_1);
+                    final String[] status = statusLine.split(" ", 3);
+                    if (status.length < 2 || !status[1].startsWith("2")) {
+                        throw new IOException("unexpected response " + statusLine.split("\r\n")[0]);
+                    }
+                    if (!phase.download) {
+                        phase.bytes += stream.body;
+                        if (SystemClock.elapsedRealtime() - stream.requestSentAt < UPLOAD_BODY_TARGET_MILLIS / 2) {
+                            phase.uploadBodyBytes = Math.min(UPLOAD_MAX_BODY_BYTES, Math.max(phase.uploadBodyBytes, stream.body * 2));
+                        }
+                        return false;
+                    }
+                    phase.bytes += stream.in.position() - headerEnd;
+                    stream.state = STATE_BODY;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private byte[] connectRequest(final Phase phase) {
+            final byte[] host = phase.host.getBytes(StandardCharsets.ISO_8859_1);
+            final ByteBuffer request = ByteBuffer.allocate(7 + host.length);
+            request.put((byte) 5).put((byte) 1).put((byte) 0).put((byte) 3).put((byte) host.length).put(host).putShort((short) phase.port);
+            return request.array();
+        }
+
+        private void send(final Stream stream, final byte[] data, final int interestAfterWrite) throws IOException {
+            stream.out = ByteBuffer.wrap(data);
+            stream.interestAfterWrite = interestAfterWrite;
+            stream.channel.write(stream.out);
+            if (stream.out.hasRemaining()) {
+                interest(stream, SelectionKey.OP_WRITE);
+            } else {
+                stream.out = null;
+                interest(stream, interestAfterWrite);
+            }
+        }
+
+        private void interest(final Stream stream, final int ops) throws IOException {
+            final SelectionKey key = stream.channel.keyFor(selector);
+            if (key == null) {
+                stream.channel.register(selector, ops, stream);
+            } else {
+                key.interestOps(ops);
+            }
+        }
+
+    }
+
+    private static double steadyMbps(final Phase phase) {
+        return mbps(phase.bytes - phase.rampBytes, phase.endedAt - phase.rampAt);
+    }
+
+    private static int headerEnd(final ByteBuffer in) {
+        final byte[] data = in.array();
+        for (int i = 3; i < in.position(); i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static double mbps(final long bytes, final long millis) {
+        return millis <= 0 ? 0.0 : bytes * 8.0 / millis / 1000.0;
+    }
+
+    private static long median(final List<Long> values) {
+        if (values.isEmpty()) {
+            return -1L;
+        }
+        final List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void close(final Stream stream) {
+        try {
+            if (stream.channel != null) stream.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayStatsListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import libv2ray.V2RayPoint;
+
+/**
+ * Samples the traffic counters of the running core on a dedicated background
+ * thread.
+ * <p>
+ * Every tick only updates primitive fields, so a steady-state tick does not
+ * allocate. The connection duration is derived from a monotonic clock when it
+ * is read instead of being counted on every tick.
+ * <p>
+ * Every outbound tag found in the config is sampled in one pass per tick. The
+ * aggregated speed and totals only count outbounds that leave through a
+ * server, so traffic sent through "freedom" outbounds (direct) is reported per
+ * tag but not as proxied traffic.
+ */
+public final class V2rayStatsSampler {
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000L;
+    public static final long MIN_INTERVAL_MILLIS = 100L;
+    public static final long DEFAULT_IDLE_INTERVAL_MILLIS = 30_000L;
+    private static final String[] DEFAULT_OUTBOUND_TAGS = {"proxy", "block"};
+    private final V2RayPoint v2RayPoint;
+    private volatile Thread samplerThread;
+    private volatile V2rayStatsListener listener;
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile boolean enableTrafficStatics;
+    private volatile long startedAt = -1;
+    private volatile long uploadSpeed, downloadSpeed, totalUpload, totalDownload;
+    private volatile Outbounds outbounds = new Outbounds(DEFAULT_OUTBOUND_TAGS, new String[DEFAULT_OUTBOUND_TAGS.length]);
+    private volatile long lastSampleAt;
+    // guards committing a sample, reset() and reading the per-outbound counters
+    private final Object lock = new Object();
+    // bumped by reset(), a sample queried before it is dropped
+    private long generation;
+
+    public V2rayStatsSampler(final V2RayPoint v2RayPoint) {
+        this.v2RayPoint = v2RayPoint;
+    }
+
+    public synchronized void start(final long intervalMillis, final boolean enableTrafficStatics,
+                                   final List<String> outboundTags, final List<String> outboundProtocols,
+                                   final V2rayStatsListener listener) {
+        stop();
+        this.intervalMillis = Math.max(MIN_INTERVAL_MILLIS, intervalMillis);
+        this.enableTrafficStatics = enableTrafficStatics;
+        setOutbounds(outboundTags, outboundProtocols);
+        this.listener = listener;
+        startedAt = SystemClock.elapsedRealtime();
+        lastSampleAt = startedAt;
+        final Thread thread = new Thread(this::loop, "V2rayStatsSampler_Thread");
+        thread.setDaemon(true);
+        samplerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Replaces the sampled outbound tags without resetting the session totals,
+     * e.g. after the core was restarted with another config.
+     */
+    public void setOutbounds(final List<String> outboundTags, final List<String> outboundProtocols) {
+        if (outboundTags == null || outboundTags.isEmpty()) {
+            outbounds = new Outbounds(DEFAULT_OUTBOUND_TAGS, new String[DEFAULT_OUTBOUND_TAGS.length]);
+        } else {
+            final String[] tags = outboundTags.toArray(new String[0]);
+            final String[] protocols = new String[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                protocols[i] = outboundProtocols != null && i < outboundProtocols.size() ? outboundProtocols.get(i) : null;
+            }
+            outbounds = new Outbounds(tags, protocols);
+        }
+    }
+
+    public synchronized void stop() {
+        final Thread thread = samplerThread;
+        samplerThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public void reset() {
+        synchronized (lock) {
+            generation++;
+            startedAt = -1;
+            uploadSpeed = 0;
+            downloadSpeed = 0;
+            totalUpload = 0;
+            totalDownload = 0;
+            outbounds.reset();
+        }
+    }
+
+    /**
+     * Changes the sampling interval. Shortening it takes a catch-up sample right
+     * away, lengthening it takes effect after the pending tick.
+     */
+    public void setIntervalMillis(final long intervalMillis) {
+        final long previous = this.intervalMillis;
+        this.intervalMillis = Math.max(MIN_INTERVAL_MILLIS, intervalMillis);
+        if (this.intervalMillis < previous) {
+            requestSample();
+        }
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Wakes the sampler so it takes a sample right away.
+     */
+    public void requestSample() {
+        final Thread thread = samplerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isRunning() {
+        return samplerThread != null;
+    }
+
+    public long getDurationMillis() {
+        final long started = startedAt;
+        return started < 0 ? 0 : SystemClock.elapsedRealtime() - started;
+    }
+
+    public String getDuration() {
+        final long totalSeconds = getDurationMillis() / 1000;
+        return Utilities.convertIntToTwoDigit((int) (totalSeconds / 3600)) + ":"
+                + Utilities.convertIntToTwoDigit((int) (totalSeconds / 60 % 60)) + ":"
+                + Utilities.convertIntToTwoDigit((int) (totalSeconds % 60));
+    }
+
+    public long getUploadSpeed() {
+        return uploadSpeed;
+    }
+
+    public long getDownloadSpeed() {
+        return downloadSpeed;
+    }
+
+    public long getTotalUpload() {
+        return totalUpload;
+    }
+
+    public long getTotalDownload() {
+        return totalDownload;
+    }
+
+    /**
+     * Returns the rates (bytes per second) and totals of every sampled outbound tag.
+     */
+    public List<Map<String, Object>> getOutboundStats() {
+        final Outbounds current = outbounds;
+        final List<Map<String, Object>> stats = new ArrayList<>(current.tags.length);
+        synchronized (lock) {
+            for (int i = 0; i < current.tags.length; i++) {
+                final Map<String, Object> tag = new HashMap<>();
+                tag.put("tag", current.tags[i]);
+                tag.put("protocol", current.protocols[i] == null ? "" : current.protocols[i]);
+                tag.put("proxied", current.proxied[i]);
+                tag.put("upload_speed", current.uploadSpeed[i]);
+                tag.put("download_speed", current.downloadSpeed[i]);
+                tag.put("upload", current.totalUpload[i]);
+                tag.put("download", current.totalDownload[i]);
+                stats.add(tag);
+            }
+        }
+        return stats;
+    }
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        final Thread self = Thread.currentThread();
+        long nextSampleAt = SystemClock.elapsedRealtime() + intervalMillis;
+        while (samplerThread == self) {
+            final long now = SystemClock.elapsedRealtime();
+            final long wait = nextSampleAt - now;
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait * 1_000_000L);
+                if (samplerThread != self) {
+                    break;
+                }
+            }
+            final long sampledAt = SystemClock.elapsedRealtime();
+            try {
+                sample(sampledAt);
+                final V2rayStatsListener current = listener;
+                // stop() doesn't wait for a running tick, don't report after it
+                if (current != null && samplerThread == self) {
+                    current.onSample(this);
+                }
+            } catch (Exception e) {
+                Log.e(V2rayStatsSampler.class.getSimpleName(), "sample failed =>", e);
+            }
+            nextSampleAt = sampledAt + intervalMillis;
+        }
+    }
+
+    private void sample(final long now) {
+        if (!enableTrafficStatics) {
+            return;
+        }
+        final long sampleGeneration;
+        synchronized (lock) {
+            sampleGeneration = generation;
+        }
+        final long elapsed = Math.max(1, now - lastSampleAt);
+        lastSampleAt = now;
+        final Outbounds current = outbounds;
+        // the native queries stay outside the lock, only the sampler thread touches the deltas
+        for (int i = 0; i < current.tags.length; i++) {
+            current.downlink[i] = v2RayPoint.queryStats(current.tags[i], "downlink");
+            current.uplink[i] = v2RayPoint.queryStats(current.tags[i], "uplink");
+        }
+        synchronized (lock) {
+            if (sampleGeneration != generation) {
+                return;
+            }
+            long downlink = 0, uplink = 0;
+            for (int i = 0; i < current.tags.length; i++) {
+                current.downloadSpeed[i] = current.downlink[i] * 1000 / elapsed;
+                current.uploadSpeed[i] = current.uplink[i] * 1000 / elapsed;
+                current.totalDownload[i] += current.downlink[i];
+                current.totalUpload[i] += current.uplink[i];
+                if (current.proxied[i]) {
+                    downlink += current.downlink[i];
+                    uplink += current.uplink[i];
+                }
+            }
+            downloadSpeed = downlink * 1000 / elapsed;
+            uploadSpeed = uplink * 1000 / elapsed;
+            totalUpload += uplink;
+            totalDownload += downlink;
+        }
+    }
+
+    private static final class Outbounds {
+        final String[] tags;
+        final String[] protocols;
+        final boolean[] proxied;
+        final long[] uploadSpeed, downloadSpeed, totalUpload, totalDownload;
+        // deltas of the running tick
+        final long[] uplink, downlink;
+
+        Outbounds(String[] tags, String[] protocols) {
+            this.tags = tags;
+            this.protocols = protocols;
+            this.proxied = new boolean[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                proxied[i] = !"freedom".equals(protocols[i]);
+            }
+            this.uploadSpeed = new long[tags.length];
+            this.downloadSpeed = new long[tags.length];
+            this.totalUpload = new long[tags.length];
+            this.totalDownload = new long[tags.length];
+            this.uplink = new long[tags.length];
+            this.downlink = new long[tags.length];
+        }
+
+        void reset() {
+            for (int i = 0; i < tags.length; i++) {
+                uploadSpeed[i] = 0;
+                downloadSpeed[i] = 0;
+                totalUpload[i] = 0;
+                totalDownload[i] = 0;
+            }
+        }
+    }
+}
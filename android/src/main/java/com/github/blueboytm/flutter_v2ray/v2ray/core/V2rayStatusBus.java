@@ -0,0 +1,201 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayStatusListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process replacement for the V2RAY_CONNECTION_INFO broadcast.
+ * <p>
+ * Listeners are kept in a copy-on-write array swapped with CAS, so publishing
+ * takes no lock and does not allocate.
+ * <p>
+ * Listeners that render live statistics subscribe with {@code needsSamples};
+ * while none of them is attached and no broadcast demand is set, the stats
+ * sampler can fall back to its idle rate.
+ */
+public final class V2rayStatusBus {
+    private static final V2rayStatusListener[] EMPTY = new V2rayStatusListener[0];
+    private volatile static V2rayStatusBus INSTANCE;
+    private final AtomicReference<V2rayStatusListener[]> listeners = new AtomicReference<>(EMPTY);
+    private final AtomicReference<V2rayStatusListener[]> sampleListeners = new AtomicReference<>(EMPTY);
+    private volatile Runnable sampleDemandListener;
+    private volatile boolean broadcastDemand;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public static V2rayStatusBus getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayStatusBus.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayStatusBus();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void subscribe(final V2rayStatusListener listener) {
+        subscribe(listener, true);
+    }
+
+    /**
+     * @param needsSamples whether the listener consumes the periodic statistics, as opposed
+     *                     to only the connection state.
+     */
+    public void subscribe(final V2rayStatusListener listener, final boolean needsSamples) {
+        add(listeners, listener);
+        if (needsSamples) {
+            if (add(sampleListeners, listener) == 0) {
+                notifySampleDemandChanged();
+            }
+        } else if (remove(sampleListeners, listener) == 1) {
+            notifySampleDemandChanged();
+        }
+    }
+
+    public void unsubscribe(final V2rayStatusListener listener) {
+        remove(listeners, listener);
+        if (remove(sampleListeners, listener) == 1) {
+            notifySampleDemandChanged();
+        }
+    }
+
+    public boolean hasSampleListeners() {
+        return sampleListeners.get().length > 0;
+    }
+
+    /**
+     * Marks whether statistics are also sent as V2RAY_CONNECTION_INFO broadcasts. Their
+     * receivers can't be counted, so they count as demand for as long as broadcasting is on.
+     */
+    public void setBroadcastDemand(final boolean demand) {
+        if (broadcastDemand != demand) {
+            broadcastDemand = demand;
+            notifySampleDemandChanged();
+        }
+    }
+
+    /**
+     * @return whether a sample listener is attached or statistics are broadcast.
+     */
+    public boolean hasSampleDemand() {
+        return broadcastDemand || hasSampleListeners();
+    }
+
+    /**
+     * Sets a callback invoked whenever {@link #hasSampleDemand()} changes.
+     */
+    public void setSampleDemandListener(final Runnable listener) {
+        sampleDemandListener = listener;
+    }
+
+    /**
+     * @return the number of listeners before the call, or -1 if the listener was already present.
+     */
+    private static int add(final AtomicReference<V2rayStatusListener[]> target, final V2rayStatusListener listener) {
+        while (true) {
+            final V2rayStatusListener[] current = target.get();
+            for (V2rayStatusListener existing : current) {
+                if (existing == listener) {
+                    return -1;
+                }
+            }
+            final V2rayStatusListener[] updated = new V2rayStatusListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            if (target.compareAndSet(current, updated)) {
+                return current.length;
+            }
+        }
+    }
+
+    /**
+     * @return the number of listeners before the call, or -1 if the listener was not present.
+     */
+    private static int remove(final AtomicReference<V2rayStatusListener[]> target, final V2rayStatusListener listener) {
+        while (true) {
+            final V2rayStatusListener[] current = target.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return -1;
+            }
+            final V2rayStatusListener[] updated;
+            if (current.length == 1) {
+                updated = EMPTY;
+            } else {
+                updated = new V2rayStatusListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            }
+            if (target.compareAndSet(current, updated)) {
+                return current.length;
+            }
+        }
+    }
+
+    private void notifySampleDemandChanged() {
+        final Runnable listener = sampleDemandListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    public int getListenerCount() {
+        return listeners.get().length;
+    }
+
+    public void publish(final AppConfigs.V2RAY_STATES state, final V2rayStatsSampler stats) {
+        final long publishedAt = SystemClock.elapsedRealtimeNanos();
+        published.incrementAndGet();
+        for (V2rayStatusListener listener : listeners.get()) {
+            try {
+                listener.onStatus(state, stats, publishedAt);
+            } catch (Exception e) {
+                Log.e(V2rayStatusBus.class.getSimpleName(), "publish failed =>", e);
+            }
+        }
+    }
+
+    /**
+     * Records the time between {@link #publish} and the moment a listener
+     * actually delivered the event to its consumer.
+     */
+    public void recordDelivery(final long publishedAtNanos) {
+        final long latency = SystemClock.elapsedRealtimeNanos() - publishedAtNanos;
+        delivered.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        long max = maxLatencyNanos.get();
+        while (latency > max && !maxLatencyNanos.compareAndSet(max, latency)) {
+            max = maxLatencyNanos.get();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        final long deliveredCount = delivered.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("listeners", getListenerCount());
+        stats.put("sample_listeners", sampleListeners.get().length);
+        stats.put("broadcast_demand", broadcastDemand);
+        stats.put("published", published.get());
+        stats.put("delivered", deliveredCount);
+        stats.put("avg_latency_us", deliveredCount == 0 ? 0 : totalLatencyNanos.get() / deliveredCount / 1000);
+        stats.put("max_latency_us", maxLatencyNanos.get() / 1000);
+        return stats;
+    }
+}
@@ -0,0 +1,341 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayDelayListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayCompiledConfig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Ranks servers by the time a plain TCP connect to their outbound address takes.
+ * <p>
+ * Every batch runs on one dedicated thread that drives all connects through a
+ * single {@link Selector}, with at most {@code concurrency} connects in
+ * flight. Host names are resolved on the IO pool, at most two at a time per
+ * batch, and queued for the selector, so a batch of thousands of servers
+ * needs three threads and never more sockets than the in-flight limit. Results are reported in completion order through
+ * the same listener as {@link V2rayDelayProber}.
+ */
+public final class V2rayTcpPinger {
+    public static final int MAX_IN_FLIGHT = 512;
+    private static final int RESOLVERS = 2;
+    // connects opened between two selects, so completions are timed without waiting for a whole burst
+    private static final int CONNECTS_PER_SELECT = 32;
+    private volatile static V2rayTcpPinger INSTANCE;
+    private final ConcurrentHashMap<Integer, Batch> batches = new ConcurrentHashMap<>();
+
+    public static V2rayTcpPinger getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayTcpPinger.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayTcpPinger();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void start(final int batchId, final List<String> configs, final int concurrency,
+                      final long timeoutMillis, final V2rayDelayListener listener) {
+        cancel(batchId);
+        if (configs == null || configs.isEmpty()) {
+            listener.onBatchFinished(batchId, false);
+            return;
+        }
+        final Batch batch;
+        try {
+            batch = new Batch(batchId, configs, Math.max(1, Math.min(concurrency, MAX_IN_FLIGHT)),
+                    timeoutMillis > 0 ? timeoutMillis : 5000, listener);
+        } catch (IOException e) {
+            Log.e(V2rayTcpPinger.class.getSimpleName(), "start failed =>", e);
+            listener.onBatchFinished(batchId, true);
+            return;
+        }
+        batches.put(batchId, batch);
+        batch.start();
+    }
+
+    public boolean cancel(final int batchId) {
+        Batch batch = batches.get(batchId);
+        if (batch == null) {
+            return false;
+        }
+        batch.cancel();
+        return true;
+    }
+
+    public void cancelAll() {
+        for (Batch batch : batches.values()) {
+            batch.cancel();
+        }
+    }
+
+    private static final class Host {
+        final int index;
+        final String address;
+        final int port;
+
+        Host(int index, String address, int port) {
+            this.index = index;
+            this.address = address;
+            this.port = port;
+        }
+    }
+
+    private static final class Probe {
+        final int index;
+        final InetSocketAddress address;
+        SocketChannel channel;
+        long startedAt;
+        boolean done;
+
+        Probe(int index, InetSocketAddress address) {
+            this.index = index;
+            this.address = address;
+        }
+    }
+
+    private final class Batch implements Runnable {
+        private final int id;
+        private final List<String> configs;
+        private final int concurrency;
+        private final long timeoutMillis;
+        private final V2rayDelayListener listener;
+        private final Selector selector;
+        // guarded by itself, like resolving
+        private final ArrayDeque<Host> unresolved = new ArrayDeque<>();
+        private int resolving;
+        private final ConcurrentLinkedQueue<Probe> ready = new ConcurrentLinkedQueue<>();
+        // in start order, which is also deadline order
+        private final ArrayDeque<Probe> inFlight = new ArrayDeque<>();
+        private volatile boolean cancelled = false;
+        private int remaining;
+        private int connecting;
+
+        Batch(int id, List<String> configs, int concurrency, long timeoutMillis, V2rayDelayListener listener) throws IOException {
+            this.id = id;
+            this.configs = configs;
+            this.concurrency = concurrency;
+            this.timeoutMillis = timeoutMillis;
+            this.listener = listener;
+            this.remaining = configs.size();
+            this.selector = Selector.open();
+        }
+
+        void start() {
+            if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.DEDICATED, this) == null) {
+                // report the batch as cancelled and release what it holds
+                cancelled = true;
+                run();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < configs.size() && !cancelled; i++) {
+                    enqueue(i);
+                }
+                while (remaining > 0 && !cancelled) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        cancelled = true;
+                        break;
+                    }
+                    if (connectReady()) {
+                        selector.selectNow();
+                    } else {
+                        final Probe oldest = inFlight.peekFirst();
+                        selector.select(oldest == null ? 0 : Math.max(1, oldest.startedAt + timeoutMillis - SystemClock.elapsedRealtime()));
+                    }
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final Probe probe = (Probe) key.attachment();
+                        long delay;
+                        try {
+                            delay = probe.channel.finishConnect() ? SystemClock.elapsedRealtime() - probe.startedAt : -1L;
+                        } catch (IOException e) {
+                            delay = -1L;
+                        }
+                        complete(probe, delay);
+                    }
+                    expire(SystemClock.elapsedRealtime());
+                }
+            } catch (Exception e) {
+                Log.e(V2rayTcpPinger.class.getSimpleName(), "run failed =>", e);
+                cancelled = true;
+            } finally {
+                for (Probe probe : inFlight) {
+                    close(probe);
+                }
+                synchronized (unresolved) {
+                    unresolved.clear();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+                batches.remove(id, this);
+                listener.onBatchFinished(id, cancelled);
+            }
+        }
+
+        private void enqueue(final int index) {
+            final String address;
+            final int port;
+            try {
+                final V2rayCompiledConfig compiled = V2rayCompiledConfig.compileEndpoint(configs.get(index));
+                address = compiled.SERVER_ADDRESS;
+                port = compiled.SERVER_PORT == null ? -1 : Integer.parseInt(compiled.SERVER_PORT.trim());
+            } catch (Exception e) {
+                report(index, -1L);
+                return;
+            }
+            if (address == null || port <= 0 || port > 65535) {
+                report(index, -1L);
+                return;
+            }
+            if (isLiteral(address)) {
+                try {
+                    ready.add(new Probe(index, new InetSocketAddress(InetAddress.getByName(address), port)));
+                } catch (Exception e) {
+                    report(index, -1L);
+                }
+                return;
+            }
+            synchronized (unresolved) {
+                unresolved.addLast(new Host(index, address, port));
+            }
+            resolveNext();
+        }
+
+        /**
+         * Hands queued host names to the IO pool until {@link #RESOLVERS} of them are resolving.
+         */
+        private void resolveNext() {
+            while (true) {
+                final Host host;
+                synchronized (unresolved) {
+                    if (cancelled || resolving >= RESOLVERS || (host = unresolved.pollFirst()) == null) {
+                        return;
+                    }
+                    resolving++;
+                }
+                if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> resolve(host)) != null) {
+                    continue;
+                }
+                synchronized (unresolved) {
+                    resolving--;
+                }
+                ready.add(new Probe(host.index, null));
+                selector.wakeup();
+            }
+        }
+
+        private void resolve(final Host host) {
+            InetSocketAddress resolved = null;
+            try {
+                resolved = new InetSocketAddress(InetAddress.getByName(host.address), host.port);
+            } catch (Exception ignored) {
+            }
+            // a null address is reported as a failure by the selector thread
+            ready.add(new Probe(host.index, resolved));
+            selector.wakeup();
+            synchronized (unresolved) {
+                resolving--;
+            }
+            resolveNext();
+        }
+
+        /**
+         * @return true if more probes are ready to connect right away.
+         */
+        private boolean connectReady() {
+            Probe probe;
+            int opened = 0;
+            while (opened++ < CONNECTS_PER_SELECT && connecting < concurrency && (probe = ready.poll()) != null) {
+                if (probe.address == null || probe.address.isUnresolved()) {
+                    report(probe.index, -1L);
+                    continue;
+                }
+                try {
+                    probe.channel = SocketChannel.open();
+                    probe.channel.configureBlocking(false);
+                    V2rayCoreManager.getInstance().protect(probe.channel.socket());
+                    probe.startedAt = SystemClock.elapsedRealtime();
+                    if (probe.channel.connect(probe.address)) {
+                        complete(probe, SystemClock.elapsedRealtime() - probe.startedAt);
+                    } else {
+                        probe.channel.register(selector, SelectionKey.OP_CONNECT, probe);
+                        inFlight.addLast(probe);
+                        connecting++;
+                    }
+                } catch (IOException e) {
+                    complete(probe, -1L);
+                }
+            }
+            return connecting < concurrency && !ready.isEmpty();
+        }
+
+        private void expire(final long now) {
+            Probe probe;
+            while ((probe = inFlight.peekFirst()) != null && (probe.done || now - probe.startedAt >= timeoutMillis)) {
+                inFlight.pollFirst();
+                if (!probe.done) {
+                    complete(probe, -1L);
+                }
+            }
+        }
+
+        private void complete(final Probe probe, final long delay) {
+            if (probe.done) {
+                return;
+            }
+            probe.done = true;
+            if (probe.channel != null && probe.channel.isRegistered()) {
+                connecting--;
+            }
+            close(probe);
+            report(probe.index, delay);
+        }
+
+        private void report(final int index, final long delay) {
+            remaining--;
+            if (!cancelled) {
+                listener.onDelay(id, index, delay);
+            }
+        }
+
+        private void close(final Probe probe) {
+            if (probe.channel == null) {
+                return;
+            }
+            try {
+                probe.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static boolean isLiteral(final String address) {
+        return address.indexOf(':') >= 0 || address.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+    }
+}
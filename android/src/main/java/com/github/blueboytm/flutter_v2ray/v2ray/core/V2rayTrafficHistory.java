@@ -0,0 +1,133 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size per-second traffic history of the last 24 hours.
+ * <p>
+ * Every second owns one slot of a ring of primitive arrays, indexed by its
+ * wall-clock epoch second. A slot whose stamp does not match the requested
+ * second is stale and counts as no traffic, so gaps (disconnected periods,
+ * dropped ticks) need no bookkeeping.
+ */
+public final class V2rayTrafficHistory {
+    public static final int CAPACITY_SECONDS = 24 * 60 * 60;
+    /**
+     * Number of values per bucket returned by {@link #query(long, long, int)}:
+     * start (epoch millis), upload min/avg/max, download min/avg/max (bytes per second).
+     */
+    public static final int BUCKET_FIELDS = 7;
+    private final long[] stamps = new long[CAPACITY_SECONDS];
+    private final long[] upload = new long[CAPACITY_SECONDS];
+    private final long[] download = new long[CAPACITY_SECONDS];
+    private long lastSecond = -1;
+    private long lastTotalUpload, lastTotalDownload;
+
+    public V2rayTrafficHistory() {
+        Arrays.fill(stamps, -1);
+    }
+
+    /**
+     * Records the running totals of a session. The traffic since the previous
+     * call is spread evenly over the seconds that passed in between.
+     */
+    public synchronized void record(final long nowMillis, final long totalUpload, final long totalDownload) {
+        final long second = nowMillis / 1000;
+        long uploadDelta = totalUpload - lastTotalUpload;
+        long downloadDelta = totalDownload - lastTotalDownload;
+        if (uploadDelta < 0 || downloadDelta < 0 || lastSecond < 0) {
+            // first sample or a new session, the totals are the new baseline
+            uploadDelta = Math.max(0, totalUpload);
+            downloadDelta = Math.max(0, totalDownload);
+            lastSecond = second;
+        }
+        lastTotalUpload = totalUpload;
+        lastTotalDownload = totalDownload;
+        final long elapsed = Math.min(second - lastSecond, CAPACITY_SECONDS);
+        if (elapsed <= 0) {
+            add(second, uploadDelta, downloadDelta);
+            return;
+        }
+        lastSecond = second;
+        final long uploadShare = uploadDelta / elapsed;
+        final long downloadShare = downloadDelta / elapsed;
+        for (long s = second - elapsed + 1; s < second; s++) {
+            add(s, uploadShare, downloadShare);
+        }
+        add(second, uploadDelta - uploadShare * (elapsed - 1), downloadDelta - downloadShare * (elapsed - 1));
+    }
+
+    /**
+     * Marks the end of a session so the next recorded totals start a new baseline.
+     */
+    public synchronized void resetSession() {
+        lastSecond = -1;
+        lastTotalUpload = 0;
+        lastTotalDownload = 0;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(stamps, -1);
+        resetSession();
+    }
+
+    /**
+     * Downsamples {@code [fromMillis, toMillis]} into at most {@code buckets} buckets.
+     * The range is clipped to the retained 24 hours.
+     *
+     * @return {@link #BUCKET_FIELDS} values per bucket, flattened into one array.
+     */
+    public synchronized long[] query(final long nowMillis, long fromMillis, long toMillis, final int buckets) {
+        final long now = nowMillis / 1000;
+        long from = Math.max(fromMillis / 1000, now - CAPACITY_SECONDS + 1);
+        long to = Math.min(toMillis / 1000, now);
+        if (to < from || buckets <= 0) {
+            return new long[0];
+        }
+        final long seconds = to - from + 1;
+        final int count = (int) Math.min(buckets, seconds);
+        final long[] result = new long[count * BUCKET_FIELDS];
+        for (int b = 0; b < count; b++) {
+            final long start = from + seconds * b / count;
+            final long end = from + seconds * (b + 1) / count;
+            long upMin = Long.MAX_VALUE, upMax = 0, upSum = 0;
+            long downMin = Long.MAX_VALUE, downMax = 0, downSum = 0;
+            for (long s = start; s < end; s++) {
+                final int index = (int) (s % CAPACITY_SECONDS);
+                final boolean valid = stamps[index] == s;
+                final long up = valid ? upload[index] : 0;
+                final long down = valid ? download[index] : 0;
+                upMin = Math.min(upMin, up);
+                upMax = Math.max(upMax, up);
+                upSum += up;
+                downMin = Math.min(downMin, down);
+                downMax = Math.max(downMax, down);
+                downSum += down;
+            }
+            final int offset = b * BUCKET_FIELDS;
+            result[offset] = start * 1000;
+            result[offset + 1] = upMin;
+            result[offset + 2] = upSum / (end - start);
+            result[offset + 3] = upMax;
+            result[offset + 4] = downMin;
+            result[offset + 5] = downSum / (end - start);
+            result[offset + 6] = downMax;
+        }
+        return result;
+    }
+
+    public long[] query(final long fromMillis, final long toMillis, final int buckets) {
+        return query(System.currentTimeMillis(), fromMillis, toMillis, buckets);
+    }
+
+    private void add(final long second, final long up, final long down) {
+        final int index = (int) (second % CAPACITY_SECONDS);
+        if (stamps[index] != second) {
+            stamps[index] = second;
+            upload[index] = 0;
+            download[index] = 0;
+        }
+        upload[index] += up;
+        download[index] += down;
+    }
+}
@@ -0,0 +1,366 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe traffic accounting backed by an append-only memory-mapped log.
+ * <p>
+ * Every record is a CRC-protected checkpoint of the cumulative traffic of one
+ * session on one local day, so the latest record of a (session, day) pair
+ * wins and a lost or torn record only costs the traffic since the previous
+ * checkpoint. Checkpoints are written at most once per
+ * {@link #DEFAULT_CHECKPOINT_INTERVAL_MILLIS} while connected and once more
+ * when the session ends.
+ * <p>
+ * When the log is full it is compacted into one record per (session, day) and
+ * swapped in atomically with a rename.
+ */
+public final class V2rayTrafficLedger {
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 30_000L;
+    public static final int RETENTION_DAYS = 3 * 366;
+    private static final String FILE_NAME = "traffic_ledger.bin";
+    private static final int MAGIC = 0x56524c31;
+    // magic(4) day(4) session(8) upload(8) download(8) crc(4)
+    private static final int RECORD_SIZE = 36;
+    private static final int CRC_OFFSET = 32;
+    private static final int MIN_CAPACITY_RECORDS = 4096;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private volatile static V2rayTrafficLedger INSTANCE;
+    // day -> session -> {upload, download}
+    private final TreeMap<Integer, HashMap<Long, long[]>> days = new TreeMap<>();
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+    // set until the ledger is opened, see open(Context)
+    private Context pendingContext;
+    private File file;
+    private MappedByteBuffer log;
+    private int capacityRecords;
+    private int writePosition;
+    private long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    private long session = -1;
+    private int sessionDay;
+    private long dayBaseUpload, dayBaseDownload;
+    private long lastUpload, lastDownload;
+    private long lastCheckpointAt;
+    private boolean dirty;
+
+    public static V2rayTrafficLedger getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayTrafficLedger.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayTrafficLedger();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Maps the ledger file and replays it on the lifecycle pool, a call that comes
+     * first opens it itself. Safe to call more than once.
+     */
+    public void open(final Context context) {
+        synchronized (this) {
+            if (log == null && pendingContext == null) {
+                pendingContext = context.getApplicationContext();
+            }
+        }
+        V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.LIFECYCLE, this::ensureOpen);
+    }
+
+    private synchronized void ensureOpen() {
+        if (pendingContext != null) {
+            final Context context = pendingContext;
+            pendingContext = null;
+            open(context.getFilesDir());
+        }
+    }
+
+    synchronized void open(final File directory) {
+        if (log != null) {
+            return;
+        }
+        file = new File(directory, FILE_NAME);
+        try {
+            map(Math.max(MIN_CAPACITY_RECORDS, (int) (file.length() / RECORD_SIZE)));
+            recover();
+        } catch (Exception e) {
+            Log.e(V2rayTrafficLedger.class.getSimpleName(), "open failed =>", e);
+            log = null;
+        }
+    }
+
+    public synchronized void setCheckpointIntervalMillis(final long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = Math.max(0, checkpointIntervalMillis);
+    }
+
+    public synchronized void beginSession(final long nowMillis) {
+        ensureOpen();
+        session = nowMillis;
+        sessionDay = localDay(nowMillis);
+        dayBaseUpload = 0;
+        dayBaseDownload = 0;
+        lastUpload = 0;
+        lastDownload = 0;
+        lastCheckpointAt = nowMillis;
+        dirty = false;
+    }
+
+    /**
+     * Updates the running session with its cumulative totals. The in-memory
+     * aggregates are updated on every call, the log only once per checkpoint interval.
+     */
+    public synchronized void update(final long nowMillis, final long totalUpload, final long totalDownload) {
+        if (session < 0 || (totalUpload == lastUpload && totalDownload == lastDownload && localDay(nowMillis) == sessionDay)) {
+            return;
+        }
+        final int day = localDay(nowMillis);
+        if (day != sessionDay) {
+            // close the previous day with everything counted so far
+            append(sessionDay, session, lastUpload - dayBaseUpload, lastDownload - dayBaseDownload);
+            dayBaseUpload = lastUpload;
+            dayBaseDownload = lastDownload;
+            sessionDay = day;
+        }
+        lastUpload = totalUpload;
+        lastDownload = totalDownload;
+        put(sessionDay, session, lastUpload - dayBaseUpload, lastDownload - dayBaseDownload);
+        dirty = true;
+        if (nowMillis - lastCheckpointAt >= checkpointIntervalMillis) {
+            checkpoint(nowMillis);
+        }
+    }
+
+    public synchronized void endSession(final long nowMillis, final long totalUpload, final long totalDownload) {
+        ensureOpen();
+        if (session < 0) {
+            return;
+        }
+        update(nowMillis, totalUpload, totalDownload);
+        if (dirty) {
+            checkpoint(nowMillis);
+        }
+        if (log != null) {
+            log.force();
+        }
+        session = -1;
+    }
+
+    /**
+     * Returns {day (epoch millis of local midnight), upload, download} per day
+     * with traffic in {@code [fromMillis, toMillis]}, flattened into one array.
+     */
+    public synchronized long[] getDailyUsage(final long fromMillis, final long toMillis) {
+        ensureOpen();
+        final Map<Integer, HashMap<Long, long[]>> range = days.subMap(localDay(fromMillis), true, localDay(toMillis), true);
+        final long[] result = new long[range.size() * 3];
+        int offset = 0;
+        for (Map.Entry<Integer, HashMap<Long, long[]>> entry : range.entrySet()) {
+            result[offset] = dayStartMillis(entry.getKey());
+            for (long[] totals : entry.getValue().values()) {
+                result[offset + 1] += totals[0];
+                result[offset + 2] += totals[1];
+            }
+            offset += 3;
+        }
+        return result;
+    }
+
+    /**
+     * Returns {month (epoch millis of the first local day), upload, download}
+     * per month with traffic in {@code [fromMillis, toMillis]}, flattened into one array.
+     */
+    public synchronized long[] getMonthlyUsage(final long fromMillis, final long toMillis) {
+        final long[] daily = getDailyUsage(fromMillis, toMillis);
+        final ArrayList<long[]> months = new ArrayList<>();
+        final Calendar calendar = Calendar.getInstance();
+        long[] current = null;
+        for (int i = 0; i < daily.length; i += 3) {
+            calendar.setTimeInMillis(daily[i]);
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            final long monthStart = calendar.getTimeInMillis();
+            if (current == null || current[0] != monthStart) {
+                current = new long[]{monthStart, 0, 0};
+                months.add(current);
+            }
+            current[1] += daily[i + 1];
+            current[2] += daily[i + 2];
+        }
+        final long[] result = new long[months.size() * 3];
+        for (int i = 0; i < months.size(); i++) {
+            System.arraycopy(months.get(i), 0, result, i * 3, 3);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        ensureOpen();
+        days.clear();
+        if (session >= 0) {
+            dayBaseUpload = lastUpload;
+            dayBaseDownload = lastDownload;
+            dirty = false;
+        }
+        compact();
+    }
+
+    private void checkpoint(final long nowMillis) {
+        append(sessionDay, session, lastUpload - dayBaseUpload, lastDownload - dayBaseDownload);
+        lastCheckpointAt = nowMillis;
+        dirty = false;
+    }
+
+    private void append(final int day, final long session, final long upload, final long download) {
+        put(day, session, upload, download);
+        if (log == null) {
+            return;
+        }
+        if (writePosition + RECORD_SIZE > capacityRecords * RECORD_SIZE) {
+            // compaction rewrites the current state, including this record
+            compact();
+            return;
+        }
+        scratchBuffer.clear();
+        scratchBuffer.putInt(MAGIC).putInt(day).putLong(session).putLong(upload).putLong(download);
+        crc.reset();
+        crc.update(scratch, 0, CRC_OFFSET);
+        scratchBuffer.putInt((int) crc.getValue());
+        log.position(writePosition);
+        log.put(scratch);
+        writePosition += RECORD_SIZE;
+    }
+
+    private void put(final int day, final long session, final long upload, final long download) {
+        HashMap<Long, long[]> sessions = days.get(day);
+        if (sessions == null) {
+            sessions = new HashMap<>();
+            days.put(day, sessions);
+        }
+        long[] totals = sessions.get(session);
+        if (totals == null) {
+            totals = new long[2];
+            sessions.put(session, totals);
+        }
+        totals[0] = upload;
+        totals[1] = download;
+    }
+
+    /**
+     * Replays the log up to the first torn or corrupt record and zeroes everything after it.
+     */
+    private void recover() {
+        days.clear();
+        final int limit = capacityRecords * RECORD_SIZE;
+        int position = 0;
+        while (position + RECORD_SIZE <= limit) {
+            log.position(position);
+            log.get(scratch);
+            scratchBuffer.clear();
+            if (scratchBuffer.getInt() != MAGIC) {
+                break;
+            }
+            crc.reset();
+            crc.update(scratch, 0, CRC_OFFSET);
+            if (scratchBuffer.getInt(CRC_OFFSET) != (int) crc.getValue()) {
+                Log.w(V2rayTrafficLedger.class.getSimpleName(), "recover => dropping torn record at " + position);
+                break;
+            }
+            put(scratchBuffer.getInt(), scratchBuffer.getLong(), scratchBuffer.getLong(), scratchBuffer.getLong());
+            position += RECORD_SIZE;
+        }
+        writePosition = position;
+        log.position(position);
+        while (log.hasRemaining()) {
+            log.put((byte) 0);
+        }
+    }
+
+    /**
+     * Rewrites the log with the latest record of every (session, day), dropping the
+     * superseded checkpoints and the days past the retention.
+     */
+    private void compact() {
+        if (file == null) {
+            return;
+        }
+        final int oldestDay = localDay(System.currentTimeMillis()) - RETENTION_DAYS;
+        days.headMap(oldestDay).clear();
+        int records = 0;
+        for (HashMap<Long, long[]> sessions : days.values()) {
+            records += sessions.size();
+        }
+        final int capacity = Math.max(MIN_CAPACITY_RECORDS, records * 2);
+        final File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            final ByteBuffer buffer = ByteBuffer.allocate(records * RECORD_SIZE);
+            for (Map.Entry<Integer, HashMap<Long, long[]>> day : days.entrySet()) {
+                for (Map.Entry<Long, long[]> entry : day.getValue().entrySet()) {
+                    scratchBuffer.clear();
+                    scratchBuffer.putInt(MAGIC).putInt(day.getKey()).putLong(entry.getKey())
+                            .putLong(entry.getValue()[0]).putLong(entry.getValue()[1]);
+                    crc.reset();
+                    crc.update(scratch, 0, CRC_OFFSET);
+                    scratchBuffer.putInt((int) crc.getValue());
+                    buffer.put(scratch);
+                }
+            }
+            buffer.flip();
+            out.getChannel().write(buffer);
+            out.setLength((long) capacity * RECORD_SIZE);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(V2rayTrafficLedger.class.getSimpleName(), "compact failed =>", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(V2rayTrafficLedger.class.getSimpleName(), "compact failed => can`t replace " + file);
+            temp.delete();
+            return;
+        }
+        try {
+            map(capacity);
+            writePosition = records * RECORD_SIZE;
+        } catch (IOException e) {
+            Log.e(V2rayTrafficLedger.class.getSimpleName(), "compact failed =>", e);
+            log = null;
+        }
+    }
+
+    private void map(final int capacityRecords) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long length = (long) capacityRecords * RECORD_SIZE;
+            if (raf.length() < length) {
+                raf.setLength(length);
+            }
+            log = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            this.capacityRecords = capacityRecords;
+        }
+    }
+
+    private static int localDay(final long millis) {
+        return (int) ((millis + TimeZone.getDefault().getOffset(millis)) / DAY_MILLIS);
+    }
+
+    private static long dayStartMillis(final int day) {
+        final long utc = day * DAY_MILLIS;
+        return utc - TimeZone.getDefault().getOffset(utc);
+    }
+}
@@ -0,0 +1,6 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.interfaces;
+
+public interface V2rayDelayListener {
+    void onDelay(final int batchId, final int index, final long delay);
+    void onBatchFinished(final int batchId, final boolean cancelled);
+}
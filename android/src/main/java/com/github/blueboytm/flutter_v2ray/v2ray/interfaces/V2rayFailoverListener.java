@@ -0,0 +1,5 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.interfaces;
+
+public interface V2rayFailoverListener {
+    void onServerSwitched(final int fromIndex, final int toIndex, final String reason, final long delay);
+}
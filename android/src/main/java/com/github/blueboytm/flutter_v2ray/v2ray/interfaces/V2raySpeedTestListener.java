@@ -0,0 +1,8 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.interfaces;
+
+import java.util.Map;
+
+public interface V2raySpeedTestListener {
+    void onProgress(final int testId, final String phase, final long elapsedMillis, final long bytes, final double mbps);
+    void onFinished(final int testId, final Map<String, Object> result, final boolean cancelled);
+}
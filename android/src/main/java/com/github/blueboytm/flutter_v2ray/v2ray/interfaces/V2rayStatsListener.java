@@ -0,0 +1,7 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.interfaces;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayStatsSampler;
+
+public interface V2rayStatsListener {
+    void onSample(final V2rayStatsSampler sampler);
+}
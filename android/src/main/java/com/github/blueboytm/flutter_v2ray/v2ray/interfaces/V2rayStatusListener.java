@@ -0,0 +1,8 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.interfaces;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayStatsSampler;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+
+public interface V2rayStatusListener {
+    void onStatus(final AppConfigs.V2RAY_STATES state, final V2rayStatsSampler stats, final long publishedAtNanos);
+}
@@ -0,0 +1,236 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.services;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayConnectTimings;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayExecutors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tun2socks child process and restarts it with capped exponential
+ * backoff when it exits.
+ * <p>
+ * The tun fd is handed over as soon as tun2socks created its control socket,
+ * which is detected with a {@link FileObserver} on the working directory
+ * instead of polling with sleeps.
+ */
+public final class Tun2socksSupervisor {
+    public static final String SOCK_PATH = "sock_path";
+    public static final long INITIAL_BACKOFF_MILLIS = 250L;
+    public static final long MAX_BACKOFF_MILLIS = 30_000L;
+    // a run that lasted this long counts as healthy and resets the backoff
+    private static final long STABLE_RUN_MILLIS = 30_000L;
+    private static final long READY_TIMEOUT_MILLIS = 5_000L;
+    private volatile static Tun2socksSupervisor INSTANCE;
+    // identifies the current supervisor run, a run ends as soon as it is replaced
+    private volatile Object generation;
+    private volatile Future<?> supervisor;
+    private volatile Process process;
+    private volatile int restarts;
+    private volatile int lastExitCode = Integer.MIN_VALUE;
+    private volatile long lastExitAt;
+    private volatile long lastReadyMillis = -1;
+    private volatile long currentBackoffMillis;
+
+    public static Tun2socksSupervisor getInstance() {
+        if (INSTANCE == null) {
+            synchronized (Tun2socksSupervisor.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new Tun2socksSupervisor();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public synchronized void start(final File workDir, final List<String> command, final FileDescriptor tunFd) {
+        stop();
+        restarts = 0;
+        lastExitCode = Integer.MIN_VALUE;
+        lastExitAt = 0;
+        lastReadyMillis = -1;
+        currentBackoffMillis = 0;
+        final List<String> cmd = new ArrayList<>(command);
+        final Object token = new Object();
+        generation = token;
+        supervisor = V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.DEDICATED, () -> supervise(token, workDir, cmd, tunFd));
+        if (supervisor == null) {
+            generation = null;
+            Log.e(Tun2socksSupervisor.class.getSimpleName(), "start failed => no dedicated thread available");
+        }
+    }
+
+    public synchronized void stop() {
+        final Future<?> running = supervisor;
+        generation = null;
+        supervisor = null;
+        final Process child = process;
+        if (child != null) {
+            child.destroy();
+        }
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    public boolean isRunning() {
+        return generation != null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", isRunning());
+        stats.put("restarts", restarts);
+        stats.put("last_exit_code", lastExitCode == Integer.MIN_VALUE ? null : lastExitCode);
+        stats.put("last_exit_at", lastExitAt);
+        stats.put("last_ready_ms", lastReadyMillis);
+        stats.put("backoff_ms", currentBackoffMillis);
+        return stats;
+    }
+
+    private void supervise(final Object token, final File workDir, final List<String> cmd, final FileDescriptor tunFd) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (generation == token) {
+            final long startedAt = SystemClock.elapsedRealtime();
+            try {
+                runOnce(workDir, cmd, tunFd, startedAt);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                Log.e(Tun2socksSupervisor.class.getSimpleName(), "supervise failed =>", e);
+            }
+            if (generation != token) {
+                break;
+            }
+            if (SystemClock.elapsedRealtime() - startedAt >= STABLE_RUN_MILLIS) {
+                backoff = INITIAL_BACKOFF_MILLIS;
+            }
+            currentBackoffMillis = backoff;
+            Log.w(Tun2socksSupervisor.class.getSimpleName(), "tun2socks exited with " + lastExitCode + ", restarting in " + backoff + "ms");
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            restarts++;
+        }
+    }
+
+    private void runOnce(final File workDir, final List<String> cmd, final FileDescriptor tunFd, final long startedAt) throws Exception {
+        final File sockFile = new File(workDir, SOCK_PATH);
+        // a stale socket from a previous run would look ready before tun2socks listens
+        if (sockFile.exists() && !sockFile.delete()) {
+            Log.w(Tun2socksSupervisor.class.getSimpleName(), "can`t delete stale " + sockFile);
+        }
+        final CountDownLatch ready = new CountDownLatch(1);
+        final FileObserver observer = createObserver(workDir, ready);
+        observer.startWatching();
+        Process started = null;
+        try {
+            // only the first run belongs to the connect, restarts are not connect latency
+            final boolean timed = restarts == 0;
+            final long spawnStartedAt = V2rayConnectTimings.now();
+            started = new ProcessBuilder(cmd).redirectErrorStream(true).directory(workDir).start();
+            process = started;
+            if (timed) {
+                V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.TUN2SOCKS_SPAWN, spawnStartedAt);
+            }
+            final long handoffStartedAt = V2rayConnectTimings.now();
+            if (sockFile.exists() || ready.await(READY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                observer.stopWatching();
+                try {
+                    sendFileDescriptor(sockFile, tunFd);
+                } catch (Exception e) {
+                    started.destroy();
+                    throw e;
+                }
+                if (timed) {
+                    V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.FD_HANDOFF, handoffStartedAt);
+                }
+                lastReadyMillis = SystemClock.elapsedRealtime() - startedAt;
+            } else {
+                Log.e(Tun2socksSupervisor.class.getSimpleName(), "tun2socks did not create " + sockFile + " in time");
+                started.destroy();
+            }
+            // tun2socks blocks once the pipe is full, so its output is read until it exits
+            drainOutput(started);
+            lastExitCode = started.waitFor();
+            lastExitAt = System.currentTimeMillis();
+        } finally {
+            observer.stopWatching();
+            // a newer run may already have put its own process here
+            if (started != null && process == started) {
+                process = null;
+            }
+        }
+    }
+
+    private static void drainOutput(final Process child) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Log.d(Tun2socksSupervisor.class.getSimpleName(), line);
+            }
+        } catch (IOException e) {
+            // the process is gone
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static FileObserver createObserver(final File workDir, final CountDownLatch ready) {
+        final int mask = FileObserver.CREATE | FileObserver.MOVED_TO;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new FileObserver(workDir, mask) {
+                @Override
+                public void onEvent(int event, String path) {
+                    if (SOCK_PATH.equals(path)) ready.countDown();
+                }
+            };
+        }
+        return new FileObserver(workDir.getAbsolutePath(), mask) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (SOCK_PATH.equals(path)) ready.countDown();
+            }
+        };
+    }
+
+    private static void sendFileDescriptor(final File sockFile, final FileDescriptor tunFd) throws Exception {
+        // the socket file appears on bind(), listen() follows right after it
+        for (int tries = 0; ; tries++) {
+            try (LocalSocket clientLocalSocket = new LocalSocket()) {
+                clientLocalSocket.connect(new LocalSocketAddress(sockFile.getAbsolutePath(), LocalSocketAddress.Namespace.FILESYSTEM));
+                OutputStream clientOutStream = clientLocalSocket.getOutputStream();
+                clientLocalSocket.setFileDescriptorsForSend(new FileDescriptor[]{tunFd});
+                clientOutStream.write(32);
+                clientLocalSocket.setFileDescriptorsForSend(null);
+                clientLocalSocket.shutdownOutput();
+                return;
+            } catch (Exception e) {
+                if (tries >= 20) {
+                    throw e;
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+}
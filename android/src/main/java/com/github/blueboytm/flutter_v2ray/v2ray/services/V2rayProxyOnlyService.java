@@ -14,35 +14,51 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayExecutors;
 import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfigHandoff;
 
 public class V2rayProxyOnlyService extends Service implements V2rayServicesListener {
     private static final int NOTIFICATION_ID = 10101; // 通知ID
+    private boolean holdsExecutors;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        V2rayExecutors.getInstance().retain();
+        holdsExecutors = true;
         V2rayCoreManager.getInstance().setUpListener(this);
         createNotificationChannel(); // 创建通知渠道
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            // a sticky restart after the process died, there is nothing to resume
+            Log.e(V2rayProxyOnlyService.class.getSimpleName(), "Received null intent, stopping service.");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
         AppConfigs.V2RAY_SERVICE_COMMANDS startCommand = (AppConfigs.V2RAY_SERVICE_COMMANDS) intent.getSerializableExtra("COMMAND");
         if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
-            V2rayConfig v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
+            // within the foreground deadline of startForegroundService, the core starts asynchronously
+            startForeground(NOTIFICATION_ID, createNotification()); // 启动前台服务并显示通知
+            V2rayConfig v2rayConfig = V2rayConfigHandoff.getConfig(intent);
             if (v2rayConfig == null) {
-                this.onDestroy();
+                Log.e(V2rayProxyOnlyService.class.getSimpleName(), "onStartCommand failed => no config to start with.");
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            if (V2rayCoreManager.getInstance().hotSwapCore(v2rayConfig)) {
+                return START_STICKY;
             }
             if (V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
                 V2rayCoreManager.getInstance().stopCore();
             }
-            assert v2rayConfig != null;
             if (V2rayCoreManager.getInstance().startCore(v2rayConfig)) {
                 Log.e(V2rayProxyOnlyService.class.getSimpleName(), "onStartCommand success => v2ray core started.");
-                startForeground(NOTIFICATION_ID, createNotification()); // 启动前台服务并显示通知
             } else {
                 this.onDestroy();
             }
@@ -51,21 +67,34 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
             AppConfigs.V2RAY_CONFIG = null;
             stopForeground(true); // 停止前台服务并移除通知
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
-            new Thread(() -> {
-                Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
-                sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay()));
-                sendBroadcast(sendB);
-            }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+            if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> broadcastDelay(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay())) == null) {
+                broadcastDelay(-1L);
+            }
         } else {
             this.onDestroy();
         }
         return START_STICKY;
     }
 
+    private void broadcastDelay(final long delay) {
+        Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
+        sendB.putExtra("DELAY", String.valueOf(delay));
+        sendBroadcast(sendB);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         stopForeground(true); // 停止前台服务并移除通知
+        releaseExecutors();
+    }
+
+    // onDestroy is also called by hand when a start fails, so release only once
+    private void releaseExecutors() {
+        if (holdsExecutors) {
+            holdsExecutors = false;
+            V2rayExecutors.getInstance().release();
+        }
     }
 
     @Nullable
@@ -7,8 +7,6 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.net.InetAddresses;
-import android.net.LocalSocket;
-import android.net.LocalSocketAddress;
 import android.net.VpnService;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
@@ -16,32 +14,36 @@ import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayConnectTimings;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayDnsCache;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayExecutors;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayRoutePlanner;
 import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfigHandoff;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 public class V2rayVPNService extends VpnService implements V2rayServicesListener {
     private static final int NOTIFICATION_ID = 10101; // 通知ID
     private static final String NOTIFICATION_CHANNEL_ID = "v2ray_vpn_channel"; // 通知渠道ID
+    private static final String TUN_IPV6_ADDRESS = "da26:2626::1";
+    private static final String TUN2SOCKS_IPV6_ADDRESS = "da26:2626::2";
+    private static final String TUN2SOCKS_ADDRESS = "26.26.26.2";
     private ParcelFileDescriptor mInterface;
-    private Process process;
+    private boolean localDnsCache = false;
     private V2rayConfig v2rayConfig;
-    private boolean isRunning = true;
+    private boolean holdsExecutors;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        V2rayExecutors.getInstance().retain();
+        holdsExecutors = true;
         V2rayCoreManager.getInstance().setUpListener(this);
         createNotificationChannel(); // 创建通知渠道
     }
@@ -55,10 +57,19 @@ public int onStartCommand(Intent intent, int flags, int startId) {
     }
     AppConfigs.V2RAY_SERVICE_COMMANDS startCommand = (AppConfigs.V2RAY_SERVICE_COMMANDS) intent.getSerializableExtra("COMMAND");
     if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
-        v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
-        if (v2rayConfig == null) {
-            this.onDestroy();
+        // within the foreground deadline of startForegroundService, the core starts asynchronously
+        startForeground(NOTIFICATION_ID, createNotification());
+        V2rayConfig nextConfig = V2rayConfigHandoff.getConfig(intent);
+        if (nextConfig == null) {
+            Log.e(V2rayVPNService.class.getSimpleName(), "onStartCommand failed => no config to start with.");
+            stopSelf();
+            return START_NOT_STICKY;
         }
+        if (V2rayCoreManager.getInstance().hotSwapCore(nextConfig)) {
+            v2rayConfig = nextConfig;
+            return START_REDELIVER_INTENT;
+        }
+        v2rayConfig = nextConfig;
         if (V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
             V2rayCoreManager.getInstance().stopCore();
         }
@@ -71,23 +82,25 @@ public int onStartCommand(Intent intent, int flags, int startId) {
         V2rayCoreManager.getInstance().stopCore();
         AppConfigs.V2RAY_CONFIG = null;
     } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
-        new Thread(() -> {
-            Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
-            sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay()));
-            sendBroadcast(sendB);
-        }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+        if (V2rayExecutors.getInstance().submit(V2rayExecutors.Pool.IO, () -> broadcastDelay(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay())) == null) {
+            broadcastDelay(-1L);
+        }
     } else {
         this.onDestroy();
     }
     return START_REDELIVER_INTENT;
 }
 
+    private void broadcastDelay(final long delay) {
+        Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
+        sendB.putExtra("DELAY", String.valueOf(delay));
+        sendBroadcast(sendB);
+    }
+
     private void stopAllProcess() {
         stopForeground(true); // 停止前台服务并移除通知
-        isRunning = false;
-        if (process != null) {
-            process.destroy();
-        }
+        Tun2socksSupervisor.getInstance().stop();
+        V2rayDnsCache.getInstance().stop();
         V2rayCoreManager.getInstance().stopCore();
         try {
             stopSelf();
@@ -114,19 +127,21 @@ public int onStartCommand(Intent intent, int flags, int startId) {
 
         Builder builder = new Builder();
         builder.setSession("Secure Tunnel"); // 使用固定名称替代动态IP
-        builder.setMtu(1500);
+        builder.setMtu(v2rayConfig.TUN_PROFILE.MTU);
         builder.addAddress("26.26.26.1", 30);
+        // without an IPv6 address or route the system installs an unreachable route for IPv6,
+        // so connects fail right away; BLACKHOLE relies on that as well
+        final boolean ipv6 = v2rayConfig.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.TUNNEL;
+        if (ipv6) {
+            builder.addAddress(TUN_IPV6_ADDRESS, 126);
+        }
 
-        if (v2rayConfig.BYPASS_SUBNETS == null || v2rayConfig.BYPASS_SUBNETS.isEmpty()) {
-            builder.addRoute("0.0.0.0", 0);
-        } else {
-            for (String subnet : v2rayConfig.BYPASS_SUBNETS) {
-                String[] parts = subnet.split("/");
-                if (parts.length == 2) {
-                    String address = parts[0];
-                    int prefixLength = Integer.parseInt(parts[1]);
-                    builder.addRoute(address, prefixLength);
-                }
+        final V2rayRoutePlanner.Plan routePlan = V2rayRoutePlanner.getInstance().plan(getIncludedSubnets(ipv6), v2rayConfig.EXCLUDED_SUBNETS);
+        for (V2rayRoutePlanner.Route route : routePlan.routes) {
+            try {
+                builder.addRoute(route.address, route.prefixLength);
+            } catch (Exception e) {
+                Log.w(V2rayVPNService.class.getSimpleName(), "setup => can`t add route " + route, e);
             }
         }
         if (v2rayConfig.BLOCKED_APPS != null) {
@@ -138,17 +153,19 @@ public int onStartCommand(Intent intent, int flags, int startId) {
                 }
             }
         }
-        try {
-            JSONObject json = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
-            JSONObject dnsObject = json.getJSONObject("dns");
-            JSONArray serversArray = dnsObject.getJSONArray("servers");
-
-            for (int i = 0; i < serversArray.length(); i++) {
-                Object serverEntry = serversArray.get(i);
-                handleDnsServerEntry(builder, serverEntry);
+        // tun2socks hands every dns query to the cache, the address only has to be inside the tunnel
+        localDnsCache = v2rayConfig.ENABLE_LOCAL_DNS_CACHE
+                && V2rayDnsCache.getInstance().start(v2rayConfig.LOCAL_SOCKS5_PORT, v2rayConfig.DNS_SERVERS,
+                v2rayConfig.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.BLACKHOLE);
+        if (!localDnsCache && v2rayConfig.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.BLACKHOLE) {
+            Log.w(V2rayVPNService.class.getSimpleName(), "setup => dns cache is not running, IPv6 is only disabled");
+        }
+        if (localDnsCache) {
+            builder.addDnsServer(TUN2SOCKS_ADDRESS);
+        } else if (v2rayConfig.DNS_SERVERS != null) {
+            for (String dnsServer : v2rayConfig.DNS_SERVERS) {
+                handleDnsServerEntry(builder, dnsServer);
             }
-        } catch (JSONException e) {
-            Log.e("DNS Config", "JSON parsing error", e);
         }
 
         try {
@@ -164,8 +181,9 @@ public int onStartCommand(Intent intent, int flags, int startId) {
         }
 
         try {
+            final long establishStartedAt = V2rayConnectTimings.now();
             mInterface = builder.establish();
-            isRunning = true;
+            V2rayConnectTimings.getInstance().end(V2rayConnectTimings.PHASE.ESTABLISH, establishStartedAt);
             runTun2socks();
         } catch (Exception e) {
             stopAllProcess();
@@ -173,56 +191,42 @@ public int onStartCommand(Intent intent, int flags, int startId) {
     }
 
     /**
-     * 处理单个DNS服务器条目
-     */
-    private void handleDnsServerEntry(Builder builder, Object serverEntry) {
-        try {
-            if (serverEntry instanceof String) {
-                handleStringDnsEntry(builder, (String) serverEntry);
-            } else if (serverEntry instanceof JSONObject) {
-                handleObjectDnsEntry(builder, (JSONObject) serverEntry);
-            } else {
-                Log.w("DNS Config", "Unsupported DNS entry type: " + serverEntry.getClass().getSimpleName());
-            }
-        } catch (Exception e) {
-            Log.e("DNS Config", "Error processing DNS entry: " + serverEntry, e);
-        }
-    }
-
-    /**
-     * 处理字符串类型DNS条目
+     * Routes everything unless bypass subnets are given. With IPv6 enabled, IPv6 is
+     * routed as a whole when the bypass subnets don't mention it, so it can't leak.
      */
-    private void handleStringDnsEntry(Builder builder, String entry) {
-        String cleanedIp = entry.split(":")[0]; // 处理带端口的情况如"1.1.1.1:53"
-        if (isValidIpAddress(cleanedIp)) {
-            builder.addDnsServer(cleanedIp);
-            Log.d("DNS Config", "Added simple DNS: " + cleanedIp);
+    private ArrayList<String> getIncludedSubnets(final boolean ipv6) {
+        final ArrayList<String> subnets = new ArrayList<>();
+        if (v2rayConfig.BYPASS_SUBNETS == null || v2rayConfig.BYPASS_SUBNETS.isEmpty()) {
+            subnets.add("0.0.0.0/0");
         } else {
-            Log.w("DNS Config", "Invalid IP format: " + entry);
+            subnets.addAll(v2rayConfig.BYPASS_SUBNETS);
+        }
+        if (ipv6) {
+            boolean hasIpv6 = false;
+            for (String subnet : subnets) {
+                hasIpv6 |= subnet.indexOf(':') >= 0;
+            }
+            if (!hasIpv6) {
+                subnets.add("::/0");
+            }
         }
+        return subnets;
     }
 
     /**
-     * 处理对象类型DNS条目
+     * 处理单个DNS服务器条目
      */
-    private void handleObjectDnsEntry(Builder builder, JSONObject entry) {
+    private void handleDnsServerEntry(Builder builder, String entry) {
         try {
-            String address = entry.getString("address");
-            String cleanedIp = address.split(":")[0]; // 提取IP部分
-
+            String cleanedIp = entry.split(":")[0]; // 处理带端口的情况如"1.1.1.1:53"
             if (isValidIpAddress(cleanedIp)) {
                 builder.addDnsServer(cleanedIp);
-                Log.d("DNS Config", "Added object DNS: " + cleanedIp);
-
-                // 可选：记录高级参数（实际VPN层不处理这些）
-                if (entry.has("port")) {
-                    Log.d("DNS Config", "DNS port config detected (handled by v2ray core): " + entry.getInt("port"));
-                }
+                Log.d("DNS Config", "Added DNS: " + cleanedIp);
             } else {
-                Log.w("DNS Config", "Invalid IP in DNS object: " + entry);
+                Log.w("DNS Config", "Invalid IP format: " + entry);
             }
-        } catch (JSONException e) {
-            Log.w("DNS Config", "Malformed DNS object: " + entry, e);
+        } catch (Exception e) {
+            Log.e("DNS Config", "Error processing DNS entry: " + entry, e);
         }
     }
 
@@ -241,69 +245,34 @@ public int onStartCommand(Intent intent, int flags, int startId) {
 
     private void runTun2socks() {
         ArrayList<String> cmd = new ArrayList<>(Arrays.asList(new File(getApplicationInfo().nativeLibraryDir, "libtun2socks.so").getAbsolutePath(),
-                "--netif-ipaddr", "26.26.26.2",
+                "--netif-ipaddr", TUN2SOCKS_ADDRESS,
                 "--netif-netmask", "255.255.255.252",
                 "--socks-server-addr", "127.0.0.1:" + v2rayConfig.LOCAL_SOCKS5_PORT,
-                "--tunmtu", "1500",
-                "--sock-path", "sock_path",
-                "--enable-udprelay",
-                "--loglevel", "error"));
-        try {
-            ProcessBuilder processBuilder = new ProcessBuilder(cmd);
-            processBuilder.redirectErrorStream(true);
-            process = processBuilder.directory(getApplicationContext().getFilesDir()).start();
-            new Thread(() -> {
-                try {
-                    process.waitFor();
-                    if (isRunning) {
-                        runTun2socks();
-                    }
-                } catch (InterruptedException e) {
-                    //ignore
-                }
-            }, "Tun2socks_Thread").start();
-            sendFileDescriptor();
-        } catch (Exception e) {
-            Log.e("VPN_SERVICE", "FAILED=>", e);
-            this.onDestroy();
+                "--sock-path", Tun2socksSupervisor.SOCK_PATH));
+        v2rayConfig.TUN_PROFILE.appendTun2socksArgs(cmd);
+        if (localDnsCache) {
+            cmd.add("--dnsgw");
+            cmd.add("127.0.0.1:" + V2rayDnsCache.getInstance().getPort());
         }
-    }
-
-    private void sendFileDescriptor() {
-        String localSocksFile = new File(getApplicationContext().getFilesDir(), "sock_path").getAbsolutePath();
-        FileDescriptor tunFd = mInterface.getFileDescriptor();
-        new Thread(() -> {
-            int tries = 0;
-            long initialDelay = 100L;
-            while (true) {
-                try {
-                    Thread.sleep(initialDelay * (1 << tries)); // 指数退避
-                    LocalSocket clientLocalSocket = new LocalSocket();
-                    clientLocalSocket.connect(new LocalSocketAddress(localSocksFile, LocalSocketAddress.Namespace.FILESYSTEM));
-                    if (!clientLocalSocket.isConnected()) {
-                        Log.e("SOCK_FILE", "Unable to connect to localSocksFile [" + localSocksFile + "]");
-                    } else {
-                        Log.e("SOCK_FILE", "connected to sock file [" + localSocksFile + "]");
-                    }
-                    OutputStream clientOutStream = clientLocalSocket.getOutputStream();
-                    clientLocalSocket.setFileDescriptorsForSend(new FileDescriptor[]{tunFd});
-                    clientOutStream.write(32);
-                    clientLocalSocket.setFileDescriptorsForSend(null);
-                    clientLocalSocket.shutdownOutput();
-                    clientLocalSocket.close();
-                    break;
-                } catch (Exception e) {
-                    Log.e(V2rayVPNService.class.getSimpleName(), "sendFd failed =>", e);
-                    if (tries > 5) break;
-                    tries += 1;
-                }
-            }
-        }, "sendFd_Thread").start();
+        if (v2rayConfig.IPV6_MODE == AppConfigs.V2RAY_IPV6_MODES.TUNNEL) {
+            cmd.add("--netif-ip6addr");
+            cmd.add(TUN2SOCKS_IPV6_ADDRESS);
+        }
+        Tun2socksSupervisor.getInstance().start(getApplicationContext().getFilesDir(), cmd, mInterface.getFileDescriptor());
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        releaseExecutors();
+    }
+
+    // onDestroy is also called by hand when a start fails, so release only once
+    private void releaseExecutors() {
+        if (holdsExecutors) {
+            holdsExecutors = false;
+            V2rayExecutors.getInstance().release();
+        }
     }
 
     @Override
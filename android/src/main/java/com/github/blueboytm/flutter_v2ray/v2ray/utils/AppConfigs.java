@@ -1,5 +1,7 @@
 package com.github.blueboytm.flutter_v2ray.v2ray.utils;
 
+import java.util.ArrayList;
+
 public class AppConfigs {
 
     public static V2RAY_CONNECTION_MODES V2RAY_CONNECTION_MODE = V2RAY_CONNECTION_MODES.VPN_TUN;
@@ -8,6 +10,13 @@ public class AppConfigs {
     public static V2rayConfig V2RAY_CONFIG = null;
     public static V2RAY_STATES V2RAY_STATE = V2RAY_STATES.V2RAY_DISCONNECTED;
     public static boolean ENABLE_TRAFFIC_AND_SPEED_STATICS = true;
+    public static long STATS_SAMPLE_INTERVAL = 1000;
+    public static long STATS_IDLE_SAMPLE_INTERVAL = 30000;
+    public static boolean ENABLE_STATUS_BROADCAST = false;
+    public static ArrayList<String> EXCLUDED_SUBNETS = null;
+    public static V2RAY_IPV6_MODES IPV6_MODE = V2RAY_IPV6_MODES.DISABLED;
+    public static V2rayTunProfile TUN_PROFILE = new V2rayTunProfile();
+    public static boolean ENABLE_LOCAL_DNS_CACHE = false;
     public static String DELAY_URL;
     public static String NOTIFICATION_DISCONNECT_BUTTON_NAME;
 
@@ -27,4 +36,17 @@ public class AppConfigs {
         VPN_TUN,
         PROXY_ONLY
     }
+
+    /**
+     * DISABLED leaves IPv6 unconfigured, so the system blocks it for tunnelled apps.
+     * TUNNEL routes IPv6 through the core. BLACKHOLE leaves IPv6 unconfigured as well,
+     * and the local dns cache, which this mode turns on, answers AAAA queries without
+     * addresses, so clients don't try IPv6 at all. Connects to literal IPv6 addresses
+     * still fail right away.
+     */
+    public enum V2RAY_IPV6_MODES {
+        DISABLED,
+        TUNNEL,
+        BLACKHOLE
+    }
 }
@@ -3,16 +3,16 @@ package com.github.blueboytm.flutter_v2ray.v2ray.utils;
 import android.content.Context;
 import android.util.Log;
 
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayAssetInstaller;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 
 public class Utilities {
@@ -39,21 +39,27 @@ public class Utilities {
         }
     }
 
+    /**
+     * Installs changed geo assets in the background, see {@link V2rayAssetInstaller}.
+     */
     public static void copyAssets(final Context context) {
-        String extFolder = getUserAssetsPath(context);
+        V2rayAssetInstaller.getInstance().install(context);
+    }
+
+
+    public static String sha256(final String value) {
         try {
-            String geo = "geosite.dat,geoip.dat";
-            for (String assets_obj : context.getAssets().list("")) {
-                if (geo.contains(assets_obj)) {
-                    CopyFiles(context.getAssets().open(assets_obj), new File(extFolder, assets_obj));
-                }
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
             }
+            return hex.toString();
         } catch (Exception e) {
-            Log.e("Utilities", "copyAssets failed=>", e);
+            return Integer.toHexString(value.hashCode()) + "_" + value.length();
         }
     }
 
-
     public static String convertIntToTwoDigit(int value) {
         if (value < 10) return "0" + value;
         else return value + "";
@@ -65,90 +71,45 @@ public class Utilities {
         v2rayConfig.REMARK = remark;
         v2rayConfig.BLOCKED_APPS = blockedApplication;
         v2rayConfig.BYPASS_SUBNETS = bypass_subnets;
+        v2rayConfig.EXCLUDED_SUBNETS = AppConfigs.EXCLUDED_SUBNETS;
+        v2rayConfig.IPV6_MODE = AppConfigs.IPV6_MODE;
+        v2rayConfig.TUN_PROFILE = AppConfigs.TUN_PROFILE;
+        v2rayConfig.ENABLE_LOCAL_DNS_CACHE = AppConfigs.ENABLE_LOCAL_DNS_CACHE;
         v2rayConfig.APPLICATION_ICON = AppConfigs.APPLICATION_ICON;
         v2rayConfig.APPLICATION_NAME = AppConfigs.APPLICATION_NAME;
         v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME = AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME;
+        final V2rayCompiledConfig compiled;
         try {
-            JSONObject config_json = new JSONObject(config);
-            try {
-                JSONArray inbounds = config_json.getJSONArray("inbounds");
-                for (int i = 0; i < inbounds.length(); i++) {
-                    try {
-                        if (inbounds.getJSONObject(i).getString("protocol").equals("socks")) {
-                            v2rayConfig.LOCAL_SOCKS5_PORT = inbounds.getJSONObject(i).getInt("port");
-                        }
-                    } catch (Exception e) {
-                        //ignore
-                    }
-                    try {
-                        if (inbounds.getJSONObject(i).getString("protocol").equals("http")) {
-                            v2rayConfig.LOCAL_HTTP_PORT = inbounds.getJSONObject(i).getInt("port");
-                        }
-                    } catch (Exception e) {
-                        //ignore
-                    }
-                }
-            } catch (Exception e) {
-                Log.w(V2rayCoreManager.class.getSimpleName(), "startCore warn => can`t find inbound port of socks5 or http.");
-                return null;
-            }
-            try {
-                v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("vnext").getJSONObject(0)
-                        .getString("address");
-                v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("vnext").getJSONObject(0)
-                        .getString("port");
-            } catch (Exception e) {
-                v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("servers").getJSONObject(0)
-                        .getString("address");
-                v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("servers").getJSONObject(0)
-                        .getString("port");
-            }
-            try {
-                if (config_json.has("policy")) {
-                    config_json.remove("policy");
-                }
-                if (config_json.has("stats")) {
-                    config_json.remove("stats");
-                }
-            } catch (Exception ignore_error) {
-                //ignore
-            }
-            if (AppConfigs.ENABLE_TRAFFIC_AND_SPEED_STATICS) {
-                try {
-                    JSONObject policy = new JSONObject();
-                    JSONObject levels = new JSONObject();
-                    levels.put("8", new JSONObject()
-                            .put("connIdle", 300)
-                            .put("downlinkOnly", 1)
-                            .put("handshake", 4)
-                            .put("uplinkOnly", 1));
-                    JSONObject system = new JSONObject()
-                            .put("statsOutboundUplink", true)
-                            .put("statsOutboundDownlink", true);
-                    policy.put("levels", levels);
-                    policy.put("system", system);
-                    config_json.put("policy", policy);
-                    config_json.put("stats", new JSONObject());
-                    config = config_json.toString();
-                    v2rayConfig.ENABLE_TRAFFIC_STATICS = true;
-                } catch (Exception e) {
-                    //ignore
-                }
-            }
+            compiled = V2rayCompiledConfig.compile(config, AppConfigs.ENABLE_TRAFFIC_AND_SPEED_STATICS);
         } catch (Exception e) {
             Log.e(Utilities.class.getName(), "parseV2rayJsonFile failed => ", e);
-            //ignore
             return null;
         }
-        v2rayConfig.V2RAY_FULL_JSON_CONFIG = config;
+        if (!compiled.HAS_INBOUNDS) {
+            Log.w(V2rayCoreManager.class.getSimpleName(), "startCore warn => can`t find inbound port of socks5 or http.");
+            return null;
+        }
+        if (compiled.SERVER_ADDRESS == null || compiled.SERVER_PORT == null) {
+            Log.e(Utilities.class.getName(), "parseV2rayJsonFile failed => can`t find outbound server address.");
+            return null;
+        }
+        if (compiled.LOCAL_SOCKS5_PORT > 0) {
+            v2rayConfig.LOCAL_SOCKS5_PORT = compiled.LOCAL_SOCKS5_PORT;
+        }
+        if (compiled.LOCAL_HTTP_PORT > 0) {
+            v2rayConfig.LOCAL_HTTP_PORT = compiled.LOCAL_HTTP_PORT;
+        }
+        v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = compiled.SERVER_ADDRESS;
+        v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = compiled.SERVER_PORT;
+        v2rayConfig.DNS_SERVERS = compiled.DNS_SERVERS;
+        v2rayConfig.OUTBOUND_TAGS = compiled.OUTBOUND_TAGS;
+        v2rayConfig.OUTBOUND_PROTOCOLS = compiled.OUTBOUND_PROTOCOLS;
+        v2rayConfig.GEOSITE_CATEGORIES = compiled.GEOSITE_CATEGORIES;
+        v2rayConfig.ENABLE_TRAFFIC_STATICS = AppConfigs.ENABLE_TRAFFIC_AND_SPEED_STATICS;
+        v2rayConfig.STATS_SAMPLE_INTERVAL = AppConfigs.STATS_SAMPLE_INTERVAL;
+        v2rayConfig.STATS_IDLE_SAMPLE_INTERVAL = AppConfigs.STATS_IDLE_SAMPLE_INTERVAL;
+        v2rayConfig.ENABLE_STATUS_BROADCAST = AppConfigs.ENABLE_STATUS_BROADCAST;
+        v2rayConfig.V2RAY_FULL_JSON_CONFIG = compiled.FULL_JSON_CONFIG;
         return v2rayConfig;
     }
 
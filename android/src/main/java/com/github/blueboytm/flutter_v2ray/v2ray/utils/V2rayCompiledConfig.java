@@ -0,0 +1,638 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Result of a single streaming pass over a v2ray json config.
+ * <p>
+ * The pass extracts everything the plugin needs (local inbound ports, the
+ * outbound server, outbound tags, dns servers, geosite categories) and writes
+ * the final config together with a routing-stripped variant used by delay
+ * probes, so no consumer has to parse the json again.
+ */
+public final class V2rayCompiledConfig {
+    public static final String GEOSITE_PREFIX = "geosite:";
+
+    public boolean HAS_INBOUNDS = false;
+    public int LOCAL_SOCKS5_PORT = -1;
+    public int LOCAL_HTTP_PORT = -1;
+    public String SERVER_ADDRESS = null;
+    public String SERVER_PORT = null;
+    public final ArrayList<String> DNS_SERVERS = new ArrayList<>();
+    public final ArrayList<String> OUTBOUND_TAGS = new ArrayList<>();
+    public final ArrayList<String> OUTBOUND_PROTOCOLS = new ArrayList<>();
+    // geosite categories referenced by the domain lists of routing rules and dns servers, without attributes
+    public final ArrayList<String> GEOSITE_CATEGORIES = new ArrayList<>();
+    public String PROBE_JSON_CONFIG = null;
+    // sha256 of the probe variant in canonical form, set by compileProbe
+    public String PROBE_KEY = null;
+    public String FULL_JSON_CONFIG = null;
+
+    private JsonReader reader;
+    private JsonWriter full;
+    private JsonWriter probe;
+    private boolean writeFull = true;
+    private boolean writeProbe = true;
+    // drops "policy"/"stats" from the final config when traffic statistics are off
+    private boolean stripTrafficStatics = false;
+    // inside a routing rule "domain" or a dns server "domains" list
+    private boolean domainList = false;
+    private String geositeFile = null;
+
+    private V2rayCompiledConfig() {
+    }
+
+    /**
+     * Compiles {@code config} into the final config and its probe variant.
+     *
+     * @param enableTrafficStatics replaces any "policy"/"stats" objects in the final config with
+     *                             the ones required for outbound traffic statistics, or drops
+     *                             them when false.
+     */
+    public static V2rayCompiledConfig compile(final String config, final boolean enableTrafficStatics) throws IOException {
+        final V2rayCompiledConfig compiled = new V2rayCompiledConfig();
+        final StringWriter fullOut = new StringWriter(config.length() + 256);
+        final StringWriter probeOut = new StringWriter(config.length());
+        compiled.full = new JsonWriter(fullOut);
+        compiled.probe = new JsonWriter(probeOut);
+        compiled.stripTrafficStatics = !enableTrafficStatics;
+        compiled.run(config, enableTrafficStatics);
+        compiled.FULL_JSON_CONFIG = fullOut.toString();
+        compiled.PROBE_JSON_CONFIG = probeOut.toString();
+        return compiled;
+    }
+
+    /**
+     * Compiles only the routing-stripped variant of {@code config} used by delay probes.
+     */
+    public static V2rayCompiledConfig compileProbe(final String config) throws IOException {
+        final V2rayCompiledConfig compiled = new V2rayCompiledConfig();
+        final StringWriter probeOut = new StringWriter(config.length());
+        compiled.probe = new JsonWriter(probeOut);
+        compiled.run(config, false);
+        compiled.PROBE_JSON_CONFIG = probeOut.toString();
+        compiled.PROBE_KEY = Utilities.sha256(canonicalProbe(compiled.PROBE_JSON_CONFIG));
+        return compiled;
+    }
+
+    /**
+     * Writes {@code probeConfig} with sorted object keys and without the sections a delay
+     * probe ignores, so configs that only differ in key order, whitespace, inbounds,
+     * routing or logging map to the same text.
+     */
+    private static String canonicalProbe(final String probeConfig) throws IOException {
+        final JsonReader reader = new JsonReader(new StringReader(probeConfig));
+        reader.setLenient(true);
+        final Object tree = readTree(reader);
+        if (tree instanceof Map) {
+            final Map<?, ?> root = (Map<?, ?>) tree;
+            root.remove("inbounds");
+            root.remove("log");
+            root.remove("remarks");
+            // without its rules, routing doesn't change which outbound is measured
+            root.remove("routing");
+        }
+        final StringWriter out = new StringWriter(probeConfig.length());
+        final JsonWriter writer = new JsonWriter(out);
+        writeTree(writer, tree);
+        writer.close();
+        return out.toString();
+    }
+
+    private static Object readTree(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                final TreeMap<String, Object> object = new TreeMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readTree(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                final ArrayList<Object> array = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.add(readTree(reader));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                return new RawNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static void writeTree(final JsonWriter writer, final Object value) throws IOException {
+        if (value instanceof Map) {
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.name((String) entry.getKey());
+                writeTree(writer, entry.getValue());
+            }
+            writer.endObject();
+        } else if (value instanceof List) {
+            writer.beginArray();
+            for (Object item : (List<?>) value) {
+                writeTree(writer, item);
+            }
+            writer.endArray();
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value == null) {
+            writer.nullValue();
+        } else {
+            writer.value((String) value);
+        }
+    }
+
+    /**
+     * Extracts only the outbound server address and port of {@code config}, nothing is written.
+     */
+    public static V2rayCompiledConfig compileEndpoint(final String config) throws IOException {
+        final V2rayCompiledConfig compiled = new V2rayCompiledConfig();
+        compiled.run(config, false);
+        return compiled;
+    }
+
+    /**
+     * Points the {@code geosite:} entries of routing rule and dns server domain lists
+     * at {@code fileName} with the {@code ext:<file>:} syntax. Nothing else is touched.
+     */
+    static String rewriteGeosite(final String config, final String fileName) throws IOException {
+        final V2rayCompiledConfig compiled = new V2rayCompiledConfig();
+        compiled.geositeFile = fileName;
+        final StringWriter fullOut = new StringWriter(config.length() + 256);
+        compiled.full = new JsonWriter(fullOut);
+        compiled.run(config, false);
+        return fullOut.toString();
+    }
+
+    private void run(final String config, final boolean enableTrafficStatics) throws IOException {
+        reader = new JsonReader(new StringReader(config));
+        reader.setLenient(true);
+        try {
+            beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                switch (name) {
+                    case "policy":
+                    case "stats":
+                        if (!enableTrafficStatics && !stripTrafficStatics) {
+                            name(name);
+                            copyValue();
+                            break;
+                        }
+                        // rebuilt below or dropped, the probe keeps the original ones
+                        writeFull = false;
+                        name(name);
+                        copyValue();
+                        writeFull = true;
+                        break;
+                    case "inbounds":
+                        name(name);
+                        copyInbounds();
+                        break;
+                    case "outbounds":
+                        name(name);
+                        copyOutbounds();
+                        break;
+                    case "dns":
+                        name(name);
+                        copyDns();
+                        break;
+                    case "routing":
+                        name(name);
+                        copyRouting();
+                        break;
+                    default:
+                        name(name);
+                        copyValue();
+                        break;
+                }
+            }
+            if (enableTrafficStatics && full != null) {
+                writeTrafficStaticsPolicy();
+            }
+            endObject();
+            if (full != null) full.close();
+            if (probe != null) probe.close();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void copyInbounds() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            copyValue();
+            return;
+        }
+        HAS_INBOUNDS = true;
+        beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                copyValue();
+                continue;
+            }
+            String protocol = null;
+            String port = null;
+            beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                name(name);
+                if (name.equals("protocol")) {
+                    protocol = copyScalar();
+                } else if (name.equals("port")) {
+                    port = copyScalar();
+                } else {
+                    copyValue();
+                }
+            }
+            endObject();
+            final int parsedPort = parsePort(port);
+            if (parsedPort > 0 && "socks".equals(protocol)) {
+                LOCAL_SOCKS5_PORT = parsedPort;
+            } else if (parsedPort > 0 && "http".equals(protocol)) {
+                LOCAL_HTTP_PORT = parsedPort;
+            }
+        }
+        endArray();
+    }
+
+    private void copyOutbounds() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            copyValue();
+            return;
+        }
+        beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                copyValue();
+                continue;
+            }
+            String tag = null, protocol = null;
+            beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                name(name);
+                if (name.equals("tag")) {
+                    tag = copyScalar();
+                } else if (name.equals("protocol")) {
+                    protocol = copyScalar();
+                } else if (first && name.equals("settings") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    copyOutboundSettings();
+                } else {
+                    copyValue();
+                }
+            }
+            endObject();
+            first = false;
+            // untagged outbounds have no stats counters
+            if (tag != null && !tag.isEmpty() && !OUTBOUND_TAGS.contains(tag)) {
+                OUTBOUND_TAGS.add(tag);
+                OUTBOUND_PROTOCOLS.add(protocol == null ? "" : protocol);
+            }
+        }
+        endArray();
+    }
+
+    private void copyOutboundSettings() throws IOException {
+        String vnextAddress = null, vnextPort = null, serversAddress = null, serversPort = null;
+        beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            name(name);
+            if ((name.equals("vnext") || name.equals("servers")) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                String[] endpoint = copyServerList();
+                if (name.equals("vnext")) {
+                    vnextAddress = endpoint[0];
+                    vnextPort = endpoint[1];
+                } else {
+                    serversAddress = endpoint[0];
+                    serversPort = endpoint[1];
+                }
+            } else {
+                copyValue();
+            }
+        }
+        endObject();
+        if (vnextAddress != null && vnextPort != null) {
+            SERVER_ADDRESS = vnextAddress;
+            SERVER_PORT = vnextPort;
+        } else if (serversAddress != null && serversPort != null) {
+            SERVER_ADDRESS = serversAddress;
+            SERVER_PORT = serversPort;
+        }
+    }
+
+    private String[] copyServerList() throws IOException {
+        final String[] endpoint = new String[2];
+        beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                copyValue();
+                continue;
+            }
+            first = false;
+            beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                name(name);
+                if (name.equals("address")) {
+                    endpoint[0] = copyScalar();
+                } else if (name.equals("port")) {
+                    endpoint[1] = copyScalar();
+                } else {
+                    copyValue();
+                }
+            }
+            endObject();
+        }
+        endArray();
+        return endpoint;
+    }
+
+    private void copyDns() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            copyValue();
+            return;
+        }
+        beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            name(name);
+            if (name.equals("servers") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.STRING) {
+                        final String server = copyScalar();
+                        if (server != null) DNS_SERVERS.add(server);
+                    } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        beginObject();
+                        while (reader.hasNext()) {
+                            final String key = reader.nextName();
+                            name(key);
+                            if (key.equals("address")) {
+                                final String server = copyScalar();
+                                if (server != null) DNS_SERVERS.add(server);
+                            } else if (key.equals("domains")) {
+                                copyDomainList();
+                            } else {
+                                copyValue();
+                            }
+                        }
+                        endObject();
+                    } else {
+                        copyValue();
+                    }
+                }
+                endArray();
+            } else {
+                copyValue();
+            }
+        }
+        endObject();
+    }
+
+    private void copyRouting() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            copyValue();
+            return;
+        }
+        beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name.equals("rules")) {
+                // delay probes only need the outbound, drop the rules from the probe variant
+                final boolean previous = writeProbe;
+                writeProbe = false;
+                name(name);
+                copyRules();
+                writeProbe = previous;
+            } else {
+                name(name);
+                copyValue();
+            }
+        }
+        endObject();
+    }
+
+    private void copyRules() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            copyValue();
+            return;
+        }
+        beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                copyValue();
+                continue;
+            }
+            beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                name(name);
+                if (name.equals("domain")) {
+                    copyDomainList();
+                } else {
+                    copyValue();
+                }
+            }
+            endObject();
+        }
+        endArray();
+    }
+
+    private void copyDomainList() throws IOException {
+        domainList = true;
+        copyValue();
+        domainList = false;
+    }
+
+    private void writeTrafficStaticsPolicy() throws IOException {
+        full.name("policy").beginObject();
+        full.name("levels").beginObject();
+        full.name("8").beginObject()
+                .name("connIdle").value(300)
+                .name("downlinkOnly").value(1)
+                .name("handshake").value(4)
+                .name("uplinkOnly").value(1)
+                .endObject();
+        full.endObject();
+        full.name("system").beginObject()
+                .name("statsOutboundUplink").value(true)
+                .name("statsOutboundDownlink").value(true)
+                .endObject();
+        full.endObject();
+        full.name("stats").beginObject().endObject();
+    }
+
+    /**
+     * Copies the next scalar and returns its textual value, or copies the whole
+     * value and returns null if it is not a string or a number.
+     */
+    private String copyScalar() throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.STRING) {
+            final String value = reader.nextString();
+            final boolean geosite = domainList && value.startsWith(GEOSITE_PREFIX);
+            if (geosite) {
+                addGeositeCategory(value);
+            }
+            if (full != null && writeFull) {
+                full.value(geosite && geositeFile != null
+                        ? "ext:" + geositeFile + ":" + value.substring(GEOSITE_PREFIX.length()) : value);
+            }
+            if (probe != null && writeProbe) probe.value(value);
+            return value;
+        } else if (token == JsonToken.NUMBER) {
+            final String value = reader.nextString();
+            final RawNumber number = new RawNumber(value);
+            if (full != null && writeFull) full.value(number);
+            if (probe != null && writeProbe) probe.value(number);
+            return value;
+        }
+        copyValue();
+        return null;
+    }
+
+    private void copyValue() throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                beginArray();
+                while (reader.hasNext()) {
+                    copyValue();
+                }
+                endArray();
+                break;
+            case BEGIN_OBJECT:
+                beginObject();
+                while (reader.hasNext()) {
+                    name(reader.nextName());
+                    copyValue();
+                }
+                endObject();
+                break;
+            case STRING:
+            case NUMBER:
+                copyScalar();
+                break;
+            case BOOLEAN:
+                final boolean value = reader.nextBoolean();
+                if (full != null && writeFull) full.value(value);
+                if (probe != null && writeProbe) probe.value(value);
+                break;
+            case NULL:
+                reader.nextNull();
+                if (full != null && writeFull) full.nullValue();
+                if (probe != null && writeProbe) probe.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected json token " + reader.peek());
+        }
+    }
+
+    private void name(final String name) throws IOException {
+        if (full != null && writeFull) full.name(name);
+        if (probe != null && writeProbe) probe.name(name);
+    }
+
+    private void beginObject() throws IOException {
+        reader.beginObject();
+        if (full != null && writeFull) full.beginObject();
+        if (probe != null && writeProbe) probe.beginObject();
+    }
+
+    private void endObject() throws IOException {
+        reader.endObject();
+        if (full != null && writeFull) full.endObject();
+        if (probe != null && writeProbe) probe.endObject();
+    }
+
+    private void beginArray() throws IOException {
+        reader.beginArray();
+        if (full != null && writeFull) full.beginArray();
+        if (probe != null && writeProbe) probe.beginArray();
+    }
+
+    private void endArray() throws IOException {
+        reader.endArray();
+        if (full != null && writeFull) full.endArray();
+        if (probe != null && writeProbe) probe.endArray();
+    }
+
+    private void addGeositeCategory(final String value) {
+        final int attribute = value.indexOf('@');
+        final String category = value.substring(GEOSITE_PREFIX.length(), attribute < 0 ? value.length() : attribute)
+                .trim().toLowerCase(Locale.ROOT);
+        if (!category.isEmpty() && !GEOSITE_CATEGORIES.contains(category)) {
+            GEOSITE_CATEGORIES.add(category);
+        }
+    }
+
+    private static int parsePort(final String port) {
+        if (port == null) return -1;
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Keeps the literal of a json number so it is written back unchanged.
+     */
+    private static final class RawNumber extends Number {
+        private final String literal;
+
+        RawNumber(String literal) {
+            this.literal = literal;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(literal);
+        }
+
+        @Override
+        public String toString() {
+            return literal;
+        }
+    }
+}
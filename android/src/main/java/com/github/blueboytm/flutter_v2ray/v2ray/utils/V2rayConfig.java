@@ -1,9 +1,20 @@
 package com.github.blueboytm.flutter_v2ray.v2ray.utils;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 
-public class V2rayConfig implements Serializable {
+/**
+ * Settings of one connection, handed to the services as a {@link Parcelable}.
+ * <p>
+ * The codec below is written by hand in field order, so it carries no class
+ * names or field descriptors like {@link Serializable} does. A config whose
+ * json was moved to a file by {@link V2rayConfigHandoff} only carries the
+ * file path.
+ */
+public class V2rayConfig implements Serializable, Parcelable {
 
     public String CONNECTED_V2RAY_SERVER_ADDRESS = "";
     public String CONNECTED_V2RAY_SERVER_PORT = "";
@@ -11,10 +22,108 @@ public class V2rayConfig implements Serializable {
     public int LOCAL_HTTP_PORT = 10809;
     public ArrayList<String> BLOCKED_APPS = null;
     public ArrayList<String> BYPASS_SUBNETS = null;
+    public ArrayList<String> EXCLUDED_SUBNETS = null;
+    public AppConfigs.V2RAY_IPV6_MODES IPV6_MODE = AppConfigs.V2RAY_IPV6_MODES.DISABLED;
+    public V2rayTunProfile TUN_PROFILE = new V2rayTunProfile();
+    public boolean ENABLE_LOCAL_DNS_CACHE = false;
+    public ArrayList<String> DNS_SERVERS = null;
+    public ArrayList<String> OUTBOUND_TAGS = null;
+    public ArrayList<String> OUTBOUND_PROTOCOLS = null;
+    public ArrayList<String> GEOSITE_CATEGORIES = null;
     public String V2RAY_FULL_JSON_CONFIG = null;
+    // when set, parcels carry this path instead of V2RAY_FULL_JSON_CONFIG
+    public String V2RAY_FULL_JSON_CONFIG_FILE = null;
     public boolean ENABLE_TRAFFIC_STATICS = false;
+    public long STATS_SAMPLE_INTERVAL = 1000;
+    public long STATS_IDLE_SAMPLE_INTERVAL = 30000;
+    public boolean ENABLE_STATUS_BROADCAST = false;
     public String REMARK = "";
     public String APPLICATION_NAME;
     public String NOTIFICATION_DISCONNECT_BUTTON_NAME;
     public int APPLICATION_ICON;
+
+    public V2rayConfig() {
+    }
+
+    protected V2rayConfig(final Parcel in) {
+        CONNECTED_V2RAY_SERVER_ADDRESS = in.readString();
+        CONNECTED_V2RAY_SERVER_PORT = in.readString();
+        LOCAL_SOCKS5_PORT = in.readInt();
+        LOCAL_HTTP_PORT = in.readInt();
+        BLOCKED_APPS = in.createStringArrayList();
+        BYPASS_SUBNETS = in.createStringArrayList();
+        EXCLUDED_SUBNETS = in.createStringArrayList();
+        final int ipv6Mode = in.readInt();
+        final AppConfigs.V2RAY_IPV6_MODES[] ipv6Modes = AppConfigs.V2RAY_IPV6_MODES.values();
+        // a redelivered intent may come from an older build with other modes
+        IPV6_MODE = ipv6Mode < 0 || ipv6Mode >= ipv6Modes.length ? AppConfigs.V2RAY_IPV6_MODES.DISABLED : ipv6Modes[ipv6Mode];
+        TUN_PROFILE = V2rayTunProfile.readFromParcel(in);
+        DNS_SERVERS = in.createStringArrayList();
+        OUTBOUND_TAGS = in.createStringArrayList();
+        OUTBOUND_PROTOCOLS = in.createStringArrayList();
+        GEOSITE_CATEGORIES = in.createStringArrayList();
+        if (in.readByte() == 1) {
+            V2RAY_FULL_JSON_CONFIG_FILE = in.readString();
+        } else {
+            V2RAY_FULL_JSON_CONFIG = in.readString();
+        }
+        final int flags = in.readByte();
+        ENABLE_LOCAL_DNS_CACHE = (flags & 1) != 0;
+        ENABLE_TRAFFIC_STATICS = (flags & 2) != 0;
+        ENABLE_STATUS_BROADCAST = (flags & 4) != 0;
+        STATS_SAMPLE_INTERVAL = in.readLong();
+        STATS_IDLE_SAMPLE_INTERVAL = in.readLong();
+        REMARK = in.readString();
+        APPLICATION_NAME = in.readString();
+        NOTIFICATION_DISCONNECT_BUTTON_NAME = in.readString();
+        APPLICATION_ICON = in.readInt();
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+        dest.writeString(CONNECTED_V2RAY_SERVER_ADDRESS);
+        dest.writeString(CONNECTED_V2RAY_SERVER_PORT);
+        dest.writeInt(LOCAL_SOCKS5_PORT);
+        dest.writeInt(LOCAL_HTTP_PORT);
+        dest.writeStringList(BLOCKED_APPS);
+        dest.writeStringList(BYPASS_SUBNETS);
+        dest.writeStringList(EXCLUDED_SUBNETS);
+        dest.writeInt(IPV6_MODE == null ? -1 : IPV6_MODE.ordinal());
+        (TUN_PROFILE == null ? new V2rayTunProfile() : TUN_PROFILE).writeToParcel(dest);
+        dest.writeStringList(DNS_SERVERS);
+        dest.writeStringList(OUTBOUND_TAGS);
+        dest.writeStringList(OUTBOUND_PROTOCOLS);
+        dest.writeStringList(GEOSITE_CATEGORIES);
+        if (V2RAY_FULL_JSON_CONFIG_FILE != null) {
+            dest.writeByte((byte) 1);
+            dest.writeString(V2RAY_FULL_JSON_CONFIG_FILE);
+        } else {
+            dest.writeByte((byte) 0);
+            dest.writeString(V2RAY_FULL_JSON_CONFIG);
+        }
+        dest.writeByte((byte) ((ENABLE_LOCAL_DNS_CACHE ? 1 : 0) | (ENABLE_TRAFFIC_STATICS ? 2 : 0) | (ENABLE_STATUS_BROADCAST ? 4 : 0)));
+        dest.writeLong(STATS_SAMPLE_INTERVAL);
+        dest.writeLong(STATS_IDLE_SAMPLE_INTERVAL);
+        dest.writeString(REMARK);
+        dest.writeString(APPLICATION_NAME);
+        dest.writeString(NOTIFICATION_DISCONNECT_BUTTON_NAME);
+        dest.writeInt(APPLICATION_ICON);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<V2rayConfig> CREATOR = new Creator<V2rayConfig>() {
+        @Override
+        public V2rayConfig createFromParcel(Parcel in) {
+            return new V2rayConfig(in);
+        }
+
+        @Override
+        public V2rayConfig[] newArray(int size) {
+            return new V2rayConfig[size];
+        }
+    };
 }
@@ -0,0 +1,231 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Puts a {@link V2rayConfig} into the start intent of a service and takes it out again.
+ * <p>
+ * The intent is kept by the system for {@code START_REDELIVER_INTENT} and has
+ * to fit in a binder transaction, so a json config above
+ * {@link #INLINE_JSON_MAX_CHARS} is written to a file named after its hash and
+ * only the path travels in the parcel. The file outlives the process, so a
+ * redelivered intent still finds it. A {@code SharedMemory} region would not:
+ * it dies with the process, and startService rejects intents that carry file
+ * descriptors.
+ */
+public final class V2rayConfigHandoff {
+    public static final String EXTRA_CONFIG = "V2RAY_CONFIG";
+    // parcel strings are UTF-16, so this keeps an inline json at about 64 KB
+    public static final int INLINE_JSON_MAX_CHARS = 32 * 1024;
+    private static final String DIRECTORY = "v2ray_config";
+
+    private V2rayConfigHandoff() {
+    }
+
+    /**
+     * Puts a copy of {@code config} into {@code intent}, {@code config} itself is not changed.
+     */
+    public static void putConfig(final Context context, final Intent intent, final V2rayConfig config) {
+        // the codec writes every field, so a round trip through it is a complete copy
+        final V2rayConfig handoff = unmarshall(marshall(config));
+        final String json = config.V2RAY_FULL_JSON_CONFIG;
+        handoff.V2RAY_FULL_JSON_CONFIG = json;
+        handoff.V2RAY_FULL_JSON_CONFIG_FILE = null;
+        if (json != null && json.length() > INLINE_JSON_MAX_CHARS) {
+            try {
+                handoff.V2RAY_FULL_JSON_CONFIG_FILE = writeJsonFile(context, json).getAbsolutePath();
+                handoff.V2RAY_FULL_JSON_CONFIG = null;
+            } catch (IOException e) {
+                // the json goes inline then, as before
+                Log.e(V2rayConfigHandoff.class.getSimpleName(), "putConfig failed =>", e);
+            }
+        }
+        intent.putExtra(EXTRA_CONFIG, (Parcelable) handoff);
+    }
+
+    /**
+     * @return the config with its json loaded, or null when the intent has none or its json file is gone.
+     */
+    @SuppressWarnings("deprecation")
+    public static V2rayConfig getConfig(final Intent intent) {
+        final V2rayConfig config = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                ? intent.getParcelableExtra(EXTRA_CONFIG, V2rayConfig.class)
+                : intent.getParcelableExtra(EXTRA_CONFIG);
+        if (config == null || config.V2RAY_FULL_JSON_CONFIG_FILE == null) {
+            return config;
+        }
+        try {
+            config.V2RAY_FULL_JSON_CONFIG = readJsonFile(new File(config.V2RAY_FULL_JSON_CONFIG_FILE));
+            config.V2RAY_FULL_JSON_CONFIG_FILE = null;
+            return config;
+        } catch (IOException e) {
+            Log.e(V2rayConfigHandoff.class.getSimpleName(), "getConfig failed =>", e);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes and decodes {@code config} {@code iterations} times with the parcel codec and with
+     * java serialization.
+     *
+     * @return sizes in bytes and average times in microseconds of both, and the size of the parcel
+     * that is actually sent.
+     */
+    public static Map<String, Object> benchmark(final Context context, final V2rayConfig config, final int iterations) {
+        final int rounds = Math.max(1, iterations);
+        final Map<String, Object> result = new HashMap<>();
+        try {
+            final V2rayConfig subject = unmarshall(marshall(config));
+            subject.V2RAY_FULL_JSON_CONFIG = config.V2RAY_FULL_JSON_CONFIG;
+            subject.V2RAY_FULL_JSON_CONFIG_FILE = null;
+            for (int i = 0; i < rounds / 10 + 1; i++) {
+                unmarshall(marshall(subject));
+            }
+            long startedAt = SystemClock.elapsedRealtimeNanos();
+            byte[] parcel = null;
+            for (int i = 0; i < rounds; i++) {
+                parcel = marshall(subject);
+            }
+            result.put("parcel_encode_us", (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000.0 / rounds);
+            result.put("parcel_bytes", parcel.length);
+            startedAt = SystemClock.elapsedRealtimeNanos();
+            V2rayConfig decoded = null;
+            for (int i = 0; i < rounds; i++) {
+                decoded = unmarshall(parcel);
+            }
+            result.put("parcel_decode_us", (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000.0 / rounds);
+
+            for (int i = 0; i < rounds / 10 + 1; i++) {
+                deserialize(serialize(subject));
+            }
+            startedAt = SystemClock.elapsedRealtimeNanos();
+            byte[] serialized = null;
+            for (int i = 0; i < rounds; i++) {
+                serialized = serialize(subject);
+            }
+            result.put("serializable_encode_us", (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000.0 / rounds);
+            result.put("serializable_bytes", serialized.length);
+            startedAt = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < rounds; i++) {
+                deserialize(serialized);
+            }
+            result.put("serializable_decode_us", (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000.0 / rounds);
+
+            final String json = decoded.V2RAY_FULL_JSON_CONFIG;
+            final boolean inline = json == null || json.length() <= INLINE_JSON_MAX_CHARS;
+            if (!inline) {
+                decoded.V2RAY_FULL_JSON_CONFIG_FILE = jsonFile(context, json).getAbsolutePath();
+            }
+            result.put("inline", inline);
+            result.put("handoff_bytes", inline ? parcel.length : marshall(decoded).length);
+        } catch (Exception e) {
+            Log.e(V2rayConfigHandoff.class.getSimpleName(), "benchmark failed =>", e);
+            result.put("error", e.toString());
+        }
+        return result;
+    }
+
+    private static File jsonFile(final Context context, final String json) {
+        return new File(new File(context.getNoBackupFilesDir(), DIRECTORY), Utilities.sha256(json) + ".json");
+    }
+
+    private static File writeJsonFile(final Context context, final String json) throws IOException {
+        final File file = jsonFile(context, json);
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can`t create " + directory);
+        }
+        // only the latest config can be redelivered, older files are garbage
+        final File[] stale = directory.listFiles();
+        if (stale != null) {
+            for (File old : stale) {
+                if (!old.equals(file) && !old.delete()) {
+                    Log.w(V2rayConfigHandoff.class.getSimpleName(), "can`t delete stale " + old);
+                }
+            }
+        }
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (file.length() == bytes.length) {
+            // named after the hash of its content, so it is already complete
+            return file;
+        }
+        final File temp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("can`t rename " + temp + " to " + file);
+        }
+        return file;
+    }
+
+    private static String readJsonFile(final File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                final int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+                read += count;
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] marshall(final V2rayConfig config) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            config.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static V2rayConfig unmarshall(final byte[] bytes) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return V2rayConfig.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] serialize(final V2rayConfig config) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(config);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
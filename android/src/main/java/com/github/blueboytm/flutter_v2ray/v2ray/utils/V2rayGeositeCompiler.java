@@ -0,0 +1,201 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Trims geosite.dat down to the categories a config references.
+ * <p>
+ * geosite.dat is a protobuf {@code GeoSiteList} whose field 1 repeats
+ * {@code GeoSite} messages that start with their {@code country_code}. The
+ * source is memory-mapped and the matching entries are copied as raw bytes,
+ * so nothing is decoded beyond the category names. The result is cached per
+ * set of categories (and source file) and referenced from the config with the
+ * {@code ext:<file>:<category>} syntax the core already understands.
+ */
+public final class V2rayGeositeCompiler {
+    public static final String SOURCE_NAME = "geosite.dat";
+    private static final String CACHE_PREFIX = "geosite_";
+    private static final int MAX_CACHED_FILES = 4;
+    private static final int ENTRY_TAG = (1 << 3) | 2;
+    private static final int COUNTRY_CODE_TAG = (1 << 3) | 2;
+
+    private V2rayGeositeCompiler() {
+    }
+
+    /**
+     * Writes (or reuses) the trimmed geosite file for {@code categories}.
+     *
+     * @return the file name relative to {@code assetsDir}, or null if the full file has to be used.
+     */
+    public static String compile(final File assetsDir, final List<String> categories) {
+        if (categories == null || categories.isEmpty()) {
+            return null;
+        }
+        final File source = new File(assetsDir, SOURCE_NAME);
+        if (!source.isFile()) {
+            return null;
+        }
+        final List<String> sorted = new ArrayList<>(categories);
+        Collections.sort(sorted);
+        final String key = Utilities.sha256(sorted + "|" + source.length() + "|" + source.lastModified());
+        final File target = new File(assetsDir, CACHE_PREFIX + key.substring(0, 16) + ".dat");
+        if (target.isFile()) {
+            target.setLastModified(System.currentTimeMillis());
+            return target.getName();
+        }
+        final Set<String> wanted = new HashSet<>();
+        for (String category : sorted) {
+            wanted.add(category.toUpperCase(Locale.ROOT));
+        }
+        final File temp = new File(assetsDir, target.getName() + ".tmp");
+        try {
+            final int found = extract(source, temp, wanted);
+            if (found != wanted.size()) {
+                // the core reports unknown categories itself, keep its behaviour
+                Log.w(V2rayGeositeCompiler.class.getSimpleName(), "compile => only " + found + " of " + wanted.size() + " categories found, using " + SOURCE_NAME);
+                temp.delete();
+                return null;
+            }
+            if (!temp.renameTo(target)) {
+                throw new IOException("can`t rename " + temp + " to " + target);
+            }
+        } catch (Exception e) {
+            Log.e(V2rayGeositeCompiler.class.getSimpleName(), "compile failed =>", e);
+            temp.delete();
+            return null;
+        }
+        evictOldFiles(assetsDir, target);
+        return target.getName();
+    }
+
+    /**
+     * Points the {@code geosite:} entries of the routing rule and dns server domain lists
+     * of {@code config} at {@code fileName}.
+     *
+     * @return {@code config} unchanged if it can't be parsed, the core then loads the full file.
+     */
+    public static String rewrite(final String config, final String fileName) {
+        try {
+            return V2rayCompiledConfig.rewriteGeosite(config, fileName);
+        } catch (Exception e) {
+            Log.e(V2rayGeositeCompiler.class.getSimpleName(), "rewrite failed =>", e);
+            return config;
+        }
+    }
+
+    /**
+     * @return the number of distinct wanted categories written to {@code target}.
+     */
+    private static int extract(final File source, final File target, final Set<String> wanted) throws IOException {
+        final Set<String> found = new HashSet<>();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileOutputStream out = new FileOutputStream(target)) {
+            final FileChannel output = out.getChannel();
+            final MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            final ByteBuffer header = ByteBuffer.allocate(16);
+            while (buffer.hasRemaining()) {
+                final int tag = (int) readVarint(buffer);
+                final int length = (int) readVarint(buffer);
+                final int start = buffer.position();
+                if (length < 0 || start + length > buffer.limit()) {
+                    throw new IOException("truncated " + SOURCE_NAME + " at " + start);
+                }
+                if (tag == ENTRY_TAG) {
+                    final String code = readCountryCode(buffer, start, length);
+                    if (code != null && wanted.contains(code.toUpperCase(Locale.ROOT))) {
+                        found.add(code.toUpperCase(Locale.ROOT));
+                        header.clear();
+                        writeVarint(header, ENTRY_TAG);
+                        writeVarint(header, length);
+                        header.flip();
+                        writeFully(output, header);
+                        final ByteBuffer entry = buffer.duplicate();
+                        entry.position(start).limit(start + length);
+                        writeFully(output, entry);
+                    }
+                }
+                buffer.position(start + length);
+            }
+            output.force(false);
+        }
+        return found.size();
+    }
+
+    private static String readCountryCode(final MappedByteBuffer buffer, final int start, final int length) throws IOException {
+        final ByteBuffer entry = buffer.duplicate();
+        entry.position(start).limit(start + length);
+        while (entry.hasRemaining()) {
+            final int tag = (int) readVarint(entry);
+            if (tag == COUNTRY_CODE_TAG) {
+                final byte[] code = new byte[(int) readVarint(entry)];
+                entry.get(code);
+                return new String(code, StandardCharsets.UTF_8);
+            }
+            // country_code is written first, anything else means an unexpected layout
+            if ((tag & 7) != 2) {
+                return null;
+            }
+            final int skip = (int) readVarint(entry);
+            entry.position(entry.position() + skip);
+        }
+        return null;
+    }
+
+    private static long readVarint(final ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("truncated varint at " + buffer.position());
+            }
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint at " + buffer.position());
+    }
+
+    private static void writeVarint(final ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void evictOldFiles(final File assetsDir, final File keep) {
+        final File[] cached = assetsDir.listFiles((dir, name) -> name.startsWith(CACHE_PREFIX) && name.endsWith(".dat"));
+        if (cached == null || cached.length <= MAX_CACHED_FILES) {
+            return;
+        }
+        Arrays.sort(cached, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_CACHED_FILES; i < cached.length; i++) {
+            if (!cached[i].equals(keep)) {
+                cached[i].delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.os.Parcel;
+import android.util.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Settings shared by the VPN interface and tun2socks, so both sides always
+ * agree on the MTU.
+ */
+public class V2rayTunProfile implements Serializable {
+    public static final int MIN_MTU = 576;
+    public static final int MAX_MTU = 9000;
+    public static final int IPV6_MIN_MTU = 1280;
+    // the levels tun2socks accepts for --loglevel
+    public static final List<String> LOG_LEVELS = Collections.unmodifiableList(
+            Arrays.asList("none", "error", "warning", "notice", "info", "debug"));
+
+    public int MTU = 1500;
+    public boolean ENABLE_UDP_RELAY = true;
+    public String LOG_LEVEL = "error";
+    // appended to the tun2socks command line as is
+    public ArrayList<String> EXTRA_ARGS = new ArrayList<>();
+
+    public static V2rayTunProfile fromMap(final Map<String, Object> map) {
+        final V2rayTunProfile profile = new V2rayTunProfile();
+        if (map == null) {
+            return profile;
+        }
+        final Object mtu = map.get("mtu");
+        if (mtu instanceof Number) {
+            profile.MTU = Math.max(MIN_MTU, Math.min(MAX_MTU, ((Number) mtu).intValue()));
+        }
+        final Object udpRelay = map.get("udp_relay");
+        if (udpRelay instanceof Boolean) {
+            profile.ENABLE_UDP_RELAY = (Boolean) udpRelay;
+        }
+        final Object logLevel = map.get("log_level");
+        if (logLevel instanceof String) {
+            final String level = ((String) logLevel).trim().toLowerCase(Locale.ROOT);
+            if (LOG_LEVELS.contains(level)) {
+                profile.LOG_LEVEL = level;
+            } else {
+                // tun2socks refuses to start on a level it doesn't know
+                Log.w(V2rayTunProfile.class.getSimpleName(), "fromMap => unknown log level " + logLevel + ", using " + profile.LOG_LEVEL);
+            }
+        }
+        final Object extraArgs = map.get("extra_args");
+        if (extraArgs instanceof List) {
+            final ArrayList<String> args = new ArrayList<>();
+            for (Object arg : (List<?>) extraArgs) {
+                // anything else would end up in the command line as its toString
+                if (arg instanceof String) {
+                    args.add((String) arg);
+                }
+            }
+            profile.EXTRA_ARGS = args;
+        }
+        return profile;
+    }
+
+    /**
+     * Part of the {@link V2rayConfig} parcel, written inline without a class name.
+     */
+    void writeToParcel(final Parcel dest) {
+        dest.writeInt(MTU);
+        dest.writeByte((byte) (ENABLE_UDP_RELAY ? 1 : 0));
+        dest.writeString(LOG_LEVEL);
+        dest.writeStringList(EXTRA_ARGS);
+    }
+
+    static V2rayTunProfile readFromParcel(final Parcel in) {
+        final V2rayTunProfile profile = new V2rayTunProfile();
+        profile.MTU = in.readInt();
+        profile.ENABLE_UDP_RELAY = in.readByte() == 1;
+        profile.LOG_LEVEL = in.readString();
+        final ArrayList<String> extraArgs = in.createStringArrayList();
+        profile.EXTRA_ARGS = extraArgs == null ? new ArrayList<>() : extraArgs;
+        return profile;
+    }
+
+    public void appendTun2socksArgs(final List<String> cmd) {
+        cmd.add("--tunmtu");
+        cmd.add(String.valueOf(MTU));
+        if (ENABLE_UDP_RELAY) {
+            cmd.add("--enable-udprelay");
+        }
+        cmd.add("--loglevel");
+        cmd.add(LOG_LEVEL);
+        cmd.addAll(EXTRA_ARGS);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof V2rayTunProfile)) return false;
+        V2rayTunProfile that = (V2rayTunProfile) o;
+        return MTU == that.MTU && ENABLE_UDP_RELAY == that.ENABLE_UDP_RELAY
+                && Objects.equals(LOG_LEVEL, that.LOG_LEVEL) && Objects.equals(EXTRA_ARGS, that.EXTRA_ARGS);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(MTU, ENABLE_UDP_RELAY, LOG_LEVEL, EXTRA_ARGS);
+    }
+}
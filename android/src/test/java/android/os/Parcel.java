@@ -0,0 +1,138 @@
+package android.os;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test fake of the framework parcel, an in-memory buffer with the same
+ * 4-byte alignment for the methods the plugin uses.
+ */
+public final class Parcel {
+    private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+    }
+
+    public int dataSize() {
+        return buffer.limit() == buffer.capacity() ? buffer.position() : buffer.limit();
+    }
+
+    public int dataPosition() {
+        return buffer.position();
+    }
+
+    public void setDataPosition(int position) {
+        buffer.position(position);
+    }
+
+    public byte[] marshall() {
+        return Arrays.copyOf(buffer.array(), dataSize());
+    }
+
+    public void unmarshall(byte[] data, int offset, int length) {
+        buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(data, offset, length);
+        buffer.flip();
+    }
+
+    public void writeInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    public void writeLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    public void writeByte(byte value) {
+        writeInt(value);
+    }
+
+    public byte readByte() {
+        return (byte) readInt();
+    }
+
+    public void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(value.length());
+        ensure(value.length() * 2 + 6);
+        for (int i = 0; i < value.length(); i++) {
+            buffer.putChar(value.charAt(i));
+        }
+        buffer.putChar((char) 0);
+        while ((buffer.position() & 3) != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    public String readString() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        buffer.getChar();
+        while ((buffer.position() & 3) != 0) {
+            buffer.get();
+        }
+        return new String(chars);
+    }
+
+    public void writeStringList(List<String> values) {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    public ArrayList<String> createStringArrayList() {
+        final int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        final ArrayList<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+public class V2rayConnectTimingsTest {
+    private final V2rayConnectTimings timings = V2rayConnectTimings.getInstance();
+
+    @Test
+    public void percentilesCoverTheLastWindow() {
+        final int before = count(V2rayConnectTimings.PHASE.PARSE_CONFIG);
+        for (int millis = 1; millis <= 100; millis++) {
+            timings.end(V2rayConnectTimings.PHASE.PARSE_CONFIG, V2rayConnectTimings.now() - millis * 1_000_000L);
+        }
+        final Map<String, Object> stats = phaseStats(V2rayConnectTimings.PHASE.PARSE_CONFIG);
+        // the window holds 37 to 100 ms
+        assertAbout(68, (Double) stats.get("p50"));
+        assertAbout(97, (Double) stats.get("p95"));
+        assertEquals(before + 100, count(V2rayConnectTimings.PHASE.PARSE_CONFIG));
+        assertAbout(100, (Double) last().get("parse_config"));
+    }
+
+    @Test
+    public void beginConnectKeepsOnlyTheAssetCopy() {
+        timings.end(V2rayConnectTimings.PHASE.COPY_ASSETS, V2rayConnectTimings.now() - 5_000_000L);
+        timings.end(V2rayConnectTimings.PHASE.RUN_LOOP, V2rayConnectTimings.now() - 7_000_000L);
+        timings.beginConnect();
+        final Map<String, Object> last = last();
+        assertAbout(5, (Double) last.get("copy_assets"));
+        assertFalse(last.containsKey("run_loop"));
+        assertFalse(last.containsKey("first_traffic"));
+    }
+
+    @Test
+    public void firstTrafficCountsOncePerConnect() throws InterruptedException {
+        timings.beginConnect();
+        assertTrue(timings.isFirstTrafficPending());
+        final int before = count(V2rayConnectTimings.PHASE.FIRST_TRAFFIC);
+        Thread.sleep(20);
+        timings.markFirstTraffic();
+        timings.markFirstTraffic();
+        assertFalse(timings.isFirstTrafficPending());
+        assertEquals(before + 1, count(V2rayConnectTimings.PHASE.FIRST_TRAFFIC));
+        assertTrue((Double) last().get("first_traffic") >= 20);
+        timings.beginConnect();
+        assertTrue(timings.isFirstTrafficPending());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> last() {
+        return (Map<String, Object>) timings.getReport().get("last");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> phaseStats(final V2rayConnectTimings.PHASE phase) {
+        final Map<String, Object> stats = (Map<String, Object>) timings.getReport().get("stats");
+        return (Map<String, Object>) stats.get(phase.name().toLowerCase());
+    }
+
+    private int count(final V2rayConnectTimings.PHASE phase) {
+        final Map<String, Object> stats = phaseStats(phase);
+        return stats == null ? 0 : (Integer) stats.get("count");
+    }
+
+    private static void assertAbout(final double expectedMillis, final double actualMillis) {
+        assertTrue("expected about " + expectedMillis + " ms but was " + actualMillis,
+                actualMillis >= expectedMillis && actualMillis < expectedMillis + 1);
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class V2rayDelayCacheTest {
+    private final V2rayDelayCache cache = V2rayDelayCache.getInstance();
+
+    @Before
+    public void setUp() {
+        cache.configure(V2rayDelayCache.DEFAULT_TTL_MILLIS, V2rayDelayCache.DEFAULT_MAX_ENTRIES);
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        cache.configure(V2rayDelayCache.DEFAULT_TTL_MILLIS, V2rayDelayCache.DEFAULT_MAX_ENTRIES);
+        cache.clear();
+    }
+
+    @Test
+    public void measurementIsServedFromCacheWithinTheTtl() {
+        final AtomicInteger probes = new AtomicInteger();
+        final Callable<Long> probe = count(probes, 120);
+        assertEquals(120, cache.get("hit", probe));
+        assertEquals(120, cache.get("hit", probe));
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        final AtomicInteger probes = new AtomicInteger();
+        assertEquals(-1, cache.get("failure", count(probes, -1)));
+        assertEquals(-1, cache.get("failure", () -> {
+            probes.incrementAndGet();
+            throw new IllegalStateException("unreachable");
+        }));
+        assertEquals(80, cache.get("failure", count(probes, 80)));
+        assertEquals(3, probes.get());
+    }
+
+    @Test
+    public void expiredMeasurementIsProbedAgain() throws InterruptedException {
+        cache.configure(50, V2rayDelayCache.DEFAULT_MAX_ENTRIES);
+        final AtomicInteger probes = new AtomicInteger();
+        cache.get("expired", count(probes, 10));
+        Thread.sleep(80);
+        cache.get("expired", count(probes, 10));
+        assertEquals(2, probes.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        cache.configure(V2rayDelayCache.DEFAULT_TTL_MILLIS, 2);
+        final AtomicInteger probes = new AtomicInteger();
+        cache.get("a", count(probes, 1));
+        cache.get("b", count(probes, 2));
+        cache.get("a", count(probes, 1));
+        cache.get("c", count(probes, 3));
+        assertEquals(3, probes.get());
+        cache.get("a", count(probes, 1));
+        assertEquals(3, probes.get());
+        cache.get("b", count(probes, 2));
+        assertEquals(4, probes.get());
+        assertEquals(2, cache.getStats().get("size"));
+    }
+
+    @Test
+    public void concurrentLookupsShareOneProbe() throws InterruptedException {
+        final AtomicInteger probes = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Long> probe = () -> {
+            probes.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return 42L;
+        };
+        final long coalescedBefore = (Long) cache.getStats().get("coalesced");
+        final List<Thread> threads = new ArrayList<>();
+        final AtomicLong sum = new AtomicLong();
+        for (int i = 0; i < 4; i++) {
+            final Thread thread = new Thread(() -> sum.addAndGet(cache.get("shared", probe)));
+            threads.add(thread);
+            thread.start();
+        }
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while ((Long) cache.getStats().get("coalesced") - coalescedBefore < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+        assertEquals(1, probes.get());
+        assertEquals(4 * 42, sum.get());
+        assertTrue((Long) cache.getStats().get("coalesced") - coalescedBefore >= 3);
+    }
+
+    private static Callable<Long> count(final AtomicInteger probes, final long delay) {
+        return () -> {
+            probes.incrementAndGet();
+            return delay;
+        };
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+public class V2rayDelayHistogramTest {
+
+    @Test
+    public void emptyHistogramHasNoFigures() {
+        final Map<String, Object> profile = new V2rayDelayHistogram().toMap();
+        assertEquals(0, profile.get("weight"));
+        assertEquals(0.0, (Double) profile.get("failure_rate"), 0.0);
+        assertEquals(-1L, profile.get("min"));
+        assertEquals(-1L, profile.get("p50"));
+        assertEquals(-1L, profile.get("p95"));
+        assertEquals(-1L, profile.get("max"));
+    }
+
+    @Test
+    public void quantilesStayWithinTheBucketError() {
+        final V2rayDelayHistogram histogram = new V2rayDelayHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i < 95 ? 100 : 1000);
+        }
+        final Map<String, Object> profile = histogram.toMap();
+        assertWithin(100, (Long) profile.get("p50"));
+        assertWithin(100, (Long) profile.get("p95"));
+        assertTrue((Long) profile.get("min") <= 100);
+        assertTrue((Long) profile.get("max") >= 1000);
+    }
+
+    @Test
+    public void failuresCountTowardsTheRate() {
+        final V2rayDelayHistogram histogram = new V2rayDelayHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i % 10 == 0 ? -1 : 50);
+        }
+        final Map<String, Object> profile = histogram.toMap();
+        assertEquals(100, profile.get("weight"));
+        assertEquals(0.1, (Double) profile.get("failure_rate"), 1e-9);
+        assertWithin(50, (Long) profile.get("p50"));
+    }
+
+    @Test
+    public void oldSamplesFadeOut() {
+        final V2rayDelayHistogram histogram = new V2rayDelayHistogram();
+        for (int i = 0; i < 200; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 8 * V2rayDelayHistogram.MAX_WEIGHT; i++) {
+            histogram.record(300);
+        }
+        final Map<String, Object> profile = histogram.toMap();
+        assertTrue((Integer) profile.get("weight") <= V2rayDelayHistogram.MAX_WEIGHT);
+        assertWithin(300, (Long) profile.get("p50"));
+        assertTrue((Long) profile.get("min") > 100);
+    }
+
+    @Test
+    public void jitterFollowsTheDelayChanges() {
+        final V2rayDelayHistogram histogram = new V2rayDelayHistogram();
+        for (int i = 0; i < 200; i++) {
+            histogram.record(i % 2 == 0 ? 100 : 200);
+        }
+        final long jitter = (Long) histogram.toMap().get("jitter");
+        assertTrue("jitter " + jitter, jitter >= 95 && jitter <= 100);
+    }
+
+    @Test
+    public void hugeDelaysLandInTheLastBucket() {
+        final V2rayDelayHistogram histogram = new V2rayDelayHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        final Map<String, Object> profile = histogram.toMap();
+        assertTrue((Long) profile.get("p50") > 60_000);
+        assertTrue((Long) profile.get("max") >= (Long) profile.get("p50"));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.08);
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Covers the DNS message parsing of the cache on hand-built messages.
+ */
+public class V2rayDnsCacheTest {
+    private static final int TYPE_A = 1;
+    private static final int TYPE_SOA = 6;
+    private static final int TYPE_AAAA = 28;
+    private static final int TYPE_OPT = 41;
+
+    @Test
+    public void questionEndSkipsNameTypeAndClass() {
+        final byte[] query = query(0x1234, "example.com", TYPE_A);
+        // 12 header + 13 name + 4 type and class
+        assertEquals(29, V2rayDnsCache.questionEnd(query));
+    }
+
+    @Test
+    public void malformedQuestionsAreRejected() {
+        final byte[] query = query(1, "example.com", TYPE_A);
+        assertEquals(-1, V2rayDnsCache.questionEnd(Arrays.copyOf(query, 11)));
+        assertEquals(-1, V2rayDnsCache.questionEnd(Arrays.copyOf(query, query.length - 1)));
+        assertEquals(-1, V2rayDnsCache.questionEnd(Arrays.copyOf(query, 20)));
+        final byte[] twoQuestions = query.clone();
+        twoQuestions[5] = 2;
+        assertEquals(-1, V2rayDnsCache.questionEnd(twoQuestions));
+    }
+
+    @Test
+    public void keyIgnoresCaseButNotType() {
+        final byte[] lower = query(1, "example.com", TYPE_A);
+        final byte[] upper = query(2, "ExAmPlE.CoM", TYPE_A);
+        final byte[] aaaa = query(3, "example.com", TYPE_AAAA);
+        assertEquals(key(lower), key(upper));
+        assertNotEquals(key(lower), key(aaaa));
+    }
+
+    @Test
+    public void noDataAnswersTheQuestionWithoutRecords() {
+        final byte[] query = query(0xBEEF, "example.com", TYPE_AAAA);
+        final int end = V2rayDnsCache.questionEnd(query);
+        final byte[] response = V2rayDnsCache.noData(query, end);
+        assertEquals(end, response.length);
+        assertEquals((byte) 0xBE, response[0]);
+        assertEquals((byte) 0xEF, response[1]);
+        // QR and RD set, NOERROR
+        assertEquals((byte) 0x81, response[2]);
+        assertEquals(0, response[3] & 0x0F);
+        assertEquals(1, u16(response, 4));
+        assertEquals(0, u16(response, 6) + u16(response, 8) + u16(response, 10));
+        assertArrayEquals(Arrays.copyOfRange(query, 12, end), Arrays.copyOfRange(response, 12, end));
+    }
+
+    @Test
+    public void answerTtlIsTheSmallestOne() {
+        final byte[] response = new Message(0x8180, "example.com", TYPE_A)
+                .answer(TYPE_A, 300, new byte[]{1, 2, 3, 4})
+                .answer(TYPE_A, 120, new byte[]{5, 6, 7, 8})
+                .build();
+        final V2rayDnsCache.Entry entry = V2rayDnsCache.Entry.parse(response, 1_000);
+        assertNotNull(entry);
+        assertEquals(120_000, entry.ttlMillis);
+        assertEquals(121_000, entry.expiresAt);
+    }
+
+    @Test
+    public void answerTtlIsCapped() {
+        final byte[] response = new Message(0x8180, "example.com", TYPE_A)
+                .answer(TYPE_A, 86_400, new byte[]{1, 2, 3, 4})
+                .build();
+        assertEquals(3_600_000, V2rayDnsCache.Entry.parse(response, 0).ttlMillis);
+    }
+
+    @Test
+    public void negativeAnswersUseTheSoaTtl() {
+        final byte[] nxdomain = new Message(0x8183, "missing.example", TYPE_A)
+                .authority(TYPE_SOA, 10, new byte[22])
+                .build();
+        assertEquals(10_000, V2rayDnsCache.Entry.parse(nxdomain, 0).ttlMillis);
+        final byte[] longSoa = new Message(0x8183, "missing.example", TYPE_A)
+                .authority(TYPE_SOA, 900, new byte[22])
+                .build();
+        assertEquals(30_000, V2rayDnsCache.Entry.parse(longSoa, 0).ttlMillis);
+        final byte[] withoutSoa = new Message(0x8183, "missing.example", TYPE_A).build();
+        assertNull(V2rayDnsCache.Entry.parse(withoutSoa, 0));
+    }
+
+    @Test
+    public void uncacheableResponsesAreRejected() {
+        final Message answer = new Message(0x8182, "example.com", TYPE_A).answer(TYPE_A, 60, new byte[4]);
+        // SERVFAIL
+        assertNull(V2rayDnsCache.Entry.parse(answer.build(), 0));
+        // truncated
+        assertNull(V2rayDnsCache.Entry.parse(new Message(0x8380, "example.com", TYPE_A).answer(TYPE_A, 60, new byte[4]).build(), 0));
+        // zero ttl
+        assertNull(V2rayDnsCache.Entry.parse(new Message(0x8180, "example.com", TYPE_A).answer(TYPE_A, 0, new byte[4]).build(), 0));
+        // record data past the end
+        final byte[] good = new Message(0x8180, "example.com", TYPE_A).answer(TYPE_A, 60, new byte[4]).build();
+        assertNull(V2rayDnsCache.Entry.parse(Arrays.copyOf(good, good.length - 1), 0));
+    }
+
+    @Test
+    public void optRecordTtlIsLeftAlone() {
+        final byte[] response = new Message(0x8180, "example.com", TYPE_A)
+                .answer(TYPE_A, 60, new byte[4])
+                .additional(TYPE_OPT, 0x8000, new byte[0])
+                .build();
+        final V2rayDnsCache.Entry entry = V2rayDnsCache.Entry.parse(response, 0);
+        assertEquals(1, entry.ttlOffsets.length);
+        final byte[] answer = entry.answer(query(7, "example.com", TYPE_A), 30_000);
+        assertEquals(0x8000, u32(answer, answer.length - 6));
+    }
+
+    @Test
+    public void answerCarriesTheQueryIdAndTheRemainingTtl() {
+        final byte[] response = new Message(0x8180, "example.com", TYPE_A)
+                .answer(TYPE_A, 60, new byte[]{1, 2, 3, 4})
+                .build();
+        final V2rayDnsCache.Entry entry = V2rayDnsCache.Entry.parse(response, 0);
+        final byte[] fresh = entry.answer(query(0x4242, "example.com", TYPE_A), 25_000);
+        assertEquals(0x4242, u16(fresh, 0));
+        assertEquals(35, u32(fresh, entry.ttlOffsets[0]));
+        final byte[] stale = entry.answer(query(1, "example.com", TYPE_A), 90_000);
+        assertEquals(0, u32(stale, entry.ttlOffsets[0]));
+        // the cached copy is not touched
+        assertEquals(60, u32(entry.response, entry.ttlOffsets[0]));
+    }
+
+    private static String key(final byte[] query) {
+        return V2rayDnsCache.key(query, V2rayDnsCache.questionEnd(query));
+    }
+
+    private static byte[] query(final int id, final String name, final int type) {
+        return new Message(id, 0x0100, name, type).build();
+    }
+
+    private static int u16(final byte[] message, final int offset) {
+        return ((message[offset] & 0xFF) << 8) | (message[offset + 1] & 0xFF);
+    }
+
+    private static long u32(final byte[] message, final int offset) {
+        return ((long) u16(message, offset) << 16) | u16(message, offset + 2);
+    }
+
+    /**
+     * Builds a message with one question. Records point back to the question name.
+     */
+    private static final class Message {
+        private final int id;
+        private final int flags;
+        private final byte[] question;
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final int[] counts = new int[3];
+
+        Message(final int flags, final String name, final int type) {
+            this(0x1234, flags, name, type);
+        }
+
+        Message(final int id, final int flags, final String name, final int type) {
+            this.id = id;
+            this.flags = flags;
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (String label : name.split("\\.")) {
+                out.write(label.length());
+                out.write(label.getBytes(), 0, label.length());
+            }
+            out.write(0);
+            out.write(type >> 8);
+            out.write(type);
+            out.write(0);
+            out.write(1);
+            question = out.toByteArray();
+        }
+
+        Message answer(final int type, final long ttl, final byte[] data) {
+            return record(0, type, ttl, data);
+        }
+
+        Message authority(final int type, final long ttl, final byte[] data) {
+            return record(1, type, ttl, data);
+        }
+
+        Message additional(final int type, final long ttl, final byte[] data) {
+            return record(2, type, ttl, data);
+        }
+
+        private Message record(final int section, final int type, final long ttl, final byte[] data) {
+            final ByteBuffer record = ByteBuffer.allocate(12 + data.length);
+            record.putShort((short) 0xC00C).putShort((short) type).putShort((short) 1)
+                    .putInt((int) ttl).putShort((short) data.length).put(data);
+            records.write(record.array(), 0, record.capacity());
+            counts[section]++;
+            return this;
+        }
+
+        byte[] build() {
+            final ByteBuffer message = ByteBuffer.allocate(12 + question.length + records.size());
+            message.putShort((short) id).putShort((short) flags).putShort((short) 1)
+                    .putShort((short) counts[0]).putShort((short) counts[1]).putShort((short) counts[2])
+                    .put(question).put(records.toByteArray());
+            return message.array();
+        }
+    }
+}
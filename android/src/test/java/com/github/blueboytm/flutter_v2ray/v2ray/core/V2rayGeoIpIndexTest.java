@@ -0,0 +1,127 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads a synthetic geoip.dat and checks how its ranges resolve.
+ */
+public class V2rayGeoIpIndexTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("geoip", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void adjacentRangesOfOneCountryAreMerged() throws IOException {
+        load(country("de", cidr(5, 1, 0, 0, 16), cidr(5, 2, 0, 0, 16)),
+                country("US", cidr(8, 8, 8, 0, 24)));
+        assertEquals(Arrays.asList("DE", "DE", null, "US", null),
+                lookup("5.1.0.0", "5.2.255.255", "5.3.0.0", "8.8.8.8", "8.8.9.0"));
+        assertEquals(2, V2rayGeoIpIndex.getInstance().getStats().get("ipv4_ranges"));
+    }
+
+    @Test
+    public void overlappingRangeKeepsThePartPastTheOverlap() throws IOException {
+        load(country("DE", cidr(5, 1, 0, 0, 16), cidr(5, 2, 0, 0, 16)),
+                country("AT", cidr(5, 2, 0, 0, 15)));
+        assertEquals(Arrays.asList("DE", "DE", "AT", "AT", null),
+                lookup("5.1.0.0", "5.2.255.255", "5.3.0.0", "5.3.255.255", "5.4.0.0"));
+    }
+
+    @Test
+    public void narrowerRangeWinsWhenBothStartTogether() throws IOException {
+        load(country("NL", cidr(9, 0, 0, 0, 8)),
+                country("FR", cidr(9, 0, 0, 0, 16)));
+        assertEquals(Arrays.asList("FR", "NL", "NL"), lookup("9.0.255.255", "9.1.0.0", "9.255.255.255"));
+    }
+
+    @Test
+    public void nestedRangeSplitsTheRangeAroundIt() throws IOException {
+        load(country("NL", cidr(9, 0, 0, 0, 8)),
+                country("FR", cidr(9, 1, 0, 0, 16)),
+                country("BE", cidr(9, 1, 2, 0, 24)));
+        assertEquals(Arrays.asList("NL", "FR", "BE", "BE", "FR", "FR", "NL", "NL"),
+                lookup("9.0.255.255", "9.1.0.0", "9.1.2.0", "9.1.2.255", "9.1.3.0", "9.1.255.255", "9.2.0.0", "9.255.255.255"));
+        assertEquals(5, V2rayGeoIpIndex.getInstance().getStats().get("ipv4_ranges"));
+    }
+
+    @Test
+    public void groupsThatAreNoCountryAreSkipped() throws IOException {
+        load(country("PRIVATE", cidr(10, 0, 0, 0, 8)),
+                country("TELEGRAM", cidr(91, 108, 4, 0, 22)));
+        assertEquals(Arrays.asList("PRIVATE", null), lookup("10.1.2.3", "91.108.4.1"));
+    }
+
+    private void load(final byte[]... countries) throws IOException {
+        final ByteArrayOutputStream list = new ByteArrayOutputStream();
+        for (byte[] country : countries) {
+            field(list, 0x0A, country);
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "geoip.dat"))) {
+            out.write(list.toByteArray());
+        }
+        assertTrue(V2rayGeoIpIndex.getInstance().load(dir));
+    }
+
+    private static List<String> lookup(final String... addresses) {
+        return V2rayGeoIpIndex.getInstance().lookup(Arrays.asList(addresses), false);
+    }
+
+    private static byte[] country(final String code, final byte[]... cidrs) {
+        final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        field(entry, 0x0A, code.getBytes(StandardCharsets.US_ASCII));
+        for (byte[] cidr : cidrs) {
+            field(entry, 0x12, cidr);
+        }
+        return entry.toByteArray();
+    }
+
+    private static byte[] cidr(final int a, final int b, final int c, final int d, final int prefix) {
+        final ByteArrayOutputStream cidr = new ByteArrayOutputStream();
+        field(cidr, 0x0A, new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+        cidr.write(0x10);
+        varint(cidr, prefix);
+        return cidr.toByteArray();
+    }
+
+    private static void field(final ByteArrayOutputStream out, final int tag, final byte[] value) {
+        out.write(tag);
+        varint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void varint(final ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
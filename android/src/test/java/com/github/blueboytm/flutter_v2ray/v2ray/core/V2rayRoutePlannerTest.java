@@ -0,0 +1,114 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class V2rayRoutePlannerTest {
+    private final V2rayRoutePlanner planner = V2rayRoutePlanner.getInstance();
+
+    @Test
+    public void excludeLeavesTheMinimalComplement() {
+        assertEquals(Arrays.asList("0.0.0.0/5", "8.0.0.0/7", "11.0.0.0/8", "12.0.0.0/6",
+                        "16.0.0.0/4", "32.0.0.0/3", "64.0.0.0/2", "128.0.0.0/1"),
+                routes(planner.plan(null, Collections.singletonList("10.0.0.0/8"))));
+    }
+
+    @Test
+    public void siblingIncludesAreMerged() {
+        assertEquals(Collections.singletonList("10.0.0.0/8"),
+                routes(planner.plan(Arrays.asList("10.0.0.0/9", "10.128.0.0/9", "10.1.0.0/16"), null)));
+    }
+
+    @Test
+    public void excludingEverythingLeavesNoRoute() {
+        assertTrue(planner.plan(Collections.singletonList("0.0.0.0/0"), Collections.singletonList("0.0.0.0/0")).routes.isEmpty());
+    }
+
+    @Test
+    public void invalidEntriesAreIgnored() {
+        assertEquals(Arrays.asList("1.2.3.4/32", "10.0.0.0/8"),
+                routes(planner.plan(Arrays.asList("10.0.0.0/8", "bogus", "1.2.3.4", "10.0.0.0/33"),
+                        Arrays.asList("example.com/8", "10.0.0.0/-1"))));
+    }
+
+    @Test
+    public void ipv6IsPlannedSeparately() {
+        assertEquals(Arrays.asList("10.0.0.0/8", "0:0:0:0:0:0:0:0/3", "4000:0:0:0:0:0:0:0/2", "8000:0:0:0:0:0:0:0/1"),
+                routes(planner.plan(Arrays.asList("::/0", "10.0.0.0/8"), Collections.singletonList("2000::/3"))));
+    }
+
+    @Test
+    public void samePlanIsServedFromCache() {
+        final List<String> excludes = Collections.singletonList("192.168.0.0/16");
+        final V2rayRoutePlanner.Plan first = planner.plan(null, excludes);
+        final long hits = (Long) planner.getStats().get("hits");
+        assertSame(first, planner.plan(null, new ArrayList<>(excludes)));
+        assertEquals(hits + 1, (long) (Long) planner.getStats().get("hits"));
+    }
+
+    @Test
+    public void routesMatchTheInputsAddressByAddress() {
+        final Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            final List<String> includes = randomCidrs(random, 6);
+            final List<String> excludes = randomCidrs(random, 12);
+            final List<V2rayRoutePlanner.Route> routes = planner.plan(includes, excludes).routes;
+            for (int host = 0; host < 1 << 12; host++) {
+                final int address = 0x0A000000 | host << 4;
+                final boolean expected = containsAny(includes, address) && !containsAny(excludes, address);
+                assertEquals(includes + " - " + excludes + " @" + host, expected, containsAny(routes(routes), address));
+            }
+        }
+    }
+
+    /**
+     * Prefixes of at least /16 inside 10.0.0.0/16, so every address in it can be checked.
+     */
+    private static List<String> randomCidrs(final Random random, final int count) {
+        final List<String> cidrs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int prefix = 16 + random.nextInt(13);
+            final int host = random.nextInt(1 << 16) & (int) (0xFFFFL << (32 - prefix));
+            cidrs.add("10.0." + (host >>> 8) + "." + (host & 0xFF) + "/" + prefix);
+        }
+        return cidrs;
+    }
+
+    private static boolean containsAny(final List<String> cidrs, final int address) {
+        for (String cidr : cidrs) {
+            final String[] parts = cidr.split("/");
+            final String[] octets = parts[0].split("\\.");
+            int network = 0;
+            for (String octet : octets) {
+                network = network << 8 | Integer.parseInt(octet);
+            }
+            final int prefix = Integer.parseInt(parts[1]);
+            final int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+            if ((address & mask) == (network & mask)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> routes(final V2rayRoutePlanner.Plan plan) {
+        return routes(plan.routes);
+    }
+
+    private static List<String> routes(final List<V2rayRoutePlanner.Route> routes) {
+        final List<String> values = new ArrayList<>();
+        for (V2rayRoutePlanner.Route route : routes) {
+            values.add(route.toString());
+        }
+        return values;
+    }
+}
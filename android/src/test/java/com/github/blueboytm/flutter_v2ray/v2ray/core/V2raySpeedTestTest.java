@@ -0,0 +1,237 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2raySpeedTestListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the speed test against a loopback SOCKS5 stand-in that forwards every
+ * connection to a small HTTP server, whatever host was asked for.
+ */
+public class V2raySpeedTestTest {
+    private static final int UPLOAD_MIN_BODY_BYTES = 256 * 1024;
+    private static final int DOWNLOAD_BODY_BYTES = 4 * 1024 * 1024;
+
+    private ServerSocket socks;
+    private ServerSocket http;
+    private volatile boolean answerUploads = true;
+    private final AtomicLong receivedUploadBytes = new AtomicLong();
+    private final AtomicLong answeredUploadBytes = new AtomicLong();
+
+    @Before
+    public void setUp() throws IOException {
+        http = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        socks = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        accept(http, this::serveHttp);
+        accept(socks, this::serveSocks);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socks.close();
+        http.close();
+    }
+
+    @Test
+    public void downloadCountsResponseBodies() throws Exception {
+        final Map<String, Object> result = run(1, url("/download"), null);
+        assertNull(result.get("error"));
+        assertTrue((Long) result.get("download_bytes") > 0);
+        assertTrue((Double) result.get("download_mbps") > 0);
+        assertTrue((Long) result.get("ttfb_ms") >= 0);
+    }
+
+    @Test
+    public void uploadCountsOnlyAnsweredBodies() throws Exception {
+        final Map<String, Object> result = run(2, null, url("/upload"));
+        final long uploadBytes = (Long) result.get("upload_bytes");
+        assertNull(result.get("error"));
+        assertTrue(uploadBytes > 0);
+        assertEquals(0, uploadBytes % UPLOAD_MIN_BODY_BYTES);
+        assertTrue(uploadBytes <= answeredUploadBytes.get());
+        assertTrue((Double) result.get("upload_mbps") > 0);
+    }
+
+    @Test
+    public void uploadWithoutAnswerCountsNothing() throws Exception {
+        answerUploads = false;
+        final Map<String, Object> result = run(3, null, url("/upload"));
+        assertTrue(receivedUploadBytes.get() > 0);
+        assertEquals(0L, result.get("upload_bytes"));
+        assertEquals(0.0, (Double) result.get("upload_mbps"), 0.0);
+    }
+
+    @Test
+    public void unexpectedStatusIsReported() throws Exception {
+        final Map<String, Object> result = run(4, url("/missing"), null);
+        assertEquals(0L, result.get("download_bytes"));
+        assertTrue(String.valueOf(result.get("error")).contains("404"));
+    }
+
+    @Test
+    public void httpsIsRejected() throws Exception {
+        final Map<String, Object> result = run(5, "https://localhost/", null);
+        assertEquals("only http urls are supported", result.get("error"));
+    }
+
+    private String url(final String path) {
+        return "http://localhost:" + http.getLocalPort() + path;
+    }
+
+    private Map<String, Object> run(final int testId, final String downloadUrl, final String uploadUrl) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Map<String, Object>> result = new AtomicReference<>();
+        final AtomicBoolean wasCancelled = new AtomicBoolean();
+        V2raySpeedTest.getInstance().start(testId, socks.getLocalPort(), downloadUrl, uploadUrl, 2, 1500, 300,
+                new V2raySpeedTestListener() {
+                    @Override
+                    public void onProgress(int id, String phase, long elapsedMillis, long bytes, double mbps) {
+                    }
+
+                    @Override
+                    public void onFinished(int id, Map<String, Object> values, boolean cancelled) {
+                        wasCancelled.set(cancelled);
+                        result.set(values);
+                        finished.countDown();
+                    }
+                });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertFalse(wasCancelled.get());
+        return result.get();
+    }
+
+    private void serveSocks(final Socket client) throws IOException {
+        final DataInputStream in = new DataInputStream(client.getInputStream());
+        final OutputStream out = client.getOutputStream();
+        in.readFully(new byte[3]);
+        out.write(new byte[]{5, 0});
+        final byte[] request = new byte[5];
+        in.readFully(request);
+        // domain name and port, the target is always the http server
+        in.readFully(new byte[(request[4] & 0xFF) + 2]);
+        final Socket upstream = new Socket(InetAddress.getByName("127.0.0.1"), http.getLocalPort());
+        out.write(new byte[]{5, 0, 0, 1, 127, 0, 0, 1, 0, 0});
+        final Thread back = new Thread(() -> pipe(upstream, client));
+        back.setDaemon(true);
+        back.start();
+        pipe(client, upstream);
+    }
+
+    private void serveHttp(final Socket client) throws IOException {
+        final InputStream in = new BufferedInputStream(client.getInputStream());
+        final OutputStream out = client.getOutputStream();
+        final String requestLine = readLine(in);
+        long contentLength = 0;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+                contentLength = Long.parseLong(header.substring(15).trim());
+            }
+        }
+        if (requestLine.startsWith("GET /download ")) {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + DOWNLOAD_BODY_BYTES + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(new byte[DOWNLOAD_BODY_BYTES]);
+        } else if (requestLine.startsWith("POST /upload ")) {
+            final byte[] buffer = new byte[64 * 1024];
+            long received = 0;
+            while (received < contentLength) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, contentLength - received));
+                if (read < 0) {
+                    return;
+                }
+                received += read;
+                receivedUploadBytes.addAndGet(read);
+            }
+            if (!answerUploads) {
+                // hold the connection until the client gives up
+                while (in.read() >= 0) {
+                }
+                return;
+            }
+            answeredUploadBytes.addAndGet(received);
+            out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.flush();
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int value = in.read(); value >= 0 && value != '\n'; value = in.read()) {
+            if (value != '\r') line.append((char) value);
+        }
+        return line.toString();
+    }
+
+    private interface Handler {
+        void handle(Socket socket) throws IOException;
+    }
+
+    private static void accept(final ServerSocket server, final Handler handler) {
+        final Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    final Socket socket = server.accept();
+                    final Thread worker = new Thread(() -> {
+                        try {
+                            handler.handle(socket);
+                        } catch (IOException ignored) {
+                        } finally {
+                            close(socket);
+                        }
+                    });
+                    worker.setDaemon(true);
+                    worker.start();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void pipe(final Socket from, final Socket to) {
+        try {
+            final InputStream in = from.getInputStream();
+            final OutputStream out = to.getOutputStream();
+            final byte[] buffer = new byte[64 * 1024];
+            for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            close(from);
+            close(to);
+        }
+    }
+
+    private static void close(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class V2rayTrafficHistoryTest {
+    // an arbitrary whole second
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Test
+    public void trafficIsSpreadOverTheElapsedSeconds() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 0, 0);
+        history.record(T0 + 4_000, 400, 800);
+        assertArrayEquals(new long[]{
+                T0 + 1_000, 100, 100, 100, 200, 200, 200,
+                T0 + 2_000, 100, 100, 100, 200, 200, 200,
+                T0 + 3_000, 100, 100, 100, 200, 200, 200,
+                T0 + 4_000, 100, 100, 100, 200, 200, 200,
+        }, history.query(T0 + 4_000, T0 + 1_000, T0 + 4_000, 4));
+    }
+
+    @Test
+    public void bucketsCarryMinAverageAndMax() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 0, 0);
+        history.record(T0 + 1_000, 30, 0);
+        history.record(T0 + 2_000, 30, 0);
+        history.record(T0 + 3_000, 90, 60);
+        // seconds 1 to 4 hold upload 30, 0, 60, 0 and download 0, 0, 60, 0
+        assertArrayEquals(new long[]{
+                T0 + 1_000, 0, 15, 30, 0, 0, 0,
+                T0 + 3_000, 0, 30, 60, 0, 30, 60,
+        }, history.query(T0 + 4_000, T0 + 1_000, T0 + 4_000, 2));
+    }
+
+    @Test
+    public void sameSecondSamplesAddUp() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 10, 20);
+        history.record(T0 + 300, 15, 30);
+        history.record(T0 + 900, 25, 50);
+        assertArrayEquals(new long[]{T0, 25, 25, 25, 50, 50, 50}, history.query(T0, T0, T0, 1));
+    }
+
+    @Test
+    public void newSessionStartsFromItsOwnTotals() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 0, 0);
+        history.record(T0 + 1_000, 500, 500);
+        history.resetSession();
+        history.record(T0 + 5_000, 40, 80);
+        assertArrayEquals(new long[]{T0 + 5_000, 40, 40, 40, 80, 80, 80}, history.query(T0 + 5_000, T0 + 5_000, T0 + 5_000, 1));
+        // totals that go backwards also start a new baseline
+        history.record(T0 + 6_000, 10, 10);
+        assertArrayEquals(new long[]{T0 + 6_000, 10, 10, 10, 10, 10, 10}, history.query(T0 + 6_000, T0 + 6_000, T0 + 6_000, 1));
+    }
+
+    @Test
+    public void secondsOlderThanTheCapacityAreGone() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 100, 100);
+        final long later = T0 + V2rayTrafficHistory.CAPACITY_SECONDS * 1000L;
+        history.record(later, 100, 100);
+        // the range is clipped to the last 24 hours, and the slot T0 had is stale now
+        assertEquals(0, history.query(later, T0, T0, 1).length);
+        assertArrayEquals(new long[]{T0 + 1_000, 0, 0, 0, 0, 0, 0}, history.query(later, T0 + 1_000, T0 + 1_000, 1));
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        final V2rayTrafficHistory history = new V2rayTrafficHistory();
+        history.record(T0, 100, 100);
+        history.clear();
+        assertArrayEquals(new long[]{T0, 0, 0, 0, 0, 0, 0}, history.query(T0, T0, T0, 1));
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+
+public class V2rayTrafficLedgerTest {
+    private static final String FILE_NAME = "traffic_ledger.bin";
+    private static final int RECORD_SIZE = 36;
+    private File dir;
+    private long midnight;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("ledger", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2024, Calendar.MARCH, 16);
+        midnight = calendar.getTimeInMillis();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void finishedSessionSurvivesReopening() {
+        final V2rayTrafficLedger ledger = open();
+        final long start = midnight + 3_600_000;
+        ledger.beginSession(start);
+        ledger.update(start + 1_000, 100, 200);
+        ledger.endSession(start + 2_000, 300, 400);
+        assertArrayEquals(new long[]{midnight, 300, 400}, ledger.getDailyUsage(start, start));
+        assertArrayEquals(new long[]{midnight, 300, 400}, open().getDailyUsage(start, start));
+    }
+
+    @Test
+    public void runningSessionIsOnlyWrittenAtCheckpoints() {
+        final V2rayTrafficLedger ledger = open();
+        final long start = midnight + 3_600_000;
+        ledger.beginSession(start);
+        for (int second = 1; second <= 10; second++) {
+            ledger.update(start + second * 1_000L, second * 10L, second * 20L);
+        }
+        assertArrayEquals(new long[]{midnight, 100, 200}, ledger.getDailyUsage(start, start));
+        // a crash now loses everything since the last checkpoint
+        assertEquals(0, open().getDailyUsage(start, start).length);
+        ledger.update(start + V2rayTrafficLedger.DEFAULT_CHECKPOINT_INTERVAL_MILLIS, 500, 600);
+        assertArrayEquals(new long[]{midnight, 500, 600}, open().getDailyUsage(start, start));
+    }
+
+    @Test
+    public void sessionIsSplitAtMidnight() {
+        final V2rayTrafficLedger ledger = open();
+        ledger.beginSession(midnight - 10_000);
+        ledger.update(midnight - 1_000, 100, 100);
+        ledger.endSession(midnight + 1_000, 250, 300);
+        final long dayBefore = dayBefore(midnight);
+        final long[] expected = {dayBefore, 100, 100, midnight, 150, 200};
+        assertArrayEquals(expected, ledger.getDailyUsage(midnight - 10_000, midnight + 1_000));
+        assertArrayEquals(expected, open().getDailyUsage(midnight - 10_000, midnight + 1_000));
+        final Calendar month = Calendar.getInstance();
+        month.setTimeInMillis(midnight);
+        month.set(Calendar.DAY_OF_MONTH, 1);
+        assertArrayEquals(new long[]{month.getTimeInMillis(), 250, 300}, ledger.getMonthlyUsage(midnight - 10_000, midnight + 1_000));
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws IOException {
+        final V2rayTrafficLedger ledger = open();
+        final long start = midnight + 3_600_000;
+        ledger.beginSession(start);
+        ledger.endSession(start + 1_000, 10, 20);
+        ledger.beginSession(start + 2_000);
+        ledger.endSession(start + 3_000, 30, 40);
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, FILE_NAME), "rw")) {
+            // flip a bit in the upload of the second record
+            file.seek(RECORD_SIZE + 20);
+            final int value = file.read();
+            file.seek(RECORD_SIZE + 20);
+            file.write(value ^ 1);
+        }
+        final V2rayTrafficLedger reopened = open();
+        assertArrayEquals(new long[]{midnight, 10, 20}, reopened.getDailyUsage(start, start));
+        // new records go where the torn one was
+        reopened.beginSession(start + 4_000);
+        reopened.endSession(start + 5_000, 1, 2);
+        assertArrayEquals(new long[]{midnight, 11, 22}, open().getDailyUsage(start, start));
+    }
+
+    @Test
+    public void clearDropsAllUsage() {
+        final V2rayTrafficLedger ledger = open();
+        final long start = midnight + 3_600_000;
+        ledger.beginSession(start);
+        ledger.endSession(start + 1_000, 10, 20);
+        ledger.clear();
+        assertEquals(0, ledger.getDailyUsage(start, start).length);
+        assertEquals(0, open().getDailyUsage(start, start).length);
+    }
+
+    @Test
+    public void compactionKeepsEverySession() throws IOException {
+        final V2rayTrafficLedger ledger = open();
+        ledger.setCheckpointIntervalMillis(0);
+        final long start = System.currentTimeMillis();
+        final Set<Long> sessions = new HashSet<>();
+        long upload = 0;
+        // one record per update, enough to fill the log more than once
+        for (int session = 0; session < 3; session++) {
+            final long begin = start + session;
+            sessions.add(begin);
+            ledger.beginSession(begin);
+            for (int i = 1; i <= 1_500; i++) {
+                ledger.update(begin, i, i);
+            }
+            ledger.endSession(begin, 1_500, 1_500);
+            upload += 1_500;
+        }
+        assertEquals(upload, ledger.getDailyUsage(start, start)[1]);
+        assertEquals(upload, open().getDailyUsage(start, start)[1]);
+        assertEquals(sessions, sessionsInLog());
+    }
+
+    private V2rayTrafficLedger open() {
+        final V2rayTrafficLedger ledger = new V2rayTrafficLedger();
+        ledger.open(dir);
+        return ledger;
+    }
+
+    private Set<Long> sessionsInLog() throws IOException {
+        final Set<Long> sessions = new HashSet<>();
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, FILE_NAME), "r")) {
+            final byte[] record = new byte[RECORD_SIZE];
+            while (file.getFilePointer() + RECORD_SIZE <= file.length()) {
+                file.readFully(record);
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+                if (buffer.getInt() == 0) {
+                    break;
+                }
+                sessions.add(buffer.getLong(8));
+            }
+        }
+        return sessions;
+    }
+
+    private static long dayBefore(final long dayStart) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(dayStart);
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class V2rayConfigTest {
+
+    @Test
+    public void everyFieldSurvivesTheParcel() {
+        final V2rayConfig config = sample();
+        final V2rayConfig copy = roundTrip(config);
+        assertEquals(config.CONNECTED_V2RAY_SERVER_ADDRESS, copy.CONNECTED_V2RAY_SERVER_ADDRESS);
+        assertEquals(config.CONNECTED_V2RAY_SERVER_PORT, copy.CONNECTED_V2RAY_SERVER_PORT);
+        assertEquals(config.LOCAL_SOCKS5_PORT, copy.LOCAL_SOCKS5_PORT);
+        assertEquals(config.LOCAL_HTTP_PORT, copy.LOCAL_HTTP_PORT);
+        assertEquals(config.BLOCKED_APPS, copy.BLOCKED_APPS);
+        assertEquals(config.BYPASS_SUBNETS, copy.BYPASS_SUBNETS);
+        assertEquals(config.EXCLUDED_SUBNETS, copy.EXCLUDED_SUBNETS);
+        assertEquals(config.IPV6_MODE, copy.IPV6_MODE);
+        assertEquals(config.TUN_PROFILE, copy.TUN_PROFILE);
+        assertEquals(config.ENABLE_LOCAL_DNS_CACHE, copy.ENABLE_LOCAL_DNS_CACHE);
+        assertEquals(config.DNS_SERVERS, copy.DNS_SERVERS);
+        assertEquals(config.OUTBOUND_TAGS, copy.OUTBOUND_TAGS);
+        assertEquals(config.OUTBOUND_PROTOCOLS, copy.OUTBOUND_PROTOCOLS);
+        assertEquals(config.GEOSITE_CATEGORIES, copy.GEOSITE_CATEGORIES);
+        assertEquals(config.V2RAY_FULL_JSON_CONFIG, copy.V2RAY_FULL_JSON_CONFIG);
+        assertNull(copy.V2RAY_FULL_JSON_CONFIG_FILE);
+        assertEquals(config.ENABLE_TRAFFIC_STATICS, copy.ENABLE_TRAFFIC_STATICS);
+        assertEquals(config.STATS_SAMPLE_INTERVAL, copy.STATS_SAMPLE_INTERVAL);
+        assertEquals(config.STATS_IDLE_SAMPLE_INTERVAL, copy.STATS_IDLE_SAMPLE_INTERVAL);
+        assertEquals(config.ENABLE_STATUS_BROADCAST, copy.ENABLE_STATUS_BROADCAST);
+        assertEquals(config.REMARK, copy.REMARK);
+        assertEquals(config.APPLICATION_NAME, copy.APPLICATION_NAME);
+        assertEquals(config.NOTIFICATION_DISCONNECT_BUTTON_NAME, copy.NOTIFICATION_DISCONNECT_BUTTON_NAME);
+        assertEquals(config.APPLICATION_ICON, copy.APPLICATION_ICON);
+    }
+
+    @Test
+    public void defaultsAndNullsSurviveTheParcel() {
+        final V2rayConfig copy = roundTrip(new V2rayConfig());
+        assertNull(copy.BLOCKED_APPS);
+        assertNull(copy.V2RAY_FULL_JSON_CONFIG);
+        assertNull(copy.APPLICATION_NAME);
+        assertEquals(AppConfigs.V2RAY_IPV6_MODES.DISABLED, copy.IPV6_MODE);
+        assertEquals(new V2rayTunProfile(), copy.TUN_PROFILE);
+        assertFalse(copy.ENABLE_TRAFFIC_STATICS);
+        assertEquals(10808, copy.LOCAL_SOCKS5_PORT);
+    }
+
+    @Test
+    public void handedOffConfigOnlyCarriesThePath() {
+        final V2rayConfig config = sample();
+        config.V2RAY_FULL_JSON_CONFIG_FILE = "/data/handoff/config.json";
+        final V2rayConfig copy = roundTrip(config);
+        assertEquals("/data/handoff/config.json", copy.V2RAY_FULL_JSON_CONFIG_FILE);
+        assertNull(copy.V2RAY_FULL_JSON_CONFIG);
+        assertTrue(size(config) < size(sample()));
+    }
+
+    @Test
+    public void unknownIpv6ModeFallsBackToDisabled() {
+        final V2rayConfig config = sample();
+        final byte[] full = marshall(config);
+        // the same leading fields as writeToParcel, then a mode this build doesn't have
+        final Parcel prefix = Parcel.obtain();
+        prefix.writeString(config.CONNECTED_V2RAY_SERVER_ADDRESS);
+        prefix.writeString(config.CONNECTED_V2RAY_SERVER_PORT);
+        prefix.writeInt(config.LOCAL_SOCKS5_PORT);
+        prefix.writeInt(config.LOCAL_HTTP_PORT);
+        prefix.writeStringList(config.BLOCKED_APPS);
+        prefix.writeStringList(config.BYPASS_SUBNETS);
+        prefix.writeStringList(config.EXCLUDED_SUBNETS);
+        final int modeOffset = prefix.dataSize();
+        prefix.writeInt(AppConfigs.V2RAY_IPV6_MODES.values().length);
+        final byte[] patched = full.clone();
+        System.arraycopy(prefix.marshall(), modeOffset, patched, modeOffset, 4);
+        final Parcel in = Parcel.obtain();
+        in.unmarshall(patched, 0, patched.length);
+        in.setDataPosition(0);
+        final V2rayConfig copy = V2rayConfig.CREATOR.createFromParcel(in);
+        assertEquals(AppConfigs.V2RAY_IPV6_MODES.DISABLED, copy.IPV6_MODE);
+        assertEquals(config.TUN_PROFILE, copy.TUN_PROFILE);
+        assertEquals(config.APPLICATION_ICON, copy.APPLICATION_ICON);
+    }
+
+    private static V2rayConfig sample() {
+        final V2rayConfig config = new V2rayConfig();
+        config.CONNECTED_V2RAY_SERVER_ADDRESS = "example.com";
+        config.CONNECTED_V2RAY_SERVER_PORT = "443";
+        config.LOCAL_SOCKS5_PORT = 20808;
+        config.LOCAL_HTTP_PORT = 20809;
+        config.BLOCKED_APPS = new ArrayList<>(Arrays.asList("com.example.a", "com.example.b"));
+        config.BYPASS_SUBNETS = new ArrayList<>(Arrays.asList("10.0.0.0/8", "::/0"));
+        config.EXCLUDED_SUBNETS = new ArrayList<>();
+        config.IPV6_MODE = AppConfigs.V2RAY_IPV6_MODES.TUNNEL;
+        config.TUN_PROFILE.MTU = 1400;
+        config.TUN_PROFILE.ENABLE_UDP_RELAY = false;
+        config.ENABLE_LOCAL_DNS_CACHE = true;
+        config.DNS_SERVERS = new ArrayList<>(Arrays.asList("1.1.1.1", "8.8.8.8"));
+        config.OUTBOUND_TAGS = new ArrayList<>(Arrays.asList("proxy", "direct"));
+        config.OUTBOUND_PROTOCOLS = new ArrayList<>(Arrays.asList("vless", "freedom"));
+        config.GEOSITE_CATEGORIES = new ArrayList<>(Arrays.asList("cn"));
+        final StringBuilder json = new StringBuilder("{\"outbounds\":[");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"tag\":\"proxy-").append(i).append("\"}");
+        }
+        config.V2RAY_FULL_JSON_CONFIG = json.append("]}").toString();
+        config.ENABLE_TRAFFIC_STATICS = true;
+        config.STATS_SAMPLE_INTERVAL = 500;
+        config.STATS_IDLE_SAMPLE_INTERVAL = 60_000;
+        config.ENABLE_STATUS_BROADCAST = true;
+        config.REMARK = "remark \u2713";
+        config.APPLICATION_NAME = "app";
+        config.NOTIFICATION_DISCONNECT_BUTTON_NAME = "disconnect";
+        config.APPLICATION_ICON = 0x7f010001;
+        return config;
+    }
+
+    private static V2rayConfig roundTrip(final V2rayConfig config) {
+        final byte[] bytes = marshall(config);
+        final Parcel in = Parcel.obtain();
+        in.unmarshall(bytes, 0, bytes.length);
+        in.setDataPosition(0);
+        final V2rayConfig copy = V2rayConfig.CREATOR.createFromParcel(in);
+        assertEquals(bytes.length, in.dataPosition());
+        return copy;
+    }
+
+    private static int size(final V2rayConfig config) {
+        return marshall(config).length;
+    }
+
+    private static byte[] marshall(final V2rayConfig config) {
+        final Parcel out = Parcel.obtain();
+        config.writeToParcel(out, 0);
+        return out.marshall();
+    }
+}
@@ -9,17 +9,45 @@ import 'package:flutter_v2ray/url/vless.dart';
 import 'package:flutter_v2ray/url/vmess.dart';
 
 import 'flutter_v2ray_platform_interface.dart';
+import 'model/connect_timings.dart';
+import 'model/delay_cache_stats.dart';
+import 'model/ipv6_mode.dart';
+import 'model/outbound_stats.dart';
+import 'model/server_delay.dart';
+import 'model/server_quality.dart';
+import 'model/server_switch.dart';
+import 'model/speed_test.dart';
+import 'model/traffic_history.dart';
+import 'model/traffic_usage.dart';
+import 'model/socks_benchmark_result.dart';
+import 'model/tun_profile.dart';
 import 'model/v2ray_status.dart';
 
+export 'model/connect_timings.dart';
+export 'model/delay_cache_stats.dart';
+export 'model/ipv6_mode.dart';
+export 'model/outbound_stats.dart';
+export 'model/server_delay.dart';
+export 'model/server_quality.dart';
+export 'model/server_switch.dart';
+export 'model/speed_test.dart';
+export 'model/traffic_history.dart';
+export 'model/traffic_usage.dart';
+export 'model/socks_benchmark_result.dart';
+export 'model/tun_profile.dart';
 export 'model/v2ray_status.dart';
 export 'url/url.dart';
 
 class FlutterV2ray {
-  FlutterV2ray({required this.onStatusChanged});
+  FlutterV2ray({required this.onStatusChanged, this.onServerSwitched});
 
   /// This method is called when V2Ray status has changed.
   final void Function(V2RayStatus status) onStatusChanged;
 
+  /// This method is called when failover switched to another server, see
+  /// [startV2RayWithFailover].
+  final void Function(ServerSwitch event)? onServerSwitched;
+
   /// Request VPN service permission specifically for Android.
   Future<bool> requestPermission() async {
     if (Platform.isAndroid) {
@@ -32,11 +60,14 @@ class FlutterV2ray {
   Future<void> initializeV2Ray({
     String notificationIconResourceType = "mipmap",
     String notificationIconResourceName = "ic_launcher",
+    bool statusBroadcastCompat = false,
   }) async {
     await FlutterV2rayPlatform.instance.initializeV2Ray(
       onStatusChanged: onStatusChanged,
+      onServerSwitched: onServerSwitched,
       notificationIconResourceType: notificationIconResourceType,
       notificationIconResourceName: notificationIconResourceName,
+      statusBroadcastCompat: statusBroadcastCompat,
     );
   }
 
@@ -64,18 +95,62 @@ class FlutterV2ray {
   ///
   ///     To accept all traffic, set an open route such as 0.0.0.0/0 or ::/0.
   ///
+  /// excludedSubnets:
+  ///
+  ///     Subnets carved out of bypassSubnets, e.g. the ranges of a country
+  ///     that should not go through the VPN tunnel.
+  ///
+  ///     Both lists are merged into the minimal set of routes, see
+  ///     getRoutePlanStats for the cost of computing it.
+  ///
+  /// ipv6Mode:
+  ///
+  ///     [Default = IPv6Mode.disabled]
+  ///
+  ///     Whether IPv6 is tunnelled, or hidden from clients so that they use
+  ///     IPv4 right away, see [IPv6Mode].
+  ///
+  /// tunProfile:
+  ///
+  ///     MTU, UDP relay and tun2socks flags of the VPN tunnel.
+  ///
+  /// localDnsCache:
+  ///
+  ///     [Default = false]
+  ///
+  ///     Answers the tunnel's dns queries from an on-device cache. Misses are
+  ///     forwarded to the ip addresses in the config's dns servers (1.1.1.1
+  ///     when there are none) through the proxy, see getDnsCacheStats.
+  ///     Always on with IPv6Mode.blackhole.
+  ///
   /// proxyOnly:
   ///
   ///   If it is true, only the v2ray proxy will be executed,
   ///
   ///   and the VPN tunnel will not be executed.
+  ///
+  /// statsInterval:
+  ///
+  ///   Interval in milliseconds between two traffic statistics samples
+  ///   reported through onStatusChanged.
+  ///
+  /// statsIdleInterval:
+  ///
+  ///   Interval in milliseconds used instead of statsInterval while nobody
+  ///   listens to onStatusChanged or the device is idle (screen off or doze).
   Future<void> startV2Ray({
     required String remark,
     required String config,
     List<String>? blockedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
     bool proxyOnly = false,
     String notificationDisconnectButtonName = "DISCONNECT",
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
   }) async {
     try {
       if (jsonDecode(config) == null) {
@@ -91,7 +166,71 @@ class FlutterV2ray {
       blockedApps: blockedApps,
       proxyOnly: proxyOnly,
       bypassSubnets: bypassSubnets,
+      excludedSubnets: excludedSubnets,
+      ipv6Mode: ipv6Mode,
+      tunProfile: tunProfile,
+      localDnsCache: localDnsCache,
       notificationDisconnectButtonName: notificationDisconnectButtonName,
+      statsInterval: statsInterval,
+      statsIdleInterval: statsIdleInterval,
+    );
+  }
+
+  /// Start V2Ray service with automatic failover between [configs].
+  ///
+  /// The first config is connected. While connected, the active server is
+  /// measured against [url] every [checkInterval] milliseconds; after
+  /// [maxFailures] consecutive checks that fail or exceed [maxDelay]
+  /// milliseconds, the healthiest other candidate is connected and
+  /// onServerSwitched is called. There is no failover when the app runs the
+  /// native services in a separate process.
+  ///
+  /// The remaining parameters behave like in [startV2Ray].
+  Future<void> startV2RayWithFailover({
+    required String remark,
+    required List<String> configs,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
+    bool proxyOnly = false,
+    String notificationDisconnectButtonName = "DISCONNECT",
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
+    String url = 'https://google.com/generate_204',
+    int checkInterval = 30000,
+    int maxDelay = 1500,
+    int maxFailures = 3,
+  }) async {
+    for (String config in configs) {
+      try {
+        if (jsonDecode(config) == null) {
+          throw ArgumentError('The provided string is not valid JSON');
+        }
+      } catch (_) {
+        throw ArgumentError('The provided string is not valid JSON');
+      }
+    }
+
+    await FlutterV2rayPlatform.instance.startV2RayWithFailover(
+      remark: remark,
+      configs: configs,
+      blockedApps: blockedApps,
+      proxyOnly: proxyOnly,
+      bypassSubnets: bypassSubnets,
+      excludedSubnets: excludedSubnets,
+      ipv6Mode: ipv6Mode,
+      tunProfile: tunProfile,
+      localDnsCache: localDnsCache,
+      notificationDisconnectButtonName: notificationDisconnectButtonName,
+      statsInterval: statsInterval,
+      statsIdleInterval: statsIdleInterval,
+      url: url,
+      checkInterval: checkInterval,
+      maxDelay: maxDelay,
+      maxFailures: maxFailures,
     );
   }
 
@@ -115,6 +254,264 @@ class FlutterV2ray {
         .getServerDelay(config: config, url: url);
   }
 
+  /// Measures the delay of every config in [configs] on a bounded pool of
+  /// [concurrency] workers.
+  ///
+  /// Results are emitted as soon as each probe finishes, in completion order.
+  /// A probe that takes longer than [timeout] milliseconds is reported as -1.
+  /// Cancelling the stream subscription cancels the remaining probes.
+  Stream<ServerDelay> getServerDelays({
+    required List<String> configs,
+    String url = 'https://google.com/generate_204',
+    int concurrency = 8,
+    int timeout = 10000,
+  }) {
+    return FlutterV2rayPlatform.instance.getServerDelays(
+      configs: configs,
+      url: url,
+      concurrency: concurrency,
+      timeout: timeout,
+    );
+  }
+
+  /// Measures [config] [samples] times against every url in [urls] and
+  /// returns its delay distribution, jitter and failure rate.
+  ///
+  /// Samples are kept per server in a fixed-size histogram that also
+  /// collects the results of [getServerDelay], so repeated calls refine the
+  /// same profile instead of replacing it.
+  Future<ServerQuality> getServerQuality({
+    required String config,
+    List<String> urls = const ['https://google.com/generate_204'],
+    int samples = 5,
+  }) async {
+    try {
+      if (jsonDecode(config) == null) {
+        throw ArgumentError('The provided string is not valid JSON');
+      }
+    } catch (_) {
+      throw ArgumentError('The provided string is not valid JSON');
+    }
+    return await FlutterV2rayPlatform.instance
+        .getServerQuality(config: config, urls: urls, samples: samples);
+  }
+
+  /// Like [getServerQuality] for the connected server, measured through the
+  /// running core. Returns an empty profile when not connected.
+  Future<ServerQuality> getConnectedServerQuality({
+    List<String> urls = const ['https://google.com/generate_204'],
+    int samples = 5,
+  }) async {
+    return await FlutterV2rayPlatform.instance
+        .getConnectedServerQuality(urls: urls, samples: samples);
+  }
+
+  /// Ranks [configs] by the time a plain TCP connect to their outbound server
+  /// takes, without starting a core for each of them.
+  ///
+  /// Up to [concurrency] connects run at once on a single native thread, so
+  /// this is meant as a fast first pass over large server lists before
+  /// [getServerDelays]. Results are emitted in completion order, a connect
+  /// that fails or takes longer than [timeout] milliseconds is reported as
+  /// -1. Cancelling the stream subscription cancels the remaining connects.
+  Stream<ServerDelay> getServerTcpDelays({
+    required List<String> configs,
+    int concurrency = 256,
+    int timeout = 3000,
+  }) {
+    return FlutterV2rayPlatform.instance.getServerTcpDelays(
+      configs: configs,
+      concurrency: concurrency,
+      timeout: timeout,
+    );
+  }
+
+  /// Measures download and then upload throughput of the connected server
+  /// through the local SOCKS inbound of the running core.
+  ///
+  /// Each phase runs [streams] parallel transfers for [duration] milliseconds.
+  /// The streams are opened one by one during the first [rampUp]
+  /// milliseconds, which are left out of the reported rate. [downloadUrl]
+  /// should serve a large body to GET requests and [uploadUrl] accept a large
+  /// POST body, leave one out to skip that phase. Only http urls are
+  /// supported, https is reported as an error. Progress is emitted about
+  /// every 250 ms and the last event carries the [SpeedTestResult].
+  /// Cancelling the stream subscription stops the test.
+  Stream<SpeedTestProgress> speedTest({
+    String? downloadUrl,
+    String? uploadUrl,
+    int streams = 4,
+    int duration = 10000,
+    int rampUp = 2000,
+  }) {
+    return FlutterV2rayPlatform.instance.speedTest(
+      downloadUrl: downloadUrl,
+      uploadUrl: uploadUrl,
+      streams: streams,
+      duration: duration,
+      rampUp: rampUp,
+    );
+  }
+
+  /// Configures the server delay cache used by [getServerDelay] and
+  /// [getServerDelays].
+  ///
+  /// Successful measurements are reused for [ttl] milliseconds and at most
+  /// [maxEntries] results are kept. A [ttl] of 0 disables caching.
+  Future<void> configureDelayCache({
+    int ttl = 30000,
+    int maxEntries = 256,
+  }) async {
+    await FlutterV2rayPlatform.instance
+        .configureDelayCache(ttl: ttl, maxEntries: maxEntries);
+  }
+
+  /// Drops every cached server delay.
+  Future<void> clearDelayCache() async {
+    await FlutterV2rayPlatform.instance.clearDelayCache();
+  }
+
+  /// Returns the hit/miss counters of the server delay cache.
+  Future<DelayCacheStats> getDelayCacheStats() async {
+    return await FlutterV2rayPlatform.instance.getDelayCacheStats();
+  }
+
+  /// Returns the traffic rates (bytes per second) and totals of every tagged
+  /// outbound of the running config.
+  ///
+  /// Outbounds with [OutboundStats.proxied] set to false (freedom outbounds)
+  /// are not included in the speeds reported through onStatusChanged.
+  Future<List<OutboundStats>> getOutboundStats() async {
+    return await FlutterV2rayPlatform.instance.getOutboundStats();
+  }
+
+  /// Returns the traffic history between [from] and [to] downsampled into at
+  /// most [buckets] buckets of min/avg/max speeds (bytes per second).
+  ///
+  /// The last 24 hours are kept per second; older ranges are clipped.
+  Future<List<TrafficHistoryBucket>> getTrafficHistory({
+    DateTime? from,
+    DateTime? to,
+    int buckets = 60,
+  }) async {
+    final DateTime end = to ?? DateTime.now();
+    return await FlutterV2rayPlatform.instance.getTrafficHistory(
+      from: from ?? end.subtract(const Duration(hours: 1)),
+      to: end,
+      buckets: buckets,
+    );
+  }
+
+  /// Returns the persisted traffic per local day between [from] and [to].
+  ///
+  /// Usage survives service restarts and process death; at most the last
+  /// 30 seconds of a session can be lost.
+  Future<List<TrafficUsage>> getDailyTraffic({
+    DateTime? from,
+    DateTime? to,
+  }) async {
+    return await FlutterV2rayPlatform.instance.getDailyTraffic(
+      from: from ?? DateTime.fromMillisecondsSinceEpoch(0),
+      to: to ?? DateTime.now(),
+    );
+  }
+
+  /// Returns the persisted traffic per local month between [from] and [to].
+  Future<List<TrafficUsage>> getMonthlyTraffic({
+    DateTime? from,
+    DateTime? to,
+  }) async {
+    return await FlutterV2rayPlatform.instance.getMonthlyTraffic(
+      from: from ?? DateTime.fromMillisecondsSinceEpoch(0),
+      to: to ?? DateTime.now(),
+    );
+  }
+
+  /// Deletes all persisted traffic usage.
+  Future<void> clearTrafficUsage() async {
+    await FlutterV2rayPlatform.instance.clearTrafficUsage();
+  }
+
+  /// Returns the geoip.dat country code (e.g. "DE", or "PRIVATE") of every
+  /// address, or null where it is unknown. Host names are resolved with the
+  /// system resolver only when [resolve] is true.
+  Future<List<String?>> lookupGeoIp(List<String> addresses,
+      {bool resolve = false}) async {
+    return await FlutterV2rayPlatform.instance
+        .lookupGeoIp(addresses, resolve: resolve);
+  }
+
+  /// Returns cache hits and misses of the route planner along with the
+  /// input, route and trie node counts and compute time of the last plan.
+  Future<Map<String, dynamic>> getRoutePlanStats() async {
+    return await FlutterV2rayPlatform.instance.getRoutePlanStats();
+  }
+
+  /// Returns the counters of the local dns cache (queries, hits, misses,
+  /// coalesced, prefetches, retries, failures, size, hit_rate) and the
+  /// median latency of hits and the median and 95th percentile of misses in
+  /// milliseconds.
+  Future<Map<String, dynamic>> getDnsCacheStats() async {
+    return await FlutterV2rayPlatform.instance.getDnsCacheStats();
+  }
+
+  /// Drops every cached dns answer.
+  Future<void> clearDnsCache() async {
+    await FlutterV2rayPlatform.instance.clearDnsCache();
+  }
+
+  /// Pushes [bytes] through the local SOCKS port of the connected core once
+  /// and returns the throughput. The core has to route 127.0.0.1 directly.
+  ///
+  /// This checks the core's SOCKS inbound only: the VPN interface and
+  /// tun2socks are not on the measured path.
+  ///
+  /// Returns null when not connected.
+  Future<SocksBenchmarkResult?> benchmarkSocksThroughput(
+      {int bytes = 16 * 1024 * 1024}) async {
+    return await FlutterV2rayPlatform.instance
+        .benchmarkSocksThroughput(bytes: bytes);
+  }
+
+  /// Encodes and decodes [config], or the running config when null,
+  /// [iterations] times with the codec used to hand configs to the native
+  /// services and with java serialization.
+  ///
+  /// Returns the size in bytes and the average encode and decode time in
+  /// microseconds of both (`parcel_*`, `serializable_*`), whether the json
+  /// travels inline, and `handoff_bytes`, the size actually sent. Returns an
+  /// empty map when there is no config.
+  Future<Map<String, dynamic>> benchmarkConfigCodec(
+      {String? config, int iterations = 1000}) async {
+    return await FlutterV2rayPlatform.instance
+        .benchmarkConfigCodec(config: config, iterations: iterations);
+  }
+
+  /// Returns how long each phase of the latest connect took, along with
+  /// rolling p50/p95 figures per phase.
+  Future<ConnectTimings> getConnectTimings() async {
+    return await FlutterV2rayPlatform.instance.getConnectTimings();
+  }
+
+  /// Returns restart count, last exit code, fd handoff latency and current
+  /// backoff of the tun2socks process used in VPN mode.
+  Future<Map<String, dynamic>> getTun2socksStats() async {
+    return await FlutterV2rayPlatform.instance.getTun2socksStats();
+  }
+
+  /// Returns the listener count and delivery latency of the status bus.
+  Future<Map<String, dynamic>> getStatusBusStats() async {
+    return await FlutterV2rayPlatform.instance.getStatusBusStats();
+  }
+
+  /// Returns the thread count, queue depth, task counters and queue wait and
+  /// run time percentiles of each native worker pool, keyed by pool name.
+  /// The io pool also reports stuck_delay_probes, the threads held by delay
+  /// probes that outlived their timeout.
+  Future<Map<String, dynamic>> getExecutorStats() async {
+    return await FlutterV2rayPlatform.instance.getExecutorStats();
+  }
+
   /// This method returns the connected server delay.
   Future<int> getConnectedServerDelay(
       {String url = 'https://google.com/generate_204'}) async {
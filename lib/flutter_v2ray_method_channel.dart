@@ -1,5 +1,19 @@
+import 'dart:async';
+
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
+import 'model/connect_timings.dart' show ConnectTimings;
+import 'model/delay_cache_stats.dart' show DelayCacheStats;
+import 'model/ipv6_mode.dart' show IPv6Mode;
+import 'model/outbound_stats.dart' show OutboundStats;
+import 'model/server_delay.dart' show ServerDelay;
+import 'model/server_quality.dart' show ServerQuality;
+import 'model/server_switch.dart' show ServerSwitch;
+import 'model/speed_test.dart' show SpeedTestProgress;
+import 'model/traffic_history.dart' show TrafficHistoryBucket;
+import 'model/traffic_usage.dart' show TrafficUsage;
+import 'model/socks_benchmark_result.dart' show SocksBenchmarkResult;
+import 'model/tun_profile.dart' show TunProfile;
 import 'model/v2ray_status.dart' show V2RayStatus;
 
 import 'flutter_v2ray_platform_interface.dart';
@@ -10,15 +24,29 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
   @visibleForTesting
   final methodChannel = const MethodChannel('flutter_v2ray');
   final eventChannel = const EventChannel('flutter_v2ray/status');
+  final delayEventChannel = const EventChannel('flutter_v2ray/delay');
+  late final Stream<dynamic> _delayEvents =
+      delayEventChannel.receiveBroadcastStream();
+  int _nextDelayBatchId = 0;
+  final speedTestEventChannel = const EventChannel('flutter_v2ray/speed_test');
+  late final Stream<dynamic> _speedTestEvents =
+      speedTestEventChannel.receiveBroadcastStream();
+  int _nextSpeedTestId = 0;
 
   @override
   Future<void> initializeV2Ray({
     required void Function(V2RayStatus status) onStatusChanged,
+    void Function(ServerSwitch event)? onServerSwitched,
     required String notificationIconResourceType,
     required String notificationIconResourceName,
+    bool statusBroadcastCompat = false,
   }) async {
     eventChannel.receiveBroadcastStream().distinct().cast().listen((event) {
-      if (event != null) {
+      if (event is Map) {
+        if (event['event'] == 'server_switched') {
+          onServerSwitched?.call(ServerSwitch.fromMap(event));
+        }
+      } else if (event != null) {
         onStatusChanged.call(V2RayStatus(
           duration: event[0],
           uploadSpeed: int.parse(event[1]),
@@ -34,6 +62,7 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
       {
         "notificationIconResourceType": notificationIconResourceType,
         "notificationIconResourceName": notificationIconResourceName,
+        "status_broadcast_compat": statusBroadcastCompat,
       },
     );
   }
@@ -45,15 +74,66 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     required String notificationDisconnectButtonName,
     List<String>? blockedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
     bool proxyOnly = false,
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
   }) async {
     await methodChannel.invokeMethod('startV2Ray', {
       "remark": remark,
       "config": config,
       "blocked_apps": blockedApps,
       "bypass_subnets": bypassSubnets,
+      "excluded_subnets": excludedSubnets,
+      "ipv6_mode": ipv6Mode.name.toUpperCase(),
+      "tun_profile": tunProfile.toMap(),
+      "local_dns_cache": localDnsCache,
       "proxy_only": proxyOnly,
       "notificationDisconnectButtonName": notificationDisconnectButtonName,
+      "stats_interval": statsInterval,
+      "stats_idle_interval": statsIdleInterval,
+    });
+  }
+
+  @override
+  Future<void> startV2RayWithFailover({
+    required String remark,
+    required List<String> configs,
+    required String notificationDisconnectButtonName,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
+    bool proxyOnly = false,
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
+    required String url,
+    required int checkInterval,
+    required int maxDelay,
+    required int maxFailures,
+  }) async {
+    await methodChannel.invokeMethod('startV2RayWithFailover', {
+      "remark": remark,
+      "configs": configs,
+      "blocked_apps": blockedApps,
+      "bypass_subnets": bypassSubnets,
+      "excluded_subnets": excludedSubnets,
+      "ipv6_mode": ipv6Mode.name.toUpperCase(),
+      "tun_profile": tunProfile.toMap(),
+      "local_dns_cache": localDnsCache,
+      "proxy_only": proxyOnly,
+      "notificationDisconnectButtonName": notificationDisconnectButtonName,
+      "stats_interval": statsInterval,
+      "stats_idle_interval": statsIdleInterval,
+      "url": url,
+      "check_interval": checkInterval,
+      "max_delay": maxDelay,
+      "max_failures": maxFailures,
     });
   }
 
@@ -71,6 +151,310 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     });
   }
 
+  @override
+  Stream<ServerDelay> getServerDelays({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required int timeout,
+  }) {
+    return _delayBatch('getServerDelays', {
+      "configs": configs,
+      "url": url,
+      "concurrency": concurrency,
+      "timeout": timeout,
+    });
+  }
+
+  @override
+  Future<ServerQuality> getServerQuality({
+    required String config,
+    required List<String> urls,
+    required int samples,
+  }) async {
+    final Map<dynamic, dynamic>? quality =
+        await methodChannel.invokeMethod('getServerQuality', {
+      "config": config,
+      "urls": urls,
+      "samples": samples,
+    });
+    return quality == null ? ServerQuality() : ServerQuality.fromMap(quality);
+  }
+
+  @override
+  Future<ServerQuality> getConnectedServerQuality({
+    required List<String> urls,
+    required int samples,
+  }) async {
+    final Map<dynamic, dynamic>? quality =
+        await methodChannel.invokeMethod('getConnectedServerQuality', {
+      "urls": urls,
+      "samples": samples,
+    });
+    return quality == null ? ServerQuality() : ServerQuality.fromMap(quality);
+  }
+
+  @override
+  Stream<ServerDelay> getServerTcpDelays({
+    required List<String> configs,
+    required int concurrency,
+    required int timeout,
+  }) {
+    return _delayBatch('getServerTcpDelays', {
+      "configs": configs,
+      "concurrency": concurrency,
+      "timeout": timeout,
+    });
+  }
+
+  /// Starts a batch with [method] and streams its results from the delay
+  /// event channel.
+  Stream<ServerDelay> _delayBatch(String method, Map<String, dynamic> args) {
+    final batchId = _nextDelayBatchId++;
+    late final StreamController<ServerDelay> controller;
+    StreamSubscription<dynamic>? subscription;
+    var done = false;
+    controller = StreamController<ServerDelay>(
+      onListen: () {
+        subscription = _delayEvents.listen((event) {
+          if (event is! Map || event['batch_id'] != batchId) return;
+          if (event['done'] == true) {
+            done = true;
+            subscription?.cancel();
+            controller.close();
+            return;
+          }
+          controller.add(ServerDelay(
+            index: event['index'],
+            delay: event['delay'],
+          ));
+        }, onError: controller.addError);
+        methodChannel.invokeMethod(method, {
+          "batch_id": batchId,
+          ...args,
+        }).catchError((Object error) {
+          controller.addError(error);
+          subscription?.cancel();
+          controller.close();
+        });
+      },
+      onCancel: () async {
+        await subscription?.cancel();
+        if (!done) {
+          await methodChannel
+              .invokeMethod('cancelServerDelays', {"batch_id": batchId});
+        }
+      },
+    );
+    return controller.stream;
+  }
+
+  @override
+  Stream<SpeedTestProgress> speedTest({
+    required String? downloadUrl,
+    required String? uploadUrl,
+    required int streams,
+    required int duration,
+    required int rampUp,
+  }) {
+    final testId = _nextSpeedTestId++;
+    late final StreamController<SpeedTestProgress> controller;
+    StreamSubscription<dynamic>? subscription;
+    var done = false;
+    controller = StreamController<SpeedTestProgress>(
+      onListen: () {
+        subscription = _speedTestEvents.listen((event) {
+          if (event is! Map || event['test_id'] != testId) return;
+          controller.add(SpeedTestProgress.fromMap(event));
+          if (event['done'] == true) {
+            done = true;
+            subscription?.cancel();
+            controller.close();
+          }
+        }, onError: controller.addError);
+        methodChannel.invokeMethod('startSpeedTest', {
+          "test_id": testId,
+          "download_url": downloadUrl,
+          "upload_url": uploadUrl,
+          "streams": streams,
+          "duration": duration,
+          "ramp_up": rampUp,
+        }).catchError((Object error) {
+          controller.addError(error);
+          subscription?.cancel();
+          controller.close();
+        });
+      },
+      onCancel: () async {
+        await subscription?.cancel();
+        if (!done) {
+          await methodChannel
+              .invokeMethod('cancelSpeedTest', {"test_id": testId});
+        }
+      },
+    );
+    return controller.stream;
+  }
+
+  @override
+  Future<void> configureDelayCache({
+    required int ttl,
+    required int maxEntries,
+  }) async {
+    await methodChannel.invokeMethod('configureDelayCache', {
+      "ttl": ttl,
+      "max_entries": maxEntries,
+    });
+  }
+
+  @override
+  Future<void> clearDelayCache() async {
+    await methodChannel.invokeMethod('clearDelayCache');
+  }
+
+  @override
+  Future<DelayCacheStats> getDelayCacheStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getDelayCacheStats');
+    return stats == null ? DelayCacheStats() : DelayCacheStats.fromMap(stats);
+  }
+
+  @override
+  Future<List<OutboundStats>> getOutboundStats() async {
+    final List<dynamic>? stats =
+        await methodChannel.invokeMethod('getOutboundStats');
+    return stats == null
+        ? []
+        : stats.map((e) => OutboundStats.fromMap(e)).toList();
+  }
+
+  @override
+  Future<List<TrafficHistoryBucket>> getTrafficHistory({
+    required DateTime from,
+    required DateTime to,
+    required int buckets,
+  }) async {
+    final List<int>? values =
+        await methodChannel.invokeMethod('getTrafficHistory', {
+      "from": from.millisecondsSinceEpoch,
+      "to": to.millisecondsSinceEpoch,
+      "buckets": buckets,
+    });
+    return values == null ? [] : TrafficHistoryBucket.fromList(values);
+  }
+
+  @override
+  Future<List<TrafficUsage>> getDailyTraffic({
+    required DateTime from,
+    required DateTime to,
+  }) async {
+    final List<int>? values = await methodChannel.invokeMethod(
+        'getDailyTraffic', {
+      "from": from.millisecondsSinceEpoch,
+      "to": to.millisecondsSinceEpoch,
+    });
+    return values == null ? [] : TrafficUsage.fromList(values);
+  }
+
+  @override
+  Future<List<TrafficUsage>> getMonthlyTraffic({
+    required DateTime from,
+    required DateTime to,
+  }) async {
+    final List<int>? values = await methodChannel.invokeMethod(
+        'getMonthlyTraffic', {
+      "from": from.millisecondsSinceEpoch,
+      "to": to.millisecondsSinceEpoch,
+    });
+    return values == null ? [] : TrafficUsage.fromList(values);
+  }
+
+  @override
+  Future<void> clearTrafficUsage() async {
+    await methodChannel.invokeMethod('clearTrafficUsage');
+  }
+
+  @override
+  Future<List<String?>> lookupGeoIp(List<String> addresses,
+      {bool resolve = false}) async {
+    final List<dynamic>? countries =
+        await methodChannel.invokeMethod('lookupGeoIp', {
+      "addresses": addresses,
+      "resolve": resolve,
+    });
+    return countries == null
+        ? List<String?>.filled(addresses.length, null)
+        : countries.cast<String?>();
+  }
+
+  @override
+  Future<Map<String, dynamic>> getRoutePlanStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getRoutePlanStats');
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
+  @override
+  Future<Map<String, dynamic>> getDnsCacheStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getDnsCacheStats');
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
+  @override
+  Future<void> clearDnsCache() async {
+    await methodChannel.invokeMethod('clearDnsCache');
+  }
+
+  @override
+  Future<SocksBenchmarkResult?> benchmarkSocksThroughput(
+      {int bytes = 16 * 1024 * 1024}) async {
+    final Map<dynamic, dynamic>? result =
+        await methodChannel.invokeMethod('benchmarkSocksThroughput', {
+      "bytes": bytes,
+    });
+    return result == null ? null : SocksBenchmarkResult.fromMap(result);
+  }
+
+  @override
+  Future<Map<String, dynamic>> benchmarkConfigCodec(
+      {String? config, int iterations = 1000}) async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('benchmarkConfigCodec', {
+      "config": config,
+      "iterations": iterations,
+    });
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
+  @override
+  Future<ConnectTimings> getConnectTimings() async {
+    final Map<dynamic, dynamic>? timings =
+        await methodChannel.invokeMethod('getConnectTimings');
+    return timings == null ? ConnectTimings() : ConnectTimings.fromMap(timings);
+  }
+
+  @override
+  Future<Map<String, dynamic>> getTun2socksStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getTun2socksStats');
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
+  @override
+  Future<Map<String, dynamic>> getStatusBusStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getStatusBusStats');
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
+  @override
+  Future<Map<String, dynamic>> getExecutorStats() async {
+    final Map<dynamic, dynamic>? stats =
+        await methodChannel.invokeMethod('getExecutorStats');
+    return stats == null ? {} : Map<String, dynamic>.from(stats);
+  }
+
   @override
   Future<int> getConnectedServerDelay(String url) async {
     return await methodChannel
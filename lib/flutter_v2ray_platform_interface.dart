@@ -1,3 +1,15 @@
+import 'package:flutter_v2ray/model/connect_timings.dart';
+import 'package:flutter_v2ray/model/delay_cache_stats.dart';
+import 'package:flutter_v2ray/model/ipv6_mode.dart';
+import 'package:flutter_v2ray/model/outbound_stats.dart';
+import 'package:flutter_v2ray/model/server_delay.dart';
+import 'package:flutter_v2ray/model/server_quality.dart';
+import 'package:flutter_v2ray/model/server_switch.dart';
+import 'package:flutter_v2ray/model/speed_test.dart';
+import 'package:flutter_v2ray/model/traffic_history.dart';
+import 'package:flutter_v2ray/model/traffic_usage.dart';
+import 'package:flutter_v2ray/model/socks_benchmark_result.dart';
+import 'package:flutter_v2ray/model/tun_profile.dart';
 import 'package:flutter_v2ray/model/v2ray_status.dart';
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
@@ -30,8 +42,10 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
 
   Future<void> initializeV2Ray({
     required void Function(V2RayStatus status) onStatusChanged,
+    void Function(ServerSwitch event)? onServerSwitched,
     required String notificationIconResourceType,
     required String notificationIconResourceName,
+    bool statusBroadcastCompat = false,
   }) {
     throw UnimplementedError('initializeV2Ray() has not been implemented.');
   }
@@ -42,11 +56,39 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
     required String notificationDisconnectButtonName,
     List<String>? blockedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
     bool proxyOnly = false,
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
   }) {
     throw UnimplementedError('startV2Ray() has not been implemented.');
   }
 
+  Future<void> startV2RayWithFailover({
+    required String remark,
+    required List<String> configs,
+    required String notificationDisconnectButtonName,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    IPv6Mode ipv6Mode = IPv6Mode.disabled,
+    TunProfile tunProfile = const TunProfile(),
+    bool localDnsCache = false,
+    bool proxyOnly = false,
+    int statsInterval = 1000,
+    int statsIdleInterval = 30000,
+    required String url,
+    required int checkInterval,
+    required int maxDelay,
+    required int maxFailures,
+  }) {
+    throw UnimplementedError(
+        'startV2RayWithFailover() has not been implemented.');
+  }
+
   Future<void> stopV2Ray() {
     throw UnimplementedError('stopV2Ray() has not been implemented.');
   }
@@ -55,6 +97,139 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
     throw UnimplementedError('getServerDelay() has not been implemented.');
   }
 
+  Stream<ServerDelay> getServerDelays({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required int timeout,
+  }) {
+    throw UnimplementedError('getServerDelays() has not been implemented.');
+  }
+
+  Future<ServerQuality> getServerQuality({
+    required String config,
+    required List<String> urls,
+    required int samples,
+  }) {
+    throw UnimplementedError('getServerQuality() has not been implemented.');
+  }
+
+  Future<ServerQuality> getConnectedServerQuality({
+    required List<String> urls,
+    required int samples,
+  }) {
+    throw UnimplementedError(
+        'getConnectedServerQuality() has not been implemented.');
+  }
+
+  Stream<ServerDelay> getServerTcpDelays({
+    required List<String> configs,
+    required int concurrency,
+    required int timeout,
+  }) {
+    throw UnimplementedError('getServerTcpDelays() has not been implemented.');
+  }
+
+  Stream<SpeedTestProgress> speedTest({
+    required String? downloadUrl,
+    required String? uploadUrl,
+    required int streams,
+    required int duration,
+    required int rampUp,
+  }) {
+    throw UnimplementedError('speedTest() has not been implemented.');
+  }
+
+  Future<void> configureDelayCache({
+    required int ttl,
+    required int maxEntries,
+  }) {
+    throw UnimplementedError('configureDelayCache() has not been implemented.');
+  }
+
+  Future<void> clearDelayCache() {
+    throw UnimplementedError('clearDelayCache() has not been implemented.');
+  }
+
+  Future<DelayCacheStats> getDelayCacheStats() {
+    throw UnimplementedError('getDelayCacheStats() has not been implemented.');
+  }
+
+  Future<List<OutboundStats>> getOutboundStats() {
+    throw UnimplementedError('getOutboundStats() has not been implemented.');
+  }
+
+  Future<List<TrafficHistoryBucket>> getTrafficHistory({
+    required DateTime from,
+    required DateTime to,
+    required int buckets,
+  }) {
+    throw UnimplementedError('getTrafficHistory() has not been implemented.');
+  }
+
+  Future<List<TrafficUsage>> getDailyTraffic({
+    required DateTime from,
+    required DateTime to,
+  }) {
+    throw UnimplementedError('getDailyTraffic() has not been implemented.');
+  }
+
+  Future<List<TrafficUsage>> getMonthlyTraffic({
+    required DateTime from,
+    required DateTime to,
+  }) {
+    throw UnimplementedError('getMonthlyTraffic() has not been implemented.');
+  }
+
+  Future<void> clearTrafficUsage() {
+    throw UnimplementedError('clearTrafficUsage() has not been implemented.');
+  }
+
+  Future<List<String?>> lookupGeoIp(List<String> addresses,
+      {bool resolve = false}) {
+    throw UnimplementedError('lookupGeoIp() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getRoutePlanStats() {
+    throw UnimplementedError('getRoutePlanStats() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getDnsCacheStats() {
+    throw UnimplementedError('getDnsCacheStats() has not been implemented.');
+  }
+
+  Future<void> clearDnsCache() {
+    throw UnimplementedError('clearDnsCache() has not been implemented.');
+  }
+
+  Future<SocksBenchmarkResult?> benchmarkSocksThroughput(
+      {int bytes = 16 * 1024 * 1024}) {
+    throw UnimplementedError(
+        'benchmarkSocksThroughput() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> benchmarkConfigCodec(
+      {String? config, int iterations = 1000}) {
+    throw UnimplementedError(
+        'benchmarkConfigCodec() has not been implemented.');
+  }
+
+  Future<ConnectTimings> getConnectTimings() {
+    throw UnimplementedError('getConnectTimings() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getTun2socksStats() {
+    throw UnimplementedError('getTun2socksStats() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getStatusBusStats() {
+    throw UnimplementedError('getStatusBusStats() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getExecutorStats() {
+    throw UnimplementedError('getExecutorStats() has not been implemented.');
+  }
+
   Future<int> getConnectedServerDelay(String url) async {
     throw UnimplementedError(
       'getConnectedServerDelay() has not been implemented.',
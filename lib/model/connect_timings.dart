@@ -0,0 +1,46 @@
+class ConnectPhaseStats {
+  /// Milliseconds.
+  final double p50;
+  final double p95;
+  final int count;
+
+  ConnectPhaseStats({
+    this.p50 = 0,
+    this.p95 = 0,
+    this.count = 0,
+  });
+
+  factory ConnectPhaseStats.fromMap(Map<dynamic, dynamic> map) {
+    return ConnectPhaseStats(
+      p50: (map['p50'] as num?)?.toDouble() ?? 0,
+      p95: (map['p95'] as num?)?.toDouble() ?? 0,
+      count: map['count'] ?? 0,
+    );
+  }
+}
+
+class ConnectTimings {
+  /// Phase name (copy_assets, init_env, parse_config, run_loop, establish,
+  /// tun2socks_spawn, fd_handoff, first_traffic) to milliseconds of the
+  /// latest connect. Phases that did not run are missing.
+  final Map<String, double> last;
+
+  /// Rolling figures of each phase over recent connects.
+  final Map<String, ConnectPhaseStats> stats;
+
+  ConnectTimings({
+    this.last = const {},
+    this.stats = const {},
+  });
+
+  factory ConnectTimings.fromMap(Map<dynamic, dynamic> map) {
+    final Map<dynamic, dynamic> last = map['last'] ?? {};
+    final Map<dynamic, dynamic> stats = map['stats'] ?? {};
+    return ConnectTimings(
+      last: last.map((key, value) =>
+          MapEntry(key as String, (value as num).toDouble())),
+      stats: stats.map((key, value) =>
+          MapEntry(key as String, ConnectPhaseStats.fromMap(value))),
+    );
+  }
+}
@@ -0,0 +1,31 @@
+class DelayCacheStats {
+  final int hits;
+  final int misses;
+  final int coalesced;
+  final int evictions;
+  final int size;
+  final int ttl;
+  final int maxEntries;
+
+  DelayCacheStats({
+    this.hits = 0,
+    this.misses = 0,
+    this.coalesced = 0,
+    this.evictions = 0,
+    this.size = 0,
+    this.ttl = 0,
+    this.maxEntries = 0,
+  });
+
+  factory DelayCacheStats.fromMap(Map<dynamic, dynamic> map) {
+    return DelayCacheStats(
+      hits: map['hits'] ?? 0,
+      misses: map['misses'] ?? 0,
+      coalesced: map['coalesced'] ?? 0,
+      evictions: map['evictions'] ?? 0,
+      size: map['size'] ?? 0,
+      ttl: map['ttl'] ?? 0,
+      maxEntries: map['max_entries'] ?? 0,
+    );
+  }
+}
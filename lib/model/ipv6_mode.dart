@@ -0,0 +1,14 @@
+/// How the VPN tunnel treats IPv6 traffic.
+enum IPv6Mode {
+  /// IPv6 is not configured on the tunnel, the system blocks it for tunnelled
+  /// apps.
+  disabled,
+
+  /// IPv6 gets a tunnel address and routes and goes through the core.
+  tunnel,
+
+  /// IPv6 is not configured on the tunnel either, and the local dns cache
+  /// answers AAAA queries without addresses, so clients only see IPv4
+  /// addresses. Turns the local dns cache on, whatever localDnsCache says.
+  blackhole,
+}
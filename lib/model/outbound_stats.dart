@@ -0,0 +1,31 @@
+class OutboundStats {
+  final String tag;
+  final String protocol;
+  final bool proxied;
+  final int uploadSpeed;
+  final int downloadSpeed;
+  final int upload;
+  final int download;
+
+  OutboundStats({
+    required this.tag,
+    this.protocol = "",
+    this.proxied = true,
+    this.uploadSpeed = 0,
+    this.downloadSpeed = 0,
+    this.upload = 0,
+    this.download = 0,
+  });
+
+  factory OutboundStats.fromMap(Map<dynamic, dynamic> map) {
+    return OutboundStats(
+      tag: map['tag'] ?? "",
+      protocol: map['protocol'] ?? "",
+      proxied: map['proxied'] ?? true,
+      uploadSpeed: map['upload_speed'] ?? 0,
+      downloadSpeed: map['download_speed'] ?? 0,
+      upload: map['upload'] ?? 0,
+      download: map['download'] ?? 0,
+    );
+  }
+}
@@ -0,0 +1,12 @@
+class ServerDelay {
+  /// Position of the config in the list passed to `getServerDelays`.
+  final int index;
+
+  /// Measured delay in milliseconds, or -1 if the probe failed or timed out.
+  final int delay;
+
+  ServerDelay({
+    required this.index,
+    required this.delay,
+  });
+}
@@ -0,0 +1,40 @@
+/// Delay distribution of a server over all samples taken so far, older runs
+/// weighing less. Delays are in milliseconds and -1 when every sample failed.
+class ServerQuality {
+  final int min;
+  final int p50;
+  final int p95;
+  final int max;
+  final int jitter;
+  final double failureRate;
+
+  /// Samples taken by the call that returned this profile.
+  final int samples;
+
+  /// Samples the profile is based on, after aging.
+  final int weight;
+
+  ServerQuality({
+    this.min = -1,
+    this.p50 = -1,
+    this.p95 = -1,
+    this.max = -1,
+    this.jitter = 0,
+    this.failureRate = 0,
+    this.samples = 0,
+    this.weight = 0,
+  });
+
+  factory ServerQuality.fromMap(Map<dynamic, dynamic> map) {
+    return ServerQuality(
+      min: map['min'] ?? -1,
+      p50: map['p50'] ?? -1,
+      p95: map['p95'] ?? -1,
+      max: map['max'] ?? -1,
+      jitter: map['jitter'] ?? 0,
+      failureRate: (map['failure_rate'] ?? 0).toDouble(),
+      samples: map['samples'] ?? 0,
+      weight: map['weight'] ?? 0,
+    );
+  }
+}
@@ -0,0 +1,30 @@
+class ServerSwitch {
+  /// Index of the config that was connected before the switch.
+  final int fromIndex;
+
+  /// Index of the config that is connected now.
+  final int toIndex;
+
+  /// "failure" when the previous server stopped responding, "latency" when
+  /// it exceeded the configured maximum delay.
+  final String reason;
+
+  /// Measured delay of the new server in milliseconds.
+  final int delay;
+
+  ServerSwitch({
+    required this.fromIndex,
+    required this.toIndex,
+    this.reason = "",
+    this.delay = -1,
+  });
+
+  factory ServerSwitch.fromMap(Map<dynamic, dynamic> map) {
+    return ServerSwitch(
+      fromIndex: map['from'] ?? -1,
+      toIndex: map['to'] ?? -1,
+      reason: map['reason'] ?? "",
+      delay: map['delay'] ?? -1,
+    );
+  }
+}
@@ -0,0 +1,22 @@
+class SocksBenchmarkResult {
+  final int bytes;
+  final double millis;
+  final double mbps;
+  final String? error;
+
+  SocksBenchmarkResult({
+    this.bytes = 0,
+    this.millis = 0,
+    this.mbps = 0,
+    this.error,
+  });
+
+  factory SocksBenchmarkResult.fromMap(Map<dynamic, dynamic> map) {
+    return SocksBenchmarkResult(
+      bytes: map['bytes'] ?? 0,
+      millis: (map['millis'] ?? 0).toDouble(),
+      mbps: (map['mbps'] ?? 0).toDouble(),
+      error: map['error'],
+    );
+  }
+}
@@ -0,0 +1,75 @@
+/// Final numbers of a speed test. Rates are in Mbit/s over the steady state
+/// after the ramp up, 0 for a phase that was skipped or moved no data.
+class SpeedTestResult {
+  final double downloadMbps;
+  final double uploadMbps;
+  final int downloadBytes;
+  final int uploadBytes;
+
+  /// Median time to the first response byte of the download streams in
+  /// milliseconds, -1 when none arrived.
+  final int timeToFirstByte;
+
+  /// Why the test moved no data, null otherwise.
+  final String? error;
+  final bool cancelled;
+
+  SpeedTestResult({
+    this.downloadMbps = 0,
+    this.uploadMbps = 0,
+    this.downloadBytes = 0,
+    this.uploadBytes = 0,
+    this.timeToFirstByte = -1,
+    this.error,
+    this.cancelled = false,
+  });
+
+  factory SpeedTestResult.fromMap(Map<dynamic, dynamic> map) {
+    return SpeedTestResult(
+      downloadMbps: (map['download_mbps'] ?? 0).toDouble(),
+      uploadMbps: (map['upload_mbps'] ?? 0).toDouble(),
+      downloadBytes: map['download_bytes'] ?? 0,
+      uploadBytes: map['upload_bytes'] ?? 0,
+      timeToFirstByte: map['ttfb_ms'] ?? -1,
+      error: map['error'],
+      cancelled: map['cancelled'] ?? false,
+    );
+  }
+}
+
+/// A progress tick of a running speed test, or its end when [result] is set.
+class SpeedTestProgress {
+  /// Either `download` or `upload`, empty on the final event.
+  final String phase;
+
+  /// Milliseconds since the phase started.
+  final int elapsed;
+
+  /// Bytes moved in this phase so far.
+  final int bytes;
+
+  /// Rate over the last tick in Mbit/s.
+  final double mbps;
+
+  final SpeedTestResult? result;
+
+  SpeedTestProgress({
+    this.phase = '',
+    this.elapsed = 0,
+    this.bytes = 0,
+    this.mbps = 0,
+    this.result,
+  });
+
+  factory SpeedTestProgress.fromMap(Map<dynamic, dynamic> map) {
+    if (map['done'] == true) {
+      return SpeedTestProgress(result: SpeedTestResult.fromMap(map));
+    }
+    return SpeedTestProgress(
+      phase: map['phase'] ?? '',
+      elapsed: map['elapsed'] ?? 0,
+      bytes: map['bytes'] ?? 0,
+      mbps: (map['mbps'] ?? 0).toDouble(),
+    );
+  }
+}
@@ -0,0 +1,37 @@
+class TrafficHistoryBucket {
+  final DateTime start;
+  final int minUploadSpeed;
+  final int avgUploadSpeed;
+  final int maxUploadSpeed;
+  final int minDownloadSpeed;
+  final int avgDownloadSpeed;
+  final int maxDownloadSpeed;
+
+  TrafficHistoryBucket({
+    required this.start,
+    this.minUploadSpeed = 0,
+    this.avgUploadSpeed = 0,
+    this.maxUploadSpeed = 0,
+    this.minDownloadSpeed = 0,
+    this.avgDownloadSpeed = 0,
+    this.maxDownloadSpeed = 0,
+  });
+
+  /// Splits the flattened series returned by the platform, seven values per
+  /// bucket.
+  static List<TrafficHistoryBucket> fromList(List<int> values) {
+    final buckets = <TrafficHistoryBucket>[];
+    for (int i = 0; i + 6 < values.length; i += 7) {
+      buckets.add(TrafficHistoryBucket(
+        start: DateTime.fromMillisecondsSinceEpoch(values[i]),
+        minUploadSpeed: values[i + 1],
+        avgUploadSpeed: values[i + 2],
+        maxUploadSpeed: values[i + 3],
+        minDownloadSpeed: values[i + 4],
+        avgDownloadSpeed: values[i + 5],
+        maxDownloadSpeed: values[i + 6],
+      ));
+    }
+    return buckets;
+  }
+}
@@ -0,0 +1,26 @@
+class TrafficUsage {
+  /// Local start of the day or month.
+  final DateTime period;
+  final int upload;
+  final int download;
+
+  TrafficUsage({
+    required this.period,
+    this.upload = 0,
+    this.download = 0,
+  });
+
+  /// Splits the flattened series returned by the platform, three values per
+  /// period.
+  static List<TrafficUsage> fromList(List<int> values) {
+    final usage = <TrafficUsage>[];
+    for (int i = 0; i + 2 < values.length; i += 3) {
+      usage.add(TrafficUsage(
+        period: DateTime.fromMillisecondsSinceEpoch(values[i]),
+        upload: values[i + 1],
+        download: values[i + 2],
+      ));
+    }
+    return usage;
+  }
+}
@@ -0,0 +1,32 @@
+/// Settings of the VPN interface and tun2socks, applied to both sides.
+class TunProfile {
+  /// MTU of the VPN interface and of tun2socks, at least 1280 when IPv6 is
+  /// enabled.
+  final int mtu;
+
+  /// Whether tun2socks relays UDP through the SOCKS port.
+  final bool udpRelay;
+
+  /// tun2socks log level: none, error, warning, notice, info or debug.
+  /// Any other value falls back to error. The output goes to logcat.
+  final String logLevel;
+
+  /// Extra tun2socks arguments, appended as they are.
+  final List<String> extraArgs;
+
+  const TunProfile({
+    this.mtu = 1500,
+    this.udpRelay = true,
+    this.logLevel = 'error',
+    this.extraArgs = const [],
+  });
+
+  Map<String, dynamic> toMap() {
+    return {
+      'mtu': mtu,
+      'udp_relay': udpRelay,
+      'log_level': logLevel,
+      'extra_args': extraArgs,
+    };
+  }
+}